@@ -0,0 +1,74 @@
+package com.miketeashop.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Menu display and management for both shops across menu sizes.
+ *
+ * Each add/remove benchmark adds an item and removes it again, so the menu
+ * stays at the configured size for the whole trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MenuBenchmark {
+
+    @Param({"MikeTeaShop", "MikeTeaShop2"})
+    public String shop;
+
+    @Param({"3", "100", "1000", "10000"})
+    public int menuSize;
+
+    private ShopHandles handles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        ShopHandles.silenceConsole();
+        handles = new ShopHandles(shop);
+        handles.growMenu(menuSize);
+    }
+
+    @Benchmark
+    public void showMenu() throws Throwable {
+        handles.showMenu.invokeExact();
+    }
+
+    @Benchmark
+    public String capitalizeWords() throws Throwable {
+        return (String) handles.capitalizeWords.invokeExact("honey bean milk tea");
+    }
+
+    @Benchmark
+    public boolean addRemoveTea() throws Throwable {
+        handles.addTea.invokeExact("Benchmark Tea", 3.95);
+        return (boolean) handles.removeTea.invokeExact("Benchmark Tea");
+    }
+
+    @Benchmark
+    public boolean addRemoveMaterial() throws Throwable {
+        handles.addMaterial.invokeExact("Benchmark Topping", 0.65);
+        return (boolean) handles.removeMaterial.invokeExact("Benchmark Topping");
+    }
+
+    @Benchmark
+    public boolean addRemoveSweetLevel() throws Throwable {
+        handles.addSweetLevel.invokeExact("Benchmark Sweet", 0.10);
+        return (boolean) handles.removeSweetLevel.invokeExact("Benchmark Sweet");
+    }
+}
@@ -0,0 +1,93 @@
+package com.miketeashop.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order pricing for both shops across order shapes and menu sizes.
+ *
+ * The breakdown benchmarks go through calculatePriceWithBreakdown (console output
+ * discarded); the quiet ones go through priceOrder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+    static final String NO_MATERIALS = "green tea, 50%";
+    static final String MANY_MATERIALS = "Green Tea, pearl, coconut, honey bean, pearl, coconut, honey bean,"
+            + " pearl, coconut, honey bean, pearl, coconut, honey bean, 0%";
+    static final String INVALID_TEA = "nonexistent tea, pearl, 50%";
+    static final String INVALID_MATERIAL = "green tea, pearl, fake pearl, 50%";
+    static final String INVALID_FORMAT = "green tea";
+
+    @Param({"MikeTeaShop", "MikeTeaShop2"})
+    public String shop;
+
+    @Param({"3", "100", "1000", "10000"})
+    public int menuSize;
+
+    private ShopHandles handles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        ShopHandles.silenceConsole();
+        handles = new ShopHandles(shop);
+        handles.growMenu(menuSize);
+    }
+
+    @Benchmark
+    public double breakdownNoMaterials() throws Throwable {
+        return (double) handles.calculatePriceWithBreakdown.invokeExact(NO_MATERIALS);
+    }
+
+    @Benchmark
+    public double breakdownManyMaterials() throws Throwable {
+        return (double) handles.calculatePriceWithBreakdown.invokeExact(MANY_MATERIALS);
+    }
+
+    @Benchmark
+    public double breakdownInvalidTea() throws Throwable {
+        return (double) handles.calculatePriceWithBreakdown.invokeExact(INVALID_TEA);
+    }
+
+    @Benchmark
+    public double breakdownInvalidMaterial() throws Throwable {
+        return (double) handles.calculatePriceWithBreakdown.invokeExact(INVALID_MATERIAL);
+    }
+
+    @Benchmark
+    public double breakdownInvalidFormat() throws Throwable {
+        return (double) handles.calculatePriceWithBreakdown.invokeExact(INVALID_FORMAT);
+    }
+
+    @Benchmark
+    public Object quietNoMaterials() throws Throwable {
+        return (Object) handles.priceOrder.invokeExact(NO_MATERIALS);
+    }
+
+    @Benchmark
+    public Object quietManyMaterials() throws Throwable {
+        return (Object) handles.priceOrder.invokeExact(MANY_MATERIALS);
+    }
+
+    @Benchmark
+    public Object quietInvalidMaterial() throws Throwable {
+        return (Object) handles.priceOrder.invokeExact(INVALID_MATERIAL);
+    }
+}
@@ -0,0 +1,70 @@
+package com.miketeashop.benchmarks;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Method handles into MikeTeaShop or MikeTeaShop2.
+ *
+ * The shops live in the default package, which cannot be imported from here
+ * (and JMH rejects benchmarks in the default package), so their static methods
+ * are resolved once per trial and called through invokeExact.
+ */
+final class ShopHandles {
+
+    final MethodHandle calculatePriceWithBreakdown;  // (String) double
+    final MethodHandle priceOrder;                   // (String) Object
+    final MethodHandle showMenu;                     // () void
+    final MethodHandle capitalizeWords;              // (String) String
+    final MethodHandle addTea;                       // (String, double) void
+    final MethodHandle removeTea;                    // (String) boolean
+    final MethodHandle addMaterial;                  // (String, double) void
+    final MethodHandle removeMaterial;               // (String) boolean
+    final MethodHandle addSweetLevel;                // (String, double) void
+    final MethodHandle removeSweetLevel;             // (String) boolean
+
+    ShopHandles(String shopClass) throws ReflectiveOperationException {
+        Class<?> shop = Class.forName(shopClass);
+        calculatePriceWithBreakdown = find(shop, "calculatePriceWithBreakdown", String.class);
+        priceOrder = find(shop, "priceOrder", String.class)
+                .asType(MethodType.methodType(Object.class, String.class));
+        showMenu = find(shop, "showMenu");
+        capitalizeWords = find(shop, "capitalizeWords", String.class);
+        addTea = find(shop, "addTea", String.class, double.class);
+        removeTea = find(shop, "removeTea", String.class);
+        addMaterial = find(shop, "addMaterial", String.class, double.class);
+        removeMaterial = find(shop, "removeMaterial", String.class);
+        addSweetLevel = find(shop, "addSweetLevel", String.class, double.class);
+        removeSweetLevel = find(shop, "removeSweetLevel", String.class);
+    }
+
+    private static MethodHandle find(Class<?> shop, String name, Class<?>... parameterTypes)
+            throws ReflectiveOperationException {
+        Method method = shop.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    /**
+     * Grows the tea and material menus to {@code size} items each, starting from the
+     * three defaults. Names are unique so MikeTeaShop2 never rejects them.
+     */
+    void growMenu(int size) throws Throwable {
+        for (int i = 3; i < size; i++) {
+            addTea.invokeExact("Tea " + i, 3.0 + (i % 100) / 100.0);
+            addMaterial.invokeExact("Topping " + i, 0.25 + (i % 50) / 100.0);
+        }
+    }
+
+    /**
+     * The shops print every breakdown line and menu change; send that to a null
+     * stream so the benchmarks measure the shop code rather than the terminal.
+     */
+    static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+}
@@ -0,0 +1,483 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Assigns accepted drinks to N baristas.
+ *
+ * Every barista has its own lock-free deque. New drinks are dealt to the deques
+ * round-robin; a barista works through its own deque oldest first and, with
+ * Policy.WORK_STEALING, takes the oldest drink from the fullest other deque when
+ * its own is empty, so an unlucky deal does not leave one barista with a backlog
+ * while others stand idle. When a barista starts a drink it also takes identical
+ * drinks (same tea, materials and sweetness) from near the front of its own deque,
+ * up to maxBatch, and makes them together: each extra drink adds
+ * BATCH_EXTRA_PERCENT of the prep time instead of all of it.
+ *
+ * Live mode runs one thread per barista and "makes" a drink by sleeping for its
+ * prep time divided by a speed-up factor. simulate() runs the same queues and
+ * policy against a list of arrivals in virtual time on the calling thread, so
+ * runs are deterministic and policies can be compared offline on recorded logs.
+ */
+final class BaristaScheduler implements AutoCloseable {
+
+    enum Policy {
+        NO_STEALING,
+        WORK_STEALING
+    }
+
+    static final int DEFAULT_MAX_BATCH = 4;
+    static final int BATCH_EXTRA_PERCENT = 40;
+    // Queued drinks a barista looks through for ones identical to the drink it starts
+    static final int BATCH_WINDOW = 8;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * One drink to make. Its completion is signalled through {@link #done()} in live mode.
+     */
+    static final class Drink {
+        final String key;
+        final long prepMillis;
+        // Live mode: System.nanoTime() at submit; simulation: arrival time in millis
+        long submittedAt;
+        volatile int barista = -1;
+        private final CompletableFuture<Drink> done = new CompletableFuture<>();
+
+        Drink(String key, long prepMillis, long submittedAt) {
+            this.key = key;
+            this.prepMillis = prepMillis;
+            this.submittedAt = submittedAt;
+        }
+
+        CompletableFuture<Drink> done() {
+            return done;
+        }
+
+        @Override
+        public String toString() {
+            return key + " (" + prepMillis + " ms)";
+        }
+    }
+
+    /**
+     * The drink for a valid quote: identical orders get the same key whatever the
+     * order of their materials, and the prep time is the tea's plus every material's.
+     */
+    static Drink drink(PriceQuote quote, MenuSnapshot menu) {
+        if (!quote.isValid()) {
+            throw new IllegalArgumentException("Cannot schedule an invalid order: " + quote.errorMessage());
+        }
+        int items = quote.itemCount();
+        long prepMillis = menu.teas().prepMillis(quote.itemId(0));
+        String[] materials = new String[items - 2];
+        for (int i = 1; i < items - 1; i++) {
+            materials[i - 1] = quote.itemName(i);
+            prepMillis += menu.materials().prepMillis(quote.itemId(i));
+        }
+        Arrays.sort(materials);
+        StringBuilder key = new StringBuilder(quote.itemName(0));
+        for (String material : materials) {
+            key.append(", ").append(material);
+        }
+        key.append(", ").append(quote.itemName(items - 1));
+        return new Drink(key.toString(), prepMillis, 0);
+    }
+
+    private final int baristas;
+    private final Policy policy;
+    private final int maxBatch;
+    private final double speedup;
+    private final List<ConcurrentLinkedDeque<Drink>> queues;
+    // Drinks per deque (ConcurrentLinkedDeque.size() walks the whole deque)
+    private final AtomicIntegerArray depths;
+    private final AtomicInteger nextQueue = new AtomicInteger();
+
+    // Live mode
+    private final Thread[] workers;
+    private final AtomicIntegerArray idle;
+    private volatile boolean closed;
+    private long startedNanos;
+
+    // Metrics
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong steals = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong maxQueued = new AtomicLong();
+    private final PricingMetrics.LatencyHistogram waits = new PricingMetrics.LatencyHistogram();
+
+    /**
+     * A live scheduler; call start() before submitting. {@code speedup} divides
+     * every prep time (1 for real time).
+     */
+    BaristaScheduler(int baristas, Policy policy, int maxBatch, double speedup) {
+        if (baristas < 1 || maxBatch < 1 || !(speedup > 0)) {
+            throw new IllegalArgumentException("baristas and maxBatch must be positive and speedup above 0");
+        }
+        this.baristas = baristas;
+        this.policy = policy;
+        this.maxBatch = maxBatch;
+        this.speedup = speedup;
+        this.queues = new ArrayList<>(baristas);
+        this.depths = new AtomicIntegerArray(baristas);
+        this.workers = new Thread[baristas];
+        this.idle = new AtomicIntegerArray(baristas);
+        for (int i = 0; i < baristas; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+            int barista = i;
+            workers[i] = new Thread(() -> work(barista), "barista-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    BaristaScheduler start() {
+        startedNanos = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        return this;
+    }
+
+    // ===================== LIVE MODE =====================
+
+    /**
+     * Queues a drink and returns it; {@code drink.done()} completes when it is made.
+     */
+    Drink submit(Drink drink) {
+        if (closed) {
+            throw new IllegalStateException("Scheduler is closed");
+        }
+        drink.submittedAt = System.nanoTime();
+        int queue = enqueue(drink);
+        // Wake the owner, or with stealing any idle barista
+        if (idle.get(queue) == 1) {
+            LockSupport.unpark(workers[queue]);
+        } else if (policy == Policy.WORK_STEALING) {
+            for (int i = 0; i < baristas; i++) {
+                if (idle.get(i) == 1) {
+                    LockSupport.unpark(workers[i]);
+                    break;
+                }
+            }
+        }
+        return drink;
+    }
+
+    /**
+     * Takes a drink out of the queues if no barista has started it; its done()
+     * future is then cancelled. Returns false if it was already started (or made).
+     */
+    boolean cancel(Drink drink) {
+        for (int i = 0; i < baristas; i++) {
+            if (queues.get(i).removeFirstOccurrence(drink)) {
+                depths.decrementAndGet(i);
+                queued.decrementAndGet();
+                submitted.decrementAndGet();
+                drink.done.cancel(false);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void work(int barista) {
+        List<Drink> batch = new ArrayList<>(maxBatch);
+        while (!closed) {
+            if (!take(barista, batch)) {
+                idle.set(barista, 1);
+                // Re-check after announcing, so a submit in between is not missed
+                if (!take(barista, batch)) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    idle.set(barista, 0);
+                    continue;
+                }
+                idle.set(barista, 0);
+            }
+            long now = System.nanoTime();
+            for (Drink drink : batch) {
+                waits.record(now - drink.submittedAt);
+            }
+            long nanos = (long) (TimeUnit.MILLISECONDS.toNanos(batchMillis(batch)) / speedup);
+            long end = now + nanos;
+            while (nanos > 0) {
+                LockSupport.parkNanos(this, nanos);
+                nanos = end - System.nanoTime();
+            }
+            completed.addAndGet(batch.size());
+            for (Drink drink : batch) {
+                drink.done.complete(drink);
+            }
+        }
+    }
+
+    /**
+     * Stops the baristas after the drinks they are making; drinks still queued are
+     * completed exceptionally.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Thread worker : workers) {
+            LockSupport.unpark(worker);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (ConcurrentLinkedDeque<Drink> queue : queues) {
+            Drink drink;
+            while ((drink = queue.pollFirst()) != null) {
+                drink.done.completeExceptionally(new IllegalStateException("Scheduler closed"));
+            }
+        }
+    }
+
+    // ===================== SCHEDULING (both modes) =====================
+
+    private int enqueue(Drink drink) {
+        int queue = Math.floorMod(nextQueue.getAndIncrement(), baristas);
+        queues.get(queue).addLast(drink);
+        depths.incrementAndGet(queue);
+        submitted.incrementAndGet();
+        long depth = queued.incrementAndGet();
+        maxQueued.accumulateAndGet(depth, Math::max);
+        return queue;
+    }
+
+    /**
+     * Fills {@code batch} with the next drink for a barista plus identical ones
+     * queued behind it; returns false if there is nothing to do.
+     */
+    private boolean take(int barista, List<Drink> batch) {
+        batch.clear();
+        ConcurrentLinkedDeque<Drink> own = queues.get(barista);
+        Drink first = own.pollFirst();
+        if (first != null) {
+            depths.decrementAndGet(barista);
+        } else if (policy == Policy.WORK_STEALING) {
+            first = steal(barista);
+        }
+        if (first == null) {
+            return false;
+        }
+        first.barista = barista;
+        batch.add(first);
+
+        Iterator<Drink> it = own.iterator();
+        for (int looked = 0; looked < BATCH_WINDOW && batch.size() < maxBatch && it.hasNext(); looked++) {
+            Drink next = it.next();
+            // remove() fails if a thief took it first
+            if (next.key.equals(first.key) && own.removeFirstOccurrence(next)) {
+                depths.decrementAndGet(barista);
+                next.barista = barista;
+                batch.add(next);
+            }
+        }
+        queued.addAndGet(-batch.size());
+        batches.incrementAndGet();
+        return true;
+    }
+
+    // Oldest drink of the fullest other queue: it has waited longest, so stealing it
+    // shortens the worst waits instead of letting them grow behind the owner's backlog
+    private Drink steal(int thief) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            int victim = -1;
+            int most = 0;
+            for (int i = 1; i < baristas; i++) {
+                int candidate = (thief + i) % baristas;
+                int size = depths.get(candidate);
+                if (size > most) {
+                    most = size;
+                    victim = candidate;
+                }
+            }
+            if (victim < 0) {
+                return null;
+            }
+            Drink drink = queues.get(victim).pollFirst();
+            if (drink != null) {
+                depths.decrementAndGet(victim);
+                steals.incrementAndGet();
+                return drink;
+            }
+        }
+        return null;
+    }
+
+    private static long batchMillis(List<Drink> batch) {
+        long prep = batch.get(0).prepMillis;
+        return prep + (batch.size() - 1) * prep * BATCH_EXTRA_PERCENT / 100;
+    }
+
+    // ===================== SIMULATION =====================
+
+    /**
+     * Runs the arrivals (sorted by submittedAt, in millis) through a scheduler in
+     * virtual time and reports what happened. The arrivals are not modified.
+     */
+    static Report simulate(List<Drink> arrivals, int baristas, Policy policy, int maxBatch) {
+        BaristaScheduler scheduler = new BaristaScheduler(baristas, policy, maxBatch, 1);
+        long[] busyUntil = new long[baristas];
+        boolean[] busy = new boolean[baristas];
+        List<Drink> batch = new ArrayList<>(maxBatch);
+
+        long now = arrivals.isEmpty() ? 0 : arrivals.get(0).submittedAt;
+        long start = now;
+        long lastEvent = now;
+        double depthArea = 0;
+        int next = 0;
+        while (true) {
+            // Next event: the earliest finish, or the next arrival; finishes first on ties
+            int finishing = -1;
+            for (int b = 0; b < baristas; b++) {
+                if (busy[b] && (finishing < 0 || busyUntil[b] < busyUntil[finishing])) {
+                    finishing = b;
+                }
+            }
+            boolean arrival = next < arrivals.size()
+                    && (finishing < 0 || arrivals.get(next).submittedAt < busyUntil[finishing]);
+            if (!arrival && finishing < 0) {
+                break;
+            }
+            now = arrival ? arrivals.get(next).submittedAt : busyUntil[finishing];
+            depthArea += (double) scheduler.queued.get() * (now - lastEvent);
+            lastEvent = now;
+
+            if (arrival) {
+                Drink original = arrivals.get(next++);
+                scheduler.enqueue(new Drink(original.key, original.prepMillis, original.submittedAt));
+            } else {
+                busy[finishing] = false;
+            }
+
+            // Idle baristas pick up work, lowest number first
+            for (int b = 0; b < baristas; b++) {
+                if (!busy[b] && scheduler.take(b, batch)) {
+                    for (Drink drink : batch) {
+                        scheduler.waits.record(TimeUnit.MILLISECONDS.toNanos(now - drink.submittedAt));
+                    }
+                    busy[b] = true;
+                    busyUntil[b] = now + batchMillis(batch);
+                    scheduler.completed.addAndGet(batch.size());
+                }
+            }
+        }
+        long elapsed = now - start;
+        return scheduler.report(elapsed, elapsed == 0 ? 0 : depthArea / elapsed);
+    }
+
+    /**
+     * Reads an order log for simulate(): one order per line, optionally preceded
+     * by its arrival time in millis and a tab. Lines without a time arrive
+     * {@code intervalMillis} after the previous one. Invalid orders are skipped.
+     */
+    static List<Drink> readLog(Path file, MenuSnapshot menu, long intervalMillis) throws IOException {
+        List<Drink> arrivals = new ArrayList<>();
+        long time = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String order = line;
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                time = Long.parseLong(line.substring(0, tab).trim());
+                order = line.substring(tab + 1);
+            } else if (!arrivals.isEmpty()) {
+                time += intervalMillis;
+            }
+            PriceQuote quote = OrderPricer.price(order, menu);
+            if (quote.isValid()) {
+                Drink drink = drink(quote, menu);
+                drink.submittedAt = time;
+                arrivals.add(drink);
+            }
+        }
+        arrivals.sort((a, b) -> Long.compare(a.submittedAt, b.submittedAt));
+        return arrivals;
+    }
+
+    // ===================== METRICS =====================
+
+    /**
+     * Drinks queued and not yet started.
+     */
+    long queueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Metrics since start() (live mode).
+     */
+    Report report() {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedNanos);
+        return report(elapsed, Double.NaN);
+    }
+
+    private Report report(long elapsedMillis, double meanQueueDepth) {
+        return new Report(policy, baristas, maxBatch, submitted.get(), completed.get(), batches.get(),
+                steals.get(), queued.get(), maxQueued.get(), meanQueueDepth, elapsedMillis, waits.snapshot());
+    }
+
+    static final class Report {
+        final Policy policy;
+        final int baristas;
+        final int maxBatch;
+        final long submitted;
+        final long completed;
+        final long batches;
+        final long steals;
+        final long queueDepth;
+        final long maxQueueDepth;
+        // Time-weighted; only measured by simulate()
+        final double meanQueueDepth;
+        final long elapsedMillis;
+        final PricingMetrics.HistogramSnapshot waits;
+
+        Report(Policy policy, int baristas, int maxBatch, long submitted, long completed, long batches,
+               long steals, long queueDepth, long maxQueueDepth, double meanQueueDepth, long elapsedMillis,
+               PricingMetrics.HistogramSnapshot waits) {
+            this.policy = policy;
+            this.baristas = baristas;
+            this.maxBatch = maxBatch;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.batches = batches;
+            this.steals = steals;
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.meanQueueDepth = meanQueueDepth;
+            this.elapsedMillis = elapsedMillis;
+            this.waits = waits;
+        }
+
+        double drinksPerMinute() {
+            return elapsedMillis == 0 ? 0 : completed * 60_000.0 / elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-13s %d baristas, batch %d: %,d drinks in %,d batches, %,.1f drinks/min, "
+                            + "%,d steals, queue max %d%s, wait p50 %.1f s p99 %.1f s max %.1f s",
+                    policy, baristas, maxBatch, completed, batches, drinksPerMinute(), steals, maxQueueDepth,
+                    Double.isNaN(meanQueueDepth) ? "" : String.format(" mean %.1f", meanQueueDepth),
+                    waits.percentile(0.50) / 1e9, waits.percentile(0.99) / 1e9, waits.max() / 1e9);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares barista scheduling policies offline: every combination of policy,
+ * batch size and barista count is simulated on the same arrivals, so the numbers
+ * are reproducible. The arrivals come from an order log (see
+ * BaristaScheduler.readLog) or, without one, from a generated two-hour service
+ * with a lunch rush. Finishes with a short live run of the real threads.
+ *
+ * Run: java BaristaSimulation [order log] [interval millis for untimed lines]
+ */
+public class BaristaSimulation {
+
+    static final String[] ORDERS = {
+            "black tea, 50%", "green tea, pearl, 30%", "oolong tea, 0%", "green tea, 50%",
+            "black tea, pearl, coconut, 100%", "oolong tea, honey bean, 50%", "green tea, coconut, 0%",
+            "black tea, honey bean, pearl, 30%"
+    };
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        MenuSnapshot menu = MikeTeaShop2.menu;
+        List<BaristaScheduler.Drink> arrivals = args.length > 0
+                ? BaristaScheduler.readLog(Path.of(args[0]), menu, args.length > 1 ? Long.parseLong(args[1]) : 10_000)
+                : generate(menu, new Random(42));
+
+        System.out.println("=== BARISTA SCHEDULING SIMULATION (" + arrivals.size() + " drinks) ===\n");
+        for (int baristas = 2; baristas <= 4; baristas++) {
+            for (BaristaScheduler.Policy policy : BaristaScheduler.Policy.values()) {
+                for (int batch : new int[]{1, BaristaScheduler.DEFAULT_MAX_BATCH}) {
+                    BaristaScheduler.Report report = BaristaScheduler.simulate(arrivals, baristas, policy, batch);
+                    check(report.completed == arrivals.size(), "lost drinks: " + report);
+                    check(report.toString().equals(
+                            BaristaScheduler.simulate(arrivals, baristas, policy, batch).toString()),
+                            "simulation is not deterministic");
+                    System.out.println(report);
+                }
+            }
+            System.out.println();
+        }
+
+        // The same drinks through the live threads, 2000x faster than real time
+        int live = Math.min(arrivals.size(), 500);
+        try (BaristaScheduler scheduler = new BaristaScheduler(3, BaristaScheduler.Policy.WORK_STEALING,
+                BaristaScheduler.DEFAULT_MAX_BATCH, 2000).start()) {
+            List<BaristaScheduler.Drink> drinks = new ArrayList<>();
+            long start = arrivals.get(0).submittedAt;
+            long startNanos = System.nanoTime();
+            for (BaristaScheduler.Drink arrival : arrivals.subList(0, live)) {
+                long due = startNanos + TimeUnit.MILLISECONDS.toNanos(arrival.submittedAt - start) / 2000;
+                long sleep = due - System.nanoTime();
+                if (sleep > 0) {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                }
+                drinks.add(scheduler.submit(new BaristaScheduler.Drink(arrival.key, arrival.prepMillis, 0)));
+            }
+            for (BaristaScheduler.Drink drink : drinks) {
+                drink.done().join();
+            }
+            // Live times are real time; multiply by 2000 for shop time
+            System.out.println("Live (x2000): " + scheduler.report());
+        }
+    }
+
+    // Two hours of Poisson arrivals, three times as dense during the middle half hour
+    private static List<BaristaScheduler.Drink> generate(MenuSnapshot menu, Random random) {
+        List<BaristaScheduler.Drink> arrivals = new ArrayList<>();
+        long time = 0;
+        long end = TimeUnit.HOURS.toMillis(2);
+        while (time < end) {
+            boolean rush = time > end * 3 / 8 && time < end * 5 / 8;
+            double meanGapMillis = rush ? 20_000 : 60_000;
+            time += (long) (-Math.log(1 - random.nextDouble()) * meanGapMillis);
+            // Popular drinks first: index ~ geometric
+            int index = Math.min(ORDERS.length - 1, (int) (-Math.log(1 - random.nextDouble()) * 1.5));
+            BaristaScheduler.Drink drink = BaristaScheduler.drink(OrderPricer.price(ORDERS[index], menu), menu);
+            drink.submittedAt = time;
+            arrivals.add(drink);
+        }
+        return arrivals;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parallel batch pricing for large lists of orders (e.g. end-of-day reconciliation).
+ *
+ * The whole batch is priced against one MenuSnapshot on a fork-join pool. Each
+ * leaf task reuses a single PriceQuote and writes its results by order index, so
+ * the per-order results come back in input order no matter how work was split.
+ */
+final class BatchPricer {
+
+    // Orders per leaf task; large enough to amortize task overhead
+    static final int LEAF_SIZE = 2048;
+
+    private BatchPricer() {
+    }
+
+    static BatchResult price(Collection<String> orders, MenuSnapshot menu) {
+        return price(orders, menu, ForkJoinPool.commonPool());
+    }
+
+    static BatchResult price(Stream<String> orders, MenuSnapshot menu) {
+        return price(orders.collect(Collectors.toList()), menu, ForkJoinPool.commonPool());
+    }
+
+    static BatchResult price(Collection<String> orders, MenuSnapshot menu, ForkJoinPool pool) {
+        // Leaves index into the list; a LinkedList or other sequential collection is copied first
+        List<String> list = orders instanceof List && orders instanceof RandomAccess
+                ? (List<String>) orders : new ArrayList<>(orders);
+        BatchResult result = new BatchResult(list.size());
+        pool.invoke(new PriceRange(list, menu, result, 0, list.size()));
+        result.summarize();
+        return result;
+    }
+
+    private static final class PriceRange extends RecursiveAction {
+        private final List<String> orders;
+        private final MenuSnapshot menu;
+        private final BatchResult result;
+        private final int from;
+        private final int to;
+
+        PriceRange(List<String> orders, MenuSnapshot menu, BatchResult result, int from, int to) {
+            this.orders = orders;
+            this.menu = menu;
+            this.result = result;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                PriceQuote quote = new PriceQuote();
+                for (int i = from; i < to; i++) {
+                    OrderPricer.price(orders.get(i), menu, quote);
+                    result.record(i, quote);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new PriceRange(orders, menu, result, from, middle),
+                    new PriceRange(orders, menu, result, middle, to));
+        }
+    }
+}
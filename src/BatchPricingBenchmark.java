@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Scaling check for BatchPricer: prices the same batch of orders on fork-join
+ * pools of increasing parallelism, verifies every run matches the sequential
+ * result order for order, and prints orders/s and speedup per pool size.
+ *
+ * Run: java BatchPricingBenchmark [orders]
+ */
+public class BatchPricingBenchmark {
+
+    static final String[] SAMPLE_ORDERS = {
+            "black tea, 0%",
+            "green tea, pearl, coconut, 0%",
+            "oolong tea, coconut, 50%",
+            "  green tea  ,  pearl  ,  50%  ",
+            "GREEN TEA,PEARL,PEARL,50%",
+            "Green Tea,Coconut,30%",
+            "oolong tea, honey bean, pearl, coconut, 100%",
+            "nonexistent tea,50%",
+            "green tea, fake pearl,50%",
+            "green tea,20%",
+            "green tea"
+    };
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        Random random = new Random(7);
+        List<String> orders = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            orders.add(SAMPLE_ORDERS[random.nextInt(SAMPLE_ORDERS.length)]);
+        }
+        MenuSnapshot menu = MikeTeaShop2.menu;
+
+        System.out.println("=== BATCH PRICING BENCHMARK (" + size + " orders) ===\n");
+        BatchResult baseline = BatchPricer.price(orders, menu, new ForkJoinPool(1));
+        System.out.println("Revenue: $" + String.format("%.2f", baseline.revenue())
+                + ", valid: " + baseline.validCount() + ", invalid: " + baseline.invalidCount());
+        for (Map.Entry<Class<? extends TeaShopException>, Long> entry
+                : baseline.invalidCountsByException().entrySet()) {
+            System.out.println("  " + entry.getKey().getSimpleName() + ": " + entry.getValue());
+        }
+        System.out.println();
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        double baselineRate = 0;
+        for (int parallelism = 1; parallelism <= Math.max(cores, 8); parallelism *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            BatchPricer.price(orders, menu, pool); // warm-up
+
+            long start = System.nanoTime();
+            BatchResult result = BatchPricer.price(orders, menu, pool);
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+
+            double rate = size * 1e9 / elapsed;
+            if (parallelism == 1) {
+                baselineRate = rate;
+            }
+            System.out.println(String.format("parallelism %2d: %,14.0f orders/s  speedup %.2fx  %s",
+                    parallelism, rate, rate / baselineRate, sameAs(baseline, result) ? "OK" : "MISMATCH"));
+        }
+        System.out.println("(" + cores + " cores available)");
+    }
+
+    private static boolean sameAs(BatchResult expected, BatchResult actual) {
+        if (expected.size() != actual.size() || expected.revenueCents() != actual.revenueCents()) {
+            return false;
+        }
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.totalCents(i) != actual.totalCents(i) || expected.error(i) != actual.error(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
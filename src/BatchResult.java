@@ -0,0 +1,97 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-order results and totals of a BatchPricer run, in input order.
+ */
+final class BatchResult {
+
+    private static final PriceQuote.ErrorCode[] ERROR_CODES = PriceQuote.ErrorCode.values();
+
+    private final long[] cents;
+    private final byte[] errors;
+    private final String[] invalidItems;
+
+    private long revenueCents;
+    private int validCount;
+    private final long[] errorCounts = new long[ERROR_CODES.length];
+
+    BatchResult(int size) {
+        this.cents = new long[size];
+        this.errors = new byte[size];
+        this.invalidItems = new String[size];
+    }
+
+    // Each index is written by exactly one leaf task
+    void record(int index, PriceQuote quote) {
+        cents[index] = quote.totalCents();
+        errors[index] = (byte) quote.error().ordinal();
+        invalidItems[index] = quote.invalidItem();
+    }
+
+    void summarize() {
+        for (int i = 0; i < cents.length; i++) {
+            revenueCents += cents[i];
+            errorCounts[errors[i]]++;
+        }
+        validCount = (int) errorCounts[PriceQuote.ErrorCode.NONE.ordinal()];
+    }
+
+    // ===================== PER ORDER =====================
+
+    int size() {
+        return cents.length;
+    }
+
+    long totalCents(int index) {
+        return cents[index];
+    }
+
+    double total(int index) {
+        return MenuSnapshot.toDollars(cents[index]);
+    }
+
+    PriceQuote.ErrorCode error(int index) {
+        return ERROR_CODES[errors[index]];
+    }
+
+    String invalidItem(int index) {
+        return invalidItems[index];
+    }
+
+    // ===================== TOTALS =====================
+
+    long revenueCents() {
+        return revenueCents;
+    }
+
+    double revenue() {
+        return MenuSnapshot.toDollars(revenueCents);
+    }
+
+    int validCount() {
+        return validCount;
+    }
+
+    int invalidCount() {
+        return cents.length - validCount;
+    }
+
+    long errorCount(PriceQuote.ErrorCode error) {
+        return errorCounts[error.ordinal()];
+    }
+
+    /**
+     * Invalid order counts keyed by the MikeTeaShop2 exception each error maps to.
+     */
+    Map<Class<? extends TeaShopException>, Long> invalidCountsByException() {
+        Map<Class<? extends TeaShopException>, Long> counts = new LinkedHashMap<>();
+        for (PriceQuote.ErrorCode error : ERROR_CODES) {
+            if (error != PriceQuote.ErrorCode.NONE) {
+                counts.put(error.exceptionType(), errorCounts[error.ordinal()]);
+            }
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+}
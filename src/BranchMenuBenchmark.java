@@ -0,0 +1,194 @@
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Branch menus as overlays (BranchMenus) versus a full copy of the three maps per
+ * branch: heap used, cost of a chain-wide price change, and pricing speed against
+ * a branch versus the flat shop menu. Starts by checking PersistentMap against
+ * HashMap on random puts and removes, and checks that branch menus resolve overrides,
+ * hidden items and base changes.
+ *
+ * Run: java BranchMenuBenchmark [branches]
+ */
+public class BranchMenuBenchmark {
+
+    public static void main(String[] args) {
+        int branchCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        Random random = new Random(42);
+        checkPersistentMap(random);
+
+        Map<String, Double> teas = new HashMap<>();
+        Map<String, Double> materials = new HashMap<>();
+        Map<String, Double> sweetLevels = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            teas.put("tea " + i, 3.0 + i % 20 * 0.05);
+        }
+        for (int i = 0; i < 200; i++) {
+            materials.put("material " + i, 0.25 + i % 10 * 0.05);
+        }
+        for (String level : new String[]{"0%", "30%", "50%", "100%"}) {
+            sweetLevels.put(level, 0.0);
+        }
+        MenuSnapshot template = MenuSnapshot.compile(teas, materials, sweetLevels);
+
+        System.out.println("=== BRANCH MENU BENCHMARK (" + branchCount + " branches, "
+                + teas.size() + " teas, " + materials.size() + " materials) ===\n");
+
+        // Full copies, the way branches would be kept without overlays
+        long before = usedHeap();
+        List<List<Map<String, Double>>> copies = new ArrayList<>();
+        for (int b = 0; b < branchCount; b++) {
+            Map<String, Double> teaCopy = new HashMap<>(teas);
+            teaCopy.put("branch tea " + b, 4.0);
+            teaCopy.put("tea " + random.nextInt(500), 5.0);
+            teaCopy.remove("tea " + random.nextInt(500));
+            copies.add(List.of(teaCopy, new HashMap<>(materials), new HashMap<>(sweetLevels)));
+        }
+        long copyBytes = usedHeap() - before;
+
+        before = usedHeap();
+        BranchMenus branches = new BranchMenus(teas, materials, sweetLevels, () -> template);
+        for (int b = 0; b < branchCount; b++) {
+            BranchMenus.Branch branch = branches.branch("branch " + b);
+            branch.put(PriceQuote.ItemKind.TEA, "branch tea " + b, 4.0);
+            branch.put(PriceQuote.ItemKind.TEA, "tea " + random.nextInt(500), 5.0);
+            branch.hide(PriceQuote.ItemKind.TEA, "tea " + random.nextInt(500));
+        }
+        long overlayBytes = usedHeap() - before;
+        System.out.println(String.format("Heap: full copies %,d KB, overlays %,d KB", copyBytes / 1024,
+                overlayBytes / 1024));
+
+        // Chain-wide price change
+        int changes = 1_000;
+        long start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            for (List<Map<String, Double>> copy : copies) {
+                copy.get(0).put("tea " + (i % 500), 3.5);
+            }
+        }
+        double copyMicros = (System.nanoTime() - start) / 1e3 / changes;
+        start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            branches.putBase(PriceQuote.ItemKind.TEA, "tea " + (i % 500), 3.5);
+        }
+        double baseMicros = (System.nanoTime() - start) / 1e3 / changes;
+        System.out.println(String.format("Chain-wide price change: full copies %.1f us, base menu %.2f us",
+                copyMicros, baseMicros));
+
+        checkBranches(branches);
+
+        // Pricing: flat menu versus a (compiled) branch menu
+        String[] orders = new String[256];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = "tea " + random.nextInt(500) + ", material " + random.nextInt(200) + ", 50%";
+        }
+        BranchMenus.Branch branch = branches.branch("branch 7");
+        long compileNanos = 0;
+        for (int i = 0; i < 400; i++) {
+            branches.putBase(PriceQuote.ItemKind.TEA, "tea 0", 3.0 + i % 2);
+            start = System.nanoTime();
+            branch.menu();
+            if (i >= 200) { // after warm-up
+                compileNanos += System.nanoTime() - start;
+            }
+        }
+        double compileMicros = compileNanos / 200 / 1e3;
+        for (int round = 0; round < 3; round++) {
+            double flat = price(orders, () -> template);
+            double overlaid = price(orders, branch::menu);
+            if (round == 2) {
+                System.out.println(String.format("Pricing: flat menu %.0f ns/order, branch %.0f ns/order "
+                        + "(first use after a change compiles the branch menu: %.0f us)", flat, overlaid, compileMicros));
+            }
+        }
+        Reference.reachabilityFence(copies);
+    }
+
+    private static double price(String[] orders, Supplier<MenuSnapshot> menu) {
+        int rounds = 2_000_000;
+        long valid = 0;
+        PriceQuote quote = new PriceQuote();
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            valid += OrderPricer.price(orders[i & (orders.length - 1)], menu.get(), quote).isValid() ? 1 : 0;
+        }
+        double nanos = (double) (System.nanoTime() - start) / rounds;
+        return valid < 0 ? -1 : nanos;
+    }
+
+    private static void checkBranches(BranchMenus branches) {
+        BranchMenus.Branch a = branches.branch("check a");
+        BranchMenus.Branch b = branches.branch("check b");
+        a.put(PriceQuote.ItemKind.TEA, "tea 1", 9.0);
+        a.hide(PriceQuote.ItemKind.TEA, "tea 2");
+        a.put(PriceQuote.ItemKind.TEA, "house special", 6.0);
+        check(a.priceOrder("tea 1, 50%").totalCents() == 900, "override not applied");
+        check(!a.priceOrder("tea 2, 50%").isValid(), "hidden tea still on the menu");
+        check(a.priceOrder("house special, 50%").isValid(), "branch-only tea missing");
+        check(!b.priceOrder("house special, 50%").isValid(), "branch-only tea leaked to another branch");
+
+        branches.putBase(PriceQuote.ItemKind.TEA, "tea 3", 7.0);
+        branches.putBase(PriceQuote.ItemKind.TEA, "tea 1", 1.0);
+        check(a.priceOrder("tea 3, 50%").totalCents() == 700, "base change not seen by branch a");
+        check(b.priceOrder("tea 3, 50%").totalCents() == 700, "base change not seen by branch b");
+        check(a.priceOrder("tea 1, 50%").totalCents() == 900, "base change beat the branch override");
+        a.reset(PriceQuote.ItemKind.TEA, "tea 1");
+        check(a.priceOrder("tea 1, 50%").totalCents() == 100, "reset did not restore the base price");
+    }
+
+    private static void checkPersistentMap(Random random) {
+        Map<String, Double> expected = new HashMap<>();
+        PersistentMap<Double> map = PersistentMap.empty();
+        List<PersistentMap<Double>> versions = new ArrayList<>();
+        List<Map<String, Double>> expectedVersions = new ArrayList<>();
+        for (int i = 0; i < 200_000; i++) {
+            // Few distinct keys so removes hit; "Aa"/"BB" style keys collide on hashCode
+            String key = random.nextInt(8) == 0 ? (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(4)
+                    : "key " + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.remove(key);
+            } else {
+                double value = random.nextInt(100);
+                expected.put(key, value);
+                map = map.put(key, value);
+            }
+            if (i % 20_000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+        }
+        versions.add(map);
+        expectedVersions.add(expected);
+        // Old versions must be unaffected by later updates
+        for (int v = 0; v < versions.size(); v++) {
+            PersistentMap<Double> version = versions.get(v);
+            Map<String, Double> want = expectedVersions.get(v);
+            Map<String, Double> got = new HashMap<>();
+            version.forEach(got::put);
+            check(got.equals(want) && version.size() == want.size(), "PersistentMap version " + v + " differs");
+            for (Map.Entry<String, Double> entry : want.entrySet()) {
+                check(entry.getValue().equals(version.get(entry.getKey())), "lookup of " + entry.getKey());
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Menus of several branches: one shared base menu plus a small overlay per branch.
+ *
+ * The base and every overlay are PersistentMaps, so a change copies only a few
+ * trie nodes and no branch ever holds a copy of the base. An overlay entry either
+ * overrides a base item's price, adds an item only that branch has, or hides a
+ * base item (stored as NaN). A base change bumps the base version and is seen by
+ * every branch from then on, with no per-branch work at the time of the change.
+ *
+ * For pricing, a branch compiles its resolved menu into a MenuSnapshot the first
+ * time it is used after the base or its overlay changed, so orders are priced with
+ * exactly the same single hash probe per item as the shop's own menu. Display
+ * names and prep times come from the shop's current menu; items only a branch
+ * has get a capitalized name and no prep time.
+ */
+final class BranchMenus {
+
+    static final double HIDDEN = Double.NaN;
+
+    // Base maps and their version, replaced as a unit
+    private static final class Layer {
+        final long version;
+        final PersistentMap<Double> teas;
+        final PersistentMap<Double> materials;
+        final PersistentMap<Double> sweetLevels;
+
+        Layer(long version, PersistentMap<Double> teas, PersistentMap<Double> materials,
+              PersistentMap<Double> sweetLevels) {
+            this.version = version;
+            this.teas = teas;
+            this.materials = materials;
+            this.sweetLevels = sweetLevels;
+        }
+
+        PersistentMap<Double> map(PriceQuote.ItemKind kind) {
+            switch (kind) {
+                case TEA:
+                    return teas;
+                case MATERIAL:
+                    return materials;
+                default:
+                    return sweetLevels;
+            }
+        }
+
+        Layer with(PriceQuote.ItemKind kind, PersistentMap<Double> map) {
+            if (map == map(kind)) {
+                return this;
+            }
+            return new Layer(version + 1, kind == PriceQuote.ItemKind.TEA ? map : teas,
+                    kind == PriceQuote.ItemKind.MATERIAL ? map : materials,
+                    kind == PriceQuote.ItemKind.SWEET_LEVEL ? map : sweetLevels);
+        }
+    }
+
+    private static final Layer EMPTY = new Layer(0, PersistentMap.empty(), PersistentMap.empty(), PersistentMap.empty());
+
+    private volatile Layer base;
+    private final Supplier<MenuSnapshot> template;
+    private final ConcurrentHashMap<String, Branch> branches = new ConcurrentHashMap<>();
+
+    /**
+     * Starts from the given base maps (copied once); {@code template} supplies the
+     * shop's current menu for display names and prep times.
+     */
+    BranchMenus(Map<String, Double> teaMap, Map<String, Double> materialMap, Map<String, Double> sweetLevelMap,
+                Supplier<MenuSnapshot> template) {
+        this.base = new Layer(0, from(teaMap), from(materialMap), from(sweetLevelMap));
+        this.template = template;
+    }
+
+    private static PersistentMap<Double> from(Map<String, Double> map) {
+        PersistentMap<Double> result = PersistentMap.empty();
+        for (Map.Entry<String, Double> entry : map.entrySet()) {
+            result = result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    // ===================== BASE MENU =====================
+
+    synchronized void putBase(PriceQuote.ItemKind kind, String name, double price) {
+        checkPrice(price);
+        base = base.with(kind, base.map(kind).put(name, price));
+    }
+
+    /**
+     * Adds or updates many base items at once (a bulk import); branches see all of
+     * them or none.
+     */
+    synchronized void putAllBase(Map<String, Double> teas, Map<String, Double> materials,
+                                 Map<String, Double> sweetLevels) {
+        Layer updated = base;
+        for (PriceQuote.ItemKind kind : PriceQuote.ItemKind.values()) {
+            Map<String, Double> prices = kind == PriceQuote.ItemKind.TEA ? teas
+                    : kind == PriceQuote.ItemKind.MATERIAL ? materials : sweetLevels;
+            PersistentMap<Double> map = updated.map(kind);
+            for (Map.Entry<String, Double> entry : prices.entrySet()) {
+                checkPrice(entry.getValue());
+                map = map.put(entry.getKey(), entry.getValue());
+            }
+            updated = updated.with(kind, map);
+        }
+        base = updated;
+    }
+
+    synchronized void removeBase(PriceQuote.ItemKind kind, String name) {
+        base = base.with(kind, base.map(kind).remove(name));
+    }
+
+    long baseVersion() {
+        return base.version;
+    }
+
+    // ===================== BRANCHES =====================
+
+    /**
+     * The branch with this name, created with an empty overlay on first use.
+     */
+    Branch branch(String name) {
+        return branches.computeIfAbsent(name, Branch::new);
+    }
+
+    List<String> branchNames() {
+        List<String> names = new ArrayList<>(branches.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * One branch: its overlay and the menu compiled from base + overlay.
+     */
+    final class Branch {
+        private final String name;
+        private volatile Layer overlay = EMPTY;
+        private volatile Compiled compiled;
+        private volatile Promotions promotions;
+
+        private Branch(String name) {
+            this.name = name;
+        }
+
+        String name() {
+            return name;
+        }
+
+        /**
+         * Adds an item for this branch only, or overrides the base price here.
+         */
+        synchronized void put(PriceQuote.ItemKind kind, String name, double price) {
+            checkPrice(price);
+            overlay = overlay.with(kind, overlay.map(kind).put(name, price));
+        }
+
+        /**
+         * Takes a base item off this branch's menu.
+         */
+        synchronized void hide(PriceQuote.ItemKind kind, String name) {
+            overlay = overlay.with(kind, overlay.map(kind).put(name, HIDDEN));
+        }
+
+        /**
+         * Drops this branch's override or hiding of an item, so the base applies again.
+         */
+        synchronized void reset(PriceQuote.ItemKind kind, String name) {
+            overlay = overlay.with(kind, overlay.map(kind).remove(name));
+        }
+
+        /**
+         * Overlay entries (overrides and hidden items) for one menu.
+         */
+        int overlaySize(PriceQuote.ItemKind kind) {
+            return overlay.map(kind).size();
+        }
+
+        /**
+         * Price of an item on this branch's menu, or null if it is not on it.
+         */
+        Double price(PriceQuote.ItemKind kind, String item) {
+            Double own = overlay.map(kind).get(item);
+            if (own != null) {
+                return own.isNaN() ? null : own;
+            }
+            return base.map(kind).get(item);
+        }
+
+        /**
+         * This branch's compiled menu, recompiled if the base or the overlay changed.
+         */
+        MenuSnapshot menu() {
+            Layer currentBase = base;
+            Layer currentOverlay = overlay;
+            Compiled current = compiled;
+            if (current == null || current.base != currentBase || current.overlay != currentOverlay) {
+                // Racing callers may both compile; either result is correct
+                MenuSnapshot source = template.get();
+                MenuSnapshot.Catalog[] catalogs = new MenuSnapshot.Catalog[3];
+                for (PriceQuote.ItemKind kind : PriceQuote.ItemKind.values()) {
+                    PersistentMap<Double> baseMap = currentBase.map(kind);
+                    PersistentMap<Double> overlayMap = currentOverlay.map(kind);
+                    // Only menus whose base or overlay changed are recompiled
+                    catalogs[kind.ordinal()] = current != null && current.base.map(kind) == baseMap
+                            && current.overlay.map(kind) == overlayMap
+                            ? current.menu.catalog(kind)
+                            : MenuSnapshot.Catalog.compile(resolve(baseMap, overlayMap), source.catalog(kind));
+                }
+                MenuSnapshot menu = MenuSnapshot.of(catalogs[0], catalogs[1], catalogs[2],
+                        current == null ? 0 : current.menu.version() + 1);
+                current = new Compiled(currentBase, currentOverlay, menu);
+                compiled = current;
+            }
+            return current.menu;
+        }
+
+        /**
+         * The given promotions compiled against this branch's menu, kept until
+         * either one changes (the shop's own cache holds only its own menu).
+         */
+        Promotions promotions(List<Promotions.Promotion> rules, MenuSnapshot menu) {
+            Promotions current = promotions;
+            if (current == null || current.menu() != menu || current.promotions() != rules) {
+                // Racing callers may both compile; either result is correct
+                current = Promotions.compile(rules, menu);
+                promotions = current;
+            }
+            return current;
+        }
+
+        // Menu prices only; MikeTeaShop2.priceOrder(branch, input) adds the promotions
+        PriceQuote priceOrder(CharSequence input) {
+            return OrderPricer.price(input, menu());
+        }
+    }
+
+    // A branch menu and the layers it was compiled from
+    private static final class Compiled {
+        final Layer base;
+        final Layer overlay;
+        final MenuSnapshot menu;
+
+        Compiled(Layer base, Layer overlay, MenuSnapshot menu) {
+            this.base = base;
+            this.overlay = overlay;
+            this.menu = menu;
+        }
+    }
+
+    // ===================== HELPERS =====================
+
+    // Base entries not hidden or overridden, then overrides and branch-only items
+    private static Map<String, Double> resolve(PersistentMap<Double> base, PersistentMap<Double> overlay) {
+        Map<String, Double> resolved = new LinkedHashMap<>(base.size() + overlay.size());
+        base.forEach((name, price) -> {
+            if (!overlay.containsKey(name)) {
+                resolved.put(name, price);
+            }
+        });
+        overlay.forEach((name, price) -> {
+            if (!price.isNaN()) {
+                resolved.put(name, price);
+            }
+        });
+        return resolved;
+    }
+
+    private static void checkPrice(double price) {
+        if (Double.isNaN(price) || Double.isInfinite(price)) {
+            throw new IllegalArgumentException("Invalid price: " + price);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stock of teas and materials, reserved all-or-nothing per order.
+ *
+ * Only items given a stock level are tracked; everything else is unlimited, so a
+ * shop without stock data behaves as before. Each tracked item belongs to one of
+ * a fixed set of lock stripes (handed out round-robin, so different items land on
+ * different stripes until there are more items than stripes). A reservation locks
+ * the stripes of its items in ascending order, checks every item, and only then
+ * takes the stock, so it either reserves the whole order or nothing and never
+ * deadlocks with another reservation. Orders for different items rarely share a
+ * stripe and do not wait on each other.
+ *
+ * A reservation is later committed (the drink was made, the stock is gone) or
+ * released (the order was cancelled, the stock goes back). Both are idempotent and
+ * only the first of them counts.
+ */
+final class Inventory {
+
+    static final int DEFAULT_STRIPES = 64;
+    static final long UNTRACKED = -1;
+
+    private static final class Stock {
+        final PriceQuote.ItemKind kind;
+        final String name;
+        final int stripe;
+        // Guarded by the stripe lock; volatile for lock-free reads of the levels
+        volatile long available;
+        volatile long reserved;
+
+        Stock(PriceQuote.ItemKind kind, String name, int stripe) {
+            this.kind = kind;
+            this.name = name;
+            this.stripe = stripe;
+        }
+    }
+
+    private final ReentrantLock[] stripes;
+    private final AtomicInteger nextStripe = new AtomicInteger();
+    private final ConcurrentHashMap<String, Stock> teas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Stock> materials = new ConcurrentHashMap<>();
+
+    Inventory() {
+        this(DEFAULT_STRIPES);
+    }
+
+    Inventory(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    // ===================== STOCK LEVELS =====================
+
+    /**
+     * Sets the stock available for new reservations; existing reservations are not affected.
+     */
+    void setStock(PriceQuote.ItemKind kind, String name, long quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Stock cannot be negative: " + quantity);
+        }
+        Stock stock = stock(kind, name, true);
+        ReentrantLock lock = stripes[stock.stripe];
+        lock.lock();
+        try {
+            stock.available = quantity;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds to (or with a negative amount, takes from) the available stock; returns the new level.
+     */
+    long restock(PriceQuote.ItemKind kind, String name, long amount) {
+        Stock stock = stock(kind, name, true);
+        ReentrantLock lock = stripes[stock.stripe];
+        lock.lock();
+        try {
+            stock.available = Math.max(0, stock.available + amount);
+            return stock.available;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops tracking an item; it is unlimited from then on.
+     */
+    void untrack(PriceQuote.ItemKind kind, String name) {
+        mapFor(kind).remove(name);
+    }
+
+    /**
+     * Stock available for new reservations, or UNTRACKED.
+     */
+    long available(PriceQuote.ItemKind kind, String name) {
+        Stock stock = stock(kind, name, false);
+        return stock == null ? UNTRACKED : stock.available;
+    }
+
+    /**
+     * Stock held by reservations that are neither committed nor released, or UNTRACKED.
+     */
+    long reserved(PriceQuote.ItemKind kind, String name) {
+        Stock stock = stock(kind, name, false);
+        return stock == null ? UNTRACKED : stock.reserved;
+    }
+
+    // ===================== RESERVATIONS =====================
+
+    /**
+     * Reserves the tea and every material of a valid quote (a material listed
+     * twice needs two in stock), or throws without reserving anything.
+     */
+    Reservation reserve(PriceQuote quote) throws OutOfStockException {
+        Reservation reservation = prepare(quote);
+        if (reservation.stocks.length == 0) {
+            return reservation;
+        }
+        int[] locked = reservation.lockStripes();
+        try {
+            for (int i = 0; i < reservation.stocks.length; i++) {
+                Stock stock = reservation.stocks[i];
+                if (stock.available < reservation.counts[i]) {
+                    throw new OutOfStockException(stock.kind == PriceQuote.ItemKind.TEA ? "Tea" : "Material",
+                            stock.name, reservation.counts[i], stock.available);
+                }
+            }
+            for (int i = 0; i < reservation.stocks.length; i++) {
+                Stock stock = reservation.stocks[i];
+                stock.available -= reservation.counts[i];
+                stock.reserved += reservation.counts[i];
+            }
+        } finally {
+            unlock(locked);
+        }
+        return reservation;
+    }
+
+    // Tracked items of the quote with their quantities, sorted by stripe
+    private Reservation prepare(PriceQuote quote) {
+        if (!quote.isValid()) {
+            throw new IllegalArgumentException("Cannot reserve an invalid order: " + quote.errorMessage());
+        }
+        Stock[] stocks = new Stock[quote.itemCount()];
+        long[] counts = new long[stocks.length];
+        int distinct = 0;
+        for (int i = 0; i < quote.itemCount(); i++) {
+            PriceQuote.ItemKind kind = quote.itemKind(i);
+            if (kind == PriceQuote.ItemKind.SWEET_LEVEL) {
+                continue;
+            }
+            Stock stock = stock(kind, quote.itemName(i), false);
+            if (stock == null) {
+                continue;
+            }
+            int seen = 0;
+            while (seen < distinct && stocks[seen] != stock) {
+                seen++;
+            }
+            if (seen == distinct) {
+                stocks[distinct++] = stock;
+            }
+            counts[seen]++;
+        }
+
+        // Insertion sort by stripe: orders have a handful of items
+        for (int i = 1; i < distinct; i++) {
+            Stock stock = stocks[i];
+            long count = counts[i];
+            int j = i;
+            while (j > 0 && stocks[j - 1].stripe > stock.stripe) {
+                stocks[j] = stocks[j - 1];
+                counts[j] = counts[j - 1];
+                j--;
+            }
+            stocks[j] = stock;
+            counts[j] = count;
+        }
+        return new Reservation(this, Arrays.copyOf(stocks, distinct), Arrays.copyOf(counts, distinct));
+    }
+
+    private void unlock(int[] locked) {
+        for (int i = locked.length - 1; i >= 0; i--) {
+            stripes[locked[i]].unlock();
+        }
+    }
+
+    /**
+     * Stock held for one order until it is committed or released.
+     */
+    static final class Reservation {
+        private enum State { HELD, COMMITTED, RELEASED }
+
+        private final Inventory inventory;
+        private final Stock[] stocks;
+        private final long[] counts;
+        private final AtomicReference<State> state = new AtomicReference<>(State.HELD);
+
+        private Reservation(Inventory inventory, Stock[] stocks, long[] counts) {
+            this.inventory = inventory;
+            this.stocks = stocks;
+            this.counts = counts;
+        }
+
+        /**
+         * The order was made: the reserved stock is used up.
+         */
+        void commit() {
+            finish(State.COMMITTED);
+        }
+
+        /**
+         * The order was cancelled: the reserved stock is available again.
+         */
+        void release() {
+            finish(State.RELEASED);
+        }
+
+        boolean isHeld() {
+            return state.get() == State.HELD;
+        }
+
+        private void finish(State outcome) {
+            if (stocks.length == 0 || !state.compareAndSet(State.HELD, outcome)) {
+                return;
+            }
+            int[] locked = lockStripes();
+            try {
+                for (int i = 0; i < stocks.length; i++) {
+                    stocks[i].reserved -= counts[i];
+                    if (outcome == State.RELEASED) {
+                        stocks[i].available += counts[i];
+                    }
+                }
+            } finally {
+                inventory.unlock(locked);
+            }
+        }
+
+        // Locks each distinct stripe once, in ascending order; returns them in that order
+        private int[] lockStripes() {
+            int[] locked = new int[stocks.length];
+            int count = 0;
+            for (Stock stock : stocks) {
+                if (count == 0 || locked[count - 1] != stock.stripe) {
+                    inventory.stripes[stock.stripe].lock();
+                    locked[count++] = stock.stripe;
+                }
+            }
+            return count == locked.length ? locked : Arrays.copyOf(locked, count);
+        }
+    }
+
+    // ===================== HELPERS =====================
+
+    private Stock stock(PriceQuote.ItemKind kind, String name, boolean create) {
+        ConcurrentHashMap<String, Stock> map = mapFor(kind);
+        if (!create) {
+            return map.get(name);
+        }
+        return map.computeIfAbsent(name,
+                key -> new Stock(kind, key, Math.floorMod(nextStripe.getAndIncrement(), stripes.length)));
+    }
+
+    private ConcurrentHashMap<String, Stock> mapFor(PriceQuote.ItemKind kind) {
+        switch (kind) {
+            case TEA:
+                return teas;
+            case MATERIAL:
+                return materials;
+            default:
+                throw new IllegalArgumentException("Sweet levels have no stock");
+        }
+    }
+}
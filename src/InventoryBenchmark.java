@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Contention benchmark for Inventory: threads reserve random orders and then
+ * commit or release them, with 1 lock stripe (one global lock) and with the
+ * default stripes. After each run every item must satisfy
+ * initial stock == available + committed, with nothing left reserved.
+ * The scarce runs give each item little stock, so most reservations fail and
+ * overselling would show up as a broken balance.
+ *
+ * Run: java InventoryBenchmark [operations per run]
+ */
+public class InventoryBenchmark {
+
+    static final int TEAS = 8;
+    static final int MATERIALS = 24;
+
+    public static void main(String[] args) throws InterruptedException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Map<String, Double> teas = new HashMap<>();
+        Map<String, Double> materials = new HashMap<>();
+        Map<String, Double> sweetLevels = new HashMap<>();
+        for (int i = 0; i < TEAS; i++) {
+            teas.put("tea " + i, 3.0);
+        }
+        for (int i = 0; i < MATERIALS; i++) {
+            materials.put("material " + i, 0.5);
+        }
+        sweetLevels.put("50%", 0.0);
+        MenuSnapshot menu = MenuSnapshot.compile(teas, materials, sweetLevels);
+
+        Random random = new Random(42);
+        PriceQuote[] quotes = new PriceQuote[1024];
+        for (int i = 0; i < quotes.length; i++) {
+            StringBuilder order = new StringBuilder("tea " + random.nextInt(TEAS));
+            int toppings = random.nextInt(4);
+            for (int j = 0; j < toppings; j++) {
+                order.append(", material ").append(random.nextInt(MATERIALS));
+            }
+            quotes[i] = OrderPricer.price(order.append(", 50%"), menu);
+        }
+
+        System.out.println("=== INVENTORY CONTENTION BENCHMARK ===\n");
+        for (long stock : new long[]{Long.MAX_VALUE / 4, 2_000}) {
+            System.out.println(stock == 2_000 ? "Scarce stock (2,000 per item):" : "Plentiful stock:");
+            for (int stripes : new int[]{1, Inventory.DEFAULT_STRIPES}) {
+                for (int threads : new int[]{1, 2, 4, 8, 16}) {
+                    run(quotes, stock, stripes, threads, operations);
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static void run(PriceQuote[] quotes, long stock, int stripes, int threads, int operations)
+            throws InterruptedException {
+        Inventory inventory = new Inventory(stripes);
+        for (int i = 0; i < TEAS; i++) {
+            inventory.setStock(PriceQuote.ItemKind.TEA, "tea " + i, stock);
+        }
+        for (int i = 0; i < MATERIALS; i++) {
+            inventory.setStock(PriceQuote.ItemKind.MATERIAL, "material " + i, stock);
+        }
+
+        long[][] committed = new long[threads][TEAS + MATERIALS];
+        long[] failures = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(id);
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < operations / threads; i++) {
+                    PriceQuote quote = quotes[random.nextInt(quotes.length)];
+                    try {
+                        Inventory.Reservation reservation = inventory.reserve(quote);
+                        if (random.nextInt(10) < 3) {
+                            reservation.commit();
+                            tally(quote, committed[id]);
+                        } else {
+                            reservation.release();
+                        }
+                    } catch (OutOfStockException e) {
+                        failures[id]++;
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long totalFailures = 0;
+        for (long f : failures) {
+            totalFailures += f;
+        }
+        for (int item = 0; item < TEAS + MATERIALS; item++) {
+            PriceQuote.ItemKind kind = item < TEAS ? PriceQuote.ItemKind.TEA : PriceQuote.ItemKind.MATERIAL;
+            String name = item < TEAS ? "tea " + item : "material " + (item - TEAS);
+            long used = 0;
+            for (long[] perThread : committed) {
+                used += perThread[item];
+            }
+            check(inventory.reserved(kind, name) == 0, name + " still reserved");
+            check(inventory.available(kind, name) + used == stock, name + " does not balance: available "
+                    + inventory.available(kind, name) + " + committed " + used + " != " + stock);
+        }
+        System.out.println(String.format("  %2d stripe%s %2d threads: %,12.0f reservations/s  (%,d out of stock)",
+                stripes, stripes == 1 ? " " : "s", threads, (operations / threads * threads) / seconds, totalFailures));
+    }
+
+    private static void tally(PriceQuote quote, long[] committed) {
+        for (int i = 0; i < quote.itemCount(); i++) {
+            String name = quote.itemName(i);
+            if (quote.itemKind(i) == PriceQuote.ItemKind.TEA) {
+                committed[Integer.parseInt(name.substring(4))]++;
+            } else if (quote.itemKind(i) == PriceQuote.ItemKind.MATERIAL) {
+                committed[TEAS + Integer.parseInt(name.substring(9))]++;
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
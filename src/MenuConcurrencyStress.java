@@ -0,0 +1,171 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded stress test and read-throughput measurement for the
+ * copy-on-write menu of MikeTeaShop2.
+ *
+ * Stress phase: reader threads price orders and render the menu while a writer
+ * keeps adding, repricing and removing items. Every quote is checked against the
+ * snapshot it was priced with, and versions must never go backwards per reader.
+ * Throughput phase: orders per second at 1, 4 and 16 reader threads with the
+ * writer still editing.
+ *
+ * Run: java MenuConcurrencyStress [stressSeconds] [throughputSeconds]
+ */
+public class MenuConcurrencyStress {
+
+    static final String STRESS_ORDER = "stress tea, stress pearl, 50%";
+    static final String STEADY_ORDER = "green tea, pearl, coconut, 0%";
+
+    public static void main(String[] args) throws Exception {
+        int stressSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int throughputSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+
+        PrintStream console = System.out;
+        // The management methods print every change; keep them off the console while running
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            console.println("=== MENU CONCURRENCY STRESS ===\n");
+            long failures = stress(8, stressSeconds, console);
+            console.println("Stress result: " + (failures == 0 ? "OK" : failures + " violations"));
+
+            console.println("\nRead throughput (writer editing concurrently):");
+            for (int threads : new int[]{1, 4, 16}) {
+                double opsPerSecond = throughput(threads, throughputSeconds);
+                console.println(String.format("  %2d threads: %,14.0f orders/s (%,12.0f per thread)",
+                        threads, opsPerSecond, opsPerSecond / threads));
+            }
+        } finally {
+            // The shop log writes asynchronously; let it finish with the null stream first
+            MikeTeaShop2.LOG.flush();
+            System.setOut(console);
+        }
+    }
+
+    private static long stress(int readers, int seconds, PrintStream console) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong violations = new AtomicLong();
+        AtomicLong valid = new AtomicLong();
+        AtomicLong invalid = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(readers);
+
+        Thread writer = startWriter(stop);
+        for (int r = 0; r < readers; r++) {
+            Thread reader = new Thread(() -> {
+                PriceQuote quote = new PriceQuote();
+                long lastVersion = -1;
+                try {
+                    for (int i = 0; !stop.get(); i++) {
+                        MenuSnapshot snapshot = MikeTeaShop2.menu;
+                        if (snapshot.version() < lastVersion) {
+                            violations.incrementAndGet();
+                        }
+                        lastVersion = snapshot.version();
+
+                        OrderPricer.price(STRESS_ORDER, snapshot, quote);
+                        if (!consistent(snapshot, quote)) {
+                            violations.incrementAndGet();
+                        }
+                        (quote.isValid() ? valid : invalid).incrementAndGet();
+
+                        // Exercise the display and error paths as well
+                        if (i % 1024 == 0) {
+                            MikeTeaShop2.showMenu();
+                            MikeTeaShop2.calculatePriceWithBreakdown(STRESS_ORDER);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    violations.incrementAndGet();
+                    console.println("Reader failed: " + e);
+                } finally {
+                    done.countDown();
+                }
+            });
+            reader.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        done.await();
+        writer.join();
+
+        console.println("Priced " + valid.get() + " valid and " + invalid.get()
+                + " invalid orders up to menu version " + MikeTeaShop2.menu.version());
+        return violations.get();
+    }
+
+    // A quote must agree with the snapshot it was priced against
+    private static boolean consistent(MenuSnapshot snapshot, PriceQuote quote) {
+        int tea = snapshot.teas().find("stress tea");
+        int material = snapshot.materials().find("stress pearl");
+        switch (quote.error()) {
+            case NONE:
+                if (tea == MenuSnapshot.NOT_FOUND || material == MenuSnapshot.NOT_FOUND) {
+                    return false;
+                }
+                long expected = Math.max(snapshot.teas().cents(tea) + snapshot.materials().cents(material)
+                        + snapshot.sweetLevels().cents(snapshot.sweetLevels().find("50%")),
+                        OrderPricer.MINIMUM_PRICE_CENTS);
+                return quote.totalCents() == expected && quote.itemCents(0) == snapshot.teas().cents(tea);
+            case INVALID_TEA:
+                return tea == MenuSnapshot.NOT_FOUND;
+            case INVALID_MATERIAL:
+                return tea != MenuSnapshot.NOT_FOUND && material == MenuSnapshot.NOT_FOUND;
+            default:
+                return false;
+        }
+    }
+
+    private static double throughput(int threads, int seconds) throws InterruptedException {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong orders = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+
+        Thread writer = startWriter(stop);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                PriceQuote quote = new PriceQuote();
+                long count = 0;
+                while (!stop.get()) {
+                    OrderPricer.price(STEADY_ORDER, MikeTeaShop2.menu, quote);
+                    count++;
+                }
+                orders.addAndGet(count);
+                done.countDown();
+            }).start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        writer.join();
+        return orders.get() * 1e9 / elapsed;
+    }
+
+    // Adds, reprices and removes the stress items until stopped
+    private static Thread startWriter(AtomicBoolean stop) {
+        Thread writer = new Thread(() -> {
+            for (int i = 0; !stop.get(); i++) {
+                try {
+                    MikeTeaShop2.addTea("Stress Tea", 2.0 + (i % 100) / 100.0);
+                    MikeTeaShop2.addMaterial("Stress Pearl", 0.25);
+                    MikeTeaShop2.addTea("Stress Tea", 5.0 + (i % 100) / 100.0);
+                    Thread.sleep(0, 100_000);
+                    MikeTeaShop2.removeMaterial("Stress Pearl");
+                    MikeTeaShop2.removeTea("Stress Tea");
+                    Thread.sleep(0, 100_000);
+                } catch (TeaShopException | InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        writer.start();
+        return writer;
+    }
+}
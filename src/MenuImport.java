@@ -0,0 +1,555 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bulk menu import and export as CSV or JSON lines, for catalogs too large to
+ * enter with one add call per item.
+ *
+ * One item per line, in either format:
+ * - CSV: kind,name,price[,prep_seconds], with an optional header line naming the
+ *   columns in any order. Fields may be double-quoted, with "" for a quote.
+ * - JSON lines: {"kind":"tea","name":"black tea","price":3.00,"prepSeconds":45}
+ * kind is tea, material or sweet level. The prep time is optional, and only teas
+ * and materials have one. Blank lines and lines starting with # are skipped.
+ *
+ * read() streams the input and keeps only the validated, de-duplicated items (a
+ * Batch). Bad rows and conflicting duplicates go into the batch's Report instead
+ * of stopping the import. The shops then apply a batch under their edit lock and
+ * publish it as a single menu version, so readers see all of it or none of it.
+ * write() streams a menu snapshot in either format, and its output imports back
+ * with nothing changed.
+ */
+final class MenuImport {
+
+    enum Format {
+        CSV,
+        JSON_LINES;
+
+        // .jsonl, .ndjson and .json files are JSON lines; anything else is CSV
+        static Format of(Path file) {
+            String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json") ? JSON_LINES : CSV;
+        }
+    }
+
+    // Conflicts listed in a report; later ones are only counted
+    static final int MAX_REPORTED_CONFLICTS = 1000;
+
+    // Same tolerance the shops' add methods use to decide whether a price changed
+    static final double PRICE_EPSILON = 0.001;
+
+    private static final String CSV_HEADER = "kind,name,price,prep_seconds";
+    private static final int[] DEFAULT_COLUMNS = {0, 1, 2, 3};
+
+    // One validated row
+    static final class Item {
+        final PriceQuote.ItemKind kind;
+        final String name;
+        final double price;
+        final double prepSeconds; // NaN if not given
+        final long line;
+
+        Item(PriceQuote.ItemKind kind, String name, double price, double prepSeconds, long line) {
+            this.kind = kind;
+            this.name = name;
+            this.price = price;
+            this.prepSeconds = prepSeconds;
+            this.line = line;
+        }
+
+        // Prep times compare at the millisecond precision menus are compiled with
+        boolean samePrep(double otherPrepSeconds) {
+            return Double.isNaN(prepSeconds)
+                    || MenuSnapshot.toMillis(prepSeconds) == MenuSnapshot.toMillis(otherPrepSeconds);
+        }
+    }
+
+    /**
+     * Items read from one import, de-duplicated by kind and name (first row wins),
+     * plus the report of everything that was skipped.
+     */
+    static final class Batch {
+        private final List<Map<String, Item>> items = new ArrayList<>();
+        private final Report report = new Report();
+
+        private Batch() {
+            for (int i = 0; i < PriceQuote.ItemKind.values().length; i++) {
+                items.add(new LinkedHashMap<>());
+            }
+        }
+
+        Report report() {
+            return report;
+        }
+
+        Map<String, Item> items(PriceQuote.ItemKind kind) {
+            return Collections.unmodifiableMap(items.get(kind.ordinal()));
+        }
+
+        private void add(Item item) {
+            Map<String, Item> byName = items.get(item.kind.ordinal());
+            Item first = byName.putIfAbsent(item.name, item);
+            if (first == null) {
+                return;
+            }
+            if (Math.abs(first.price - item.price) <= PRICE_EPSILON && item.samePrep(first.prepSeconds)) {
+                report.duplicates++;
+            } else {
+                report.conflict(item.line, "'" + item.name + "' listed again with a different price or prep time"
+                        + " (kept line " + first.line + ")");
+            }
+        }
+
+        /**
+         * Merges this batch's items of one kind into a shop's maps and returns the
+         * items that were added or changed, with their new prices. An item already
+         * on the menu with a different price (or prep time) is updated if
+         * {@code replaceExisting}, and reported as a conflict otherwise. Pass null
+         * prep times for menus without them. Call while holding the lock that
+         * guards the maps.
+         */
+        Map<String, Double> applyTo(PriceQuote.ItemKind kind, Map<String, Double> prices,
+                                    Map<String, Double> prepTimes, double defaultPrepSeconds,
+                                    boolean replaceExisting) {
+            Map<String, Double> changed = new LinkedHashMap<>();
+            for (Item item : items.get(kind.ordinal()).values()) {
+                Double existing = prices.get(item.name);
+                double existingPrep = prepTimes == null ? Double.NaN
+                        : prepTimes.getOrDefault(item.name, defaultPrepSeconds);
+                if (existing != null) {
+                    boolean samePrep = prepTimes == null || item.samePrep(existingPrep);
+                    if (Math.abs(existing - item.price) <= PRICE_EPSILON && samePrep) {
+                        report.unchanged++;
+                        continue;
+                    }
+                    if (!replaceExisting) {
+                        report.conflict(item.line, "'" + item.name + "' already exists with price $"
+                                + String.format("%.2f", existing));
+                        continue;
+                    }
+                    report.updated++;
+                } else {
+                    report.added++;
+                }
+                prices.put(item.name, item.price);
+                if (prepTimes != null) {
+                    prepTimes.put(item.name, Double.isNaN(item.prepSeconds) ? existingPrep : item.prepSeconds);
+                }
+                changed.put(item.name, item.price);
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * What an import did: rows read, items added, updated and left unchanged,
+     * identical duplicates dropped, and conflicts (bad rows, conflicting duplicates,
+     * refused updates) with their line numbers.
+     */
+    static final class Report {
+        private long rows;
+        private long added;
+        private long updated;
+        private long unchanged;
+        private long duplicates;
+        private long conflictCount;
+        private final List<String> conflicts = new ArrayList<>();
+        private long version = -1;
+
+        private void conflict(long line, String message) {
+            conflictCount++;
+            if (conflicts.size() < MAX_REPORTED_CONFLICTS) {
+                conflicts.add("line " + line + ": " + message);
+            }
+        }
+
+        void published(long menuVersion) {
+            this.version = menuVersion;
+        }
+
+        long rows() {
+            return rows;
+        }
+
+        long added() {
+            return added;
+        }
+
+        long updated() {
+            return updated;
+        }
+
+        long unchanged() {
+            return unchanged;
+        }
+
+        long duplicates() {
+            return duplicates;
+        }
+
+        long conflictCount() {
+            return conflictCount;
+        }
+
+        /**
+         * The first MAX_REPORTED_CONFLICTS conflicts, as "line N: reason".
+         */
+        List<String> conflicts() {
+            return Collections.unmodifiableList(conflicts);
+        }
+
+        /**
+         * Menu version that holds the import, or -1 if it changed nothing.
+         */
+        long version() {
+            return version;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d rows: %,d added, %,d updated, %,d unchanged, %,d duplicates, %,d conflicts%s",
+                    rows, added, updated, unchanged, duplicates, conflictCount,
+                    version < 0 ? " (menu not changed)" : " (menu version " + version + ")");
+        }
+    }
+
+    // ===================== IMPORT =====================
+
+    /**
+     * Reads and validates a whole import. Only the resulting items are kept in
+     * memory, never the input.
+     */
+    static Batch read(Reader in, Format format) throws IOException {
+        Batch batch = new Batch();
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 64 * 1024);
+        int[] columns = null;
+        long lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            try {
+                if (format == Format.CSV) {
+                    List<String> fields = splitCsv(trimmed);
+                    if (columns == null) {
+                        columns = header(fields);
+                        if (columns != null) {
+                            continue;
+                        }
+                        columns = DEFAULT_COLUMNS;
+                    }
+                    batch.report.rows++;
+                    batch.add(item(field(fields, columns[0]), field(fields, columns[1]), field(fields, columns[2]),
+                            field(fields, columns[3]), lineNumber));
+                } else {
+                    batch.report.rows++;
+                    Map<String, String> object = parseJsonObject(trimmed);
+                    String prep = object.containsKey("prepSeconds") ? object.get("prepSeconds")
+                            : object.get("prep_seconds");
+                    batch.add(item(object.get("kind"), object.get("name"), object.get("price"), prep, lineNumber));
+                }
+            } catch (IllegalArgumentException e) {
+                batch.report.conflict(lineNumber, e.getMessage());
+            }
+        }
+        return batch;
+    }
+
+    private static Item item(String kindText, String nameText, String priceText, String prepText, long line) {
+        PriceQuote.ItemKind kind = parseKind(kindText);
+        String name = nameText == null ? "" : nameText.trim().toLowerCase();
+        if (name.isEmpty()) {
+            throw new IllegalArgumentException("missing name");
+        }
+        if (name.indexOf(',') >= 0) {
+            throw new IllegalArgumentException("'" + name + "' contains a comma, which separates order items");
+        }
+        MenuJournal.checkName(name);
+        double price = parseNumber(priceText, "price", name);
+        if (price < 0 && kind != PriceQuote.ItemKind.SWEET_LEVEL) {
+            throw new IllegalArgumentException("negative price for '" + name + "'");
+        }
+        double prepSeconds = Double.NaN;
+        if (prepText != null && !prepText.trim().isEmpty()) {
+            if (kind == PriceQuote.ItemKind.SWEET_LEVEL) {
+                throw new IllegalArgumentException("sweet level '" + name + "' cannot have a prep time");
+            }
+            prepSeconds = parseNumber(prepText, "prep time", name);
+            if (prepSeconds < 0) {
+                throw new IllegalArgumentException("negative prep time for '" + name + "'");
+            }
+        }
+        return new Item(kind, name, price, prepSeconds, line);
+    }
+
+    private static PriceQuote.ItemKind parseKind(String text) {
+        String kind = text == null ? "" : text.trim().toLowerCase().replace('_', ' ').replace('-', ' ');
+        switch (kind) {
+            case "tea":
+                return PriceQuote.ItemKind.TEA;
+            case "material":
+                return PriceQuote.ItemKind.MATERIAL;
+            case "sweet level":
+            case "sweetlevel":
+                return PriceQuote.ItemKind.SWEET_LEVEL;
+            default:
+                throw new IllegalArgumentException(kind.isEmpty() ? "missing kind" : "unknown kind '" + text.trim() + "'");
+        }
+    }
+
+    private static double parseNumber(String text, String what, String name) {
+        if (text == null || text.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing " + what + " for '" + name + "'");
+        }
+        try {
+            double value = Double.parseDouble(text.trim());
+            if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("invalid " + what + " '" + text.trim() + "' for '" + name + "'");
+    }
+
+    // Column positions of kind, name, price and prep time if the fields are a header, else null
+    private static int[] header(List<String> fields) {
+        int[] columns = {-1, -1, -1, -1};
+        String[] names = CSV_HEADER.split(",");
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i).trim().toLowerCase().replace(' ', '_');
+            for (int c = 0; c < names.length; c++) {
+                if (field.equals(names[c]) || (c == 3 && field.equals("prepseconds"))) {
+                    columns[c] = i;
+                }
+            }
+        }
+        return columns[0] >= 0 && columns[1] >= 0 && columns[2] >= 0 ? columns : null;
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : null;
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    // A flat JSON object of string, number and null values; numbers keep their text
+    private static Map<String, String> parseJsonObject(String line) {
+        Map<String, String> object = new HashMap<>();
+        int[] pos = {0};
+        expect(line, pos, '{');
+        if (peek(line, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = jsonString(line, pos);
+                expect(line, pos, ':');
+                char c = peek(line, pos);
+                String value;
+                if (c == '"') {
+                    value = jsonString(line, pos);
+                } else {
+                    int start = pos[0];
+                    while (pos[0] < line.length() && ",} \t".indexOf(line.charAt(pos[0])) < 0) {
+                        pos[0]++;
+                    }
+                    value = line.substring(start, pos[0]);
+                    if (value.isEmpty()) {
+                        throw new IllegalArgumentException("malformed JSON: missing value for \"" + key + "\"");
+                    }
+                    if (value.equals("null")) {
+                        value = null;
+                    }
+                }
+                object.put(key, value);
+                c = peek(line, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("malformed JSON: expected ',' or '}' at column " + pos[0]);
+                }
+            }
+        }
+        if (peek(line, pos) != 0) {
+            throw new IllegalArgumentException("malformed JSON: text after the object");
+        }
+        return object;
+    }
+
+    private static String jsonString(String line, int[] pos) {
+        expect(line, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        for (int i = pos[0]; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                pos[0] = i + 1;
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (++i == line.length()) {
+                break;
+            }
+            char escaped = line.charAt(i);
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (i + 4 >= line.length()) {
+                        throw new IllegalArgumentException("malformed JSON: bad \\u escape");
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("malformed JSON: bad \\u escape");
+                    }
+                    i += 4;
+                    break;
+                default:
+                    sb.append(escaped);
+            }
+        }
+        throw new IllegalArgumentException("malformed JSON: unterminated string");
+    }
+
+    private static void expect(String line, int[] pos, char c) {
+        if (peek(line, pos) != c) {
+            throw new IllegalArgumentException("malformed JSON: expected '" + c + "' at column " + (pos[0] + 1));
+        }
+        pos[0]++;
+    }
+
+    // Next non-blank character (0 at the end), leaving pos on it
+    private static char peek(String line, int[] pos) {
+        while (pos[0] < line.length() && Character.isWhitespace(line.charAt(pos[0]))) {
+            pos[0]++;
+        }
+        return pos[0] < line.length() ? line.charAt(pos[0]) : 0;
+    }
+
+    // ===================== EXPORT =====================
+
+    /**
+     * Writes every item of a menu snapshot, teas then materials then sweet levels,
+     * each sorted by name. Prices are exact (from cents); items without a prep time
+     * are written without one.
+     */
+    static void write(MenuSnapshot menu, Format format, Writer out) throws IOException {
+        Writer writer = out instanceof BufferedWriter ? out : new BufferedWriter(out, 64 * 1024);
+        StringBuilder line = new StringBuilder(128);
+        if (format == Format.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        for (PriceQuote.ItemKind kind : PriceQuote.ItemKind.values()) {
+            MenuSnapshot.Catalog catalog = menu.catalog(kind);
+            String kindName = kind == PriceQuote.ItemKind.SWEET_LEVEL ? "sweet level" : kind.name().toLowerCase();
+            for (int position = 0; position < catalog.size(); position++) {
+                int id = catalog.displayId(position);
+                String price = BigDecimal.valueOf(catalog.cents(id), 2).toPlainString();
+                long prepMillis = catalog.prepMillis(id);
+                String prep = prepMillis == 0 ? null
+                        : BigDecimal.valueOf(prepMillis, 3).stripTrailingZeros().toPlainString();
+                line.setLength(0);
+                if (format == Format.CSV) {
+                    line.append(kindName).append(',');
+                    appendCsvField(line, catalog.name(id)).append(',').append(price).append(',');
+                    if (prep != null) {
+                        line.append(prep);
+                    }
+                } else {
+                    line.append("{\"kind\":\"").append(kindName).append("\",\"name\":");
+                    appendJsonString(line, catalog.name(id)).append(",\"price\":").append(price);
+                    if (prep != null) {
+                        line.append(",\"prepSeconds\":").append(prep);
+                    }
+                    line.append('}');
+                }
+                writer.append(line).write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    private static StringBuilder appendCsvField(StringBuilder line, String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.trim().length() == value.length()) {
+            return line.append(value);
+        }
+        return line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+    private static StringBuilder appendJsonString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+}
@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bulk import of a large catalog into MikeTeaShop2 versus one addTea/addMaterial
+ * call per item, plus export and re-import in both formats. Checks the conflict
+ * report for planted bad rows and duplicates, that the import is one menu version,
+ * that a reader pricing during the import never sees half of it, and that an export
+ * imports back with nothing changed.
+ *
+ * Run: java MenuImportBenchmark [items]
+ */
+public class MenuImportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int singles = 2_000;
+
+        System.out.println("=== MENU IMPORT BENCHMARK (" + String.format("%,d", items) + " items) ===\n");
+
+        // One call per item; the shop's per-item console output is discarded
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        long start = System.nanoTime();
+        for (int i = 0; i < singles; i++) {
+            if (i % 4 == 0) {
+                MikeTeaShop2.addMaterial("single material " + i, 0.5);
+            } else {
+                MikeTeaShop2.addTea("single tea " + i, 3.0);
+            }
+        }
+        double singleMicros = (System.nanoTime() - start) / 1e3 / singles;
+        MikeTeaShop2.LOG.flush();
+        System.setOut(console);
+        System.out.println(String.format("One add call per item: %.1f us/item (first %,d items; each call "
+                + "recompiles its whole menu, so this grows with the catalog)", singleMicros, singles));
+
+        // A large CSV with planted problems
+        StringBuilder csv = new StringBuilder("kind,name,price,prep_seconds\n");
+        for (int i = 0; i < items; i++) {
+            if (i % 4 == 0) {
+                csv.append("material,bulk material ").append(i).append(',').append(0.25 + i % 8 * 0.25).append('\n');
+            } else {
+                csv.append("tea,Bulk Tea ").append(i).append(',').append(3.0 + i % 10 * 0.25).append(',')
+                        .append(30 + i % 60).append('\n');
+            }
+        }
+        csv.append("tea,bulk tea 1,3.25,31\n");          // identical duplicate
+        csv.append("tea,bulk tea 2,9.99\n");             // conflicting duplicate
+        csv.append("tea,black tea,9.00\n");              // already on the menu with another price
+        csv.append("tea,,3.00\n");                       // missing name
+        csv.append("coffee,espresso,2.00\n");            // unknown kind
+        csv.append("material,\"bad, name\",1.00\n");     // comma in a name
+        csv.append("sweet level,10%,abc\n");             // bad price
+        csv.append("sweet level,10%,0.00\n");
+
+        MenuSnapshot before = MikeTeaShop2.menu;
+        AtomicBoolean importing = new AtomicBoolean(true);
+        boolean[] tornRead = new boolean[1];
+        Thread reader = new Thread(() -> {
+            while (importing.get()) {
+                MenuSnapshot snapshot = MikeTeaShop2.menu;
+                boolean first = OrderPricer.price("bulk tea 1, 50%", snapshot).isValid();
+                boolean last = OrderPricer.price("bulk tea " + (items - 1) + ", bulk material 0, 50%", snapshot)
+                        .isValid();
+                tornRead[0] |= first != last;
+            }
+        });
+        reader.start();
+        start = System.nanoTime();
+        MenuImport.Report report = MikeTeaShop2.importMenu(new StringReader(csv.toString()),
+                MenuImport.Format.CSV, false);
+        double bulkMicros = (System.nanoTime() - start) / 1e3 / report.rows();
+        importing.set(false);
+        reader.join();
+
+        System.out.println(String.format("Bulk CSV import: %.2f us/item, %s", bulkMicros, report));
+        for (String conflict : report.conflicts()) {
+            System.out.println("  " + conflict);
+        }
+        check(report.added() == items + 1 && report.duplicates() == 1 && report.conflictCount() == 6,
+                "unexpected report: " + report);
+        check(MikeTeaShop2.menu.version() == before.version() + 1, "import was not a single menu version");
+        check(!tornRead[0], "a reader saw part of the import");
+        check(MikeTeaShop2.priceOrder("black tea, 50%").totalCents() == 300, "existing item was replaced");
+        check(MikeTeaShop2.priceOrder("bulk tea 2, bulk material 4, 10%").totalCents() == 475,
+                "imported prices differ");
+        check(MikeTeaShop2.branch("check").priceOrder("bulk tea 2, 50%").isValid(), "branch menus missed the import");
+        check(MikeTeaShop2.menu.teas().prepMillis(MikeTeaShop2.menu.teas().find("bulk tea 3")) == 33_000,
+                "prep time not imported");
+
+        // Export, then import the export again: nothing may change
+        for (MenuImport.Format format : MenuImport.Format.values()) {
+            StringWriter out = new StringWriter();
+            start = System.nanoTime();
+            MikeTeaShop2.exportMenu(out, format);
+            double exportMicros = (System.nanoTime() - start) / 1e3 / (items + singles);
+            long version = MikeTeaShop2.menu.version();
+            start = System.nanoTime();
+            MenuImport.Report again = MikeTeaShop2.importMenu(new StringReader(out.toString()), format, false);
+            double importMicros = (System.nanoTime() - start) / 1e3 / again.rows();
+            System.out.println(String.format("%s: export %.2f us/item (%,d bytes), re-import %.2f us/item, %s",
+                    format, exportMicros, out.getBuffer().length(), importMicros, again));
+            check(again.added() + again.updated() + again.conflictCount() == 0
+                    && MikeTeaShop2.menu.version() == version, format + " export did not import back unchanged");
+        }
+
+        // Replacing prices in bulk
+        StringBuilder jsonLines = new StringBuilder();
+        for (int i = 1; i < items; i += 4) {
+            jsonLines.append("{\"kind\":\"tea\",\"name\":\"bulk tea ").append(i).append("\",\"price\":4.5}\n");
+        }
+        report = MikeTeaShop2.importMenu(new StringReader(jsonLines.toString()), MenuImport.Format.JSON_LINES, true);
+        System.out.println("JSON lines price update: " + report);
+        check(report.updated() == (items + 2) / 4 && MikeTeaShop2.priceOrder("bulk tea 5, 50%").totalCents() == 450,
+                "bulk price update not applied");
+        checkParsing();
+    }
+
+    private static void checkParsing() throws IOException {
+        String lines = String.join("\n",
+                "# comment",
+                "name,price,kind",
+                "\"say \"\"hi\"\" tea\",1.5,tea",
+                "  ",
+                "x,1,juice");
+        MenuImport.Batch batch = MenuImport.read(new StringReader(lines), MenuImport.Format.CSV);
+        check(batch.items(PriceQuote.ItemKind.TEA).containsKey("say \"hi\" tea"), "quoted CSV field");
+        check(batch.report().conflictCount() == 1, "unknown kind in a reordered header row");
+
+        String json = String.join("\n",
+                "{ \"name\" : \"t\\u00e9 \\\"x\\\"\", \"kind\":\"TEA\", \"price\": 2, \"prepSeconds\": null }",
+                "{\"kind\":\"sweet_level\",\"name\":\"10%\",\"price\":-0.25}",
+                "{\"kind\":\"tea\",\"name\":\"y\",\"price\":1,}",
+                "{\"kind\":\"sweet level\",\"name\":\"20%\",\"price\":0,\"prepSeconds\":5}",
+                "not json");
+        batch = MenuImport.read(new StringReader(json), MenuImport.Format.JSON_LINES);
+        check(batch.items(PriceQuote.ItemKind.TEA).containsKey("t\u00e9 \"x\""), "JSON string escapes");
+        check(batch.items(PriceQuote.ItemKind.SWEET_LEVEL).get("10%").price == -0.25, "negative sweet level");
+        check(batch.report().conflictCount() == 3, "malformed JSON lines: " + batch.report().conflicts());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
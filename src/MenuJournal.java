@@ -0,0 +1,551 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Durable menu store: an append-only, checksummed journal of menu edits plus
+ * periodic compacted snapshots.
+ *
+ * Layout of the store directory:
+ * - snapshot-N.bin: all menus (and prep times) as of journal record N (checksummed, written
+ *   to a temp file and renamed into place)
+ * - journal-N.log: records N+1 onwards, each [length][crc32c][payload]
+ *
+ * Every SNAPSHOT_EVERY records a new snapshot is written and a new journal
+ * segment started, and older files are deleted, so recovery loads one snapshot
+ * and replays at most SNAPSHOT_EVERY records no matter how long the edit history is.
+ *
+ * Appends are buffered and a background thread writes and fsyncs them every
+ * SYNC_INTERVAL_MILLIS (group commit); sync() forces them out immediately.
+ * Only the buffer swap happens under the journal lock, so appends carry on
+ * while a batch is being written; writeLock keeps batches in order.
+ * A torn or corrupt record at the end of the journal (e.g. after a crash
+ * mid-write) ends recovery, and the journal is truncated back to the last
+ * good record before new appends.
+ */
+final class MenuJournal implements AutoCloseable {
+
+    // Prep times (seconds) are journaled like prices, as menus of their own
+    enum Menu {
+        TEA,
+        MATERIAL,
+        SWEET_LEVEL,
+        TEA_PREP,
+        MATERIAL_PREP
+    }
+
+    static final int SNAPSHOT_EVERY = 1000;
+    static final long SYNC_INTERVAL_MILLIS = 20;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int SNAPSHOT_MAGIC = 0x54534e32; // "TSN2": map count, then the maps
+    private static final int LEGACY_SNAPSHOT_MAGIC = 0x54534e50; // "TSNP": the three price maps only
+    private static final int HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 1 << 16;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int RECORD_FIXED_BYTES = 8 + 1 + 1 + 8 + 2;
+    // A record, header included, must fit an empty pending buffer (this is also under the 2-byte length)
+    static final int MAX_NAME_BYTES = BUFFER_BYTES - HEADER_BYTES - RECORD_FIXED_BYTES;
+
+    private final Path directory;
+    private FileChannel journal;
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_BYTES);
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_BYTES);
+    // Held while a batch is written; taken under the journal lock, released outside it
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private Map<String, Double> teaMap;
+    private Map<String, Double> materialMap;
+    private Map<String, Double> sweetLevelMap;
+    private Map<String, Double> teaPrepMap;
+    private Map<String, Double> materialPrepMap;
+
+    private long lastSequence;
+    private long snapshotSequence;
+    private int replayedRecords;
+    private long truncatedBytes;
+
+    private MenuJournal(Path directory) {
+        this.directory = directory;
+        this.flusher = new Thread(this::flushLoop, "menu-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    /**
+     * Opens the store for a shop under the directory named by the
+     * {@code teashop.menu.dir} system property, or returns null when persistence is off.
+     */
+    static MenuJournal openFromProperty(String shopName) {
+        String root = System.getProperty("teashop.menu.dir");
+        if (root == null) {
+            return null;
+        }
+        try {
+            return open(Paths.get(root, shopName));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open menu store in " + root, e);
+        }
+    }
+
+    static MenuJournal open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new MenuJournal(directory);
+    }
+
+    // ===================== RECOVERY =====================
+
+    /**
+     * Replaces the contents of the given maps with the newest snapshot plus the
+     * journal tail. An empty store keeps the maps as they are (the shop's defaults)
+     * and snapshots them. The maps are kept and snapshotted from then on.
+     * Returns false if the store was empty.
+     */
+    synchronized boolean recover(Map<String, Double> teaMap, Map<String, Double> materialMap,
+                                 Map<String, Double> sweetLevelMap) {
+        return recover(teaMap, materialMap, sweetLevelMap, new HashMap<>(), new HashMap<>());
+    }
+
+    /**
+     * Same as above, also recovering the prep-time maps (seconds).
+     */
+    synchronized boolean recover(Map<String, Double> teaMap, Map<String, Double> materialMap,
+                                 Map<String, Double> sweetLevelMap, Map<String, Double> teaPrepMap,
+                                 Map<String, Double> materialPrepMap) {
+        this.teaMap = teaMap;
+        this.materialMap = materialMap;
+        this.sweetLevelMap = sweetLevelMap;
+        this.teaPrepMap = teaPrepMap;
+        this.materialPrepMap = materialPrepMap;
+        try {
+            boolean found = load();
+            if (!found) {
+                checkpoint();
+            }
+            return found;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Menu recovery failed in " + directory, e);
+        }
+    }
+
+    private boolean load() throws IOException {
+        boolean found = false;
+        List<Path> snapshots = list("snapshot-", ".bin");
+        for (int i = snapshots.size() - 1; i >= 0 && !found; i--) {
+            found = loadSnapshot(snapshots.get(i));
+        }
+        lastSequence = snapshotSequence;
+
+        List<Path> segments = list("journal-", ".log");
+        Path tail = null;
+        for (Path segment : segments) {
+            if (truncatedBytes > 0) {
+                // Anything after a damaged record can no longer be applied in order
+                Files.delete(segment);
+                continue;
+            }
+            found |= replay(segment);
+            tail = segment;
+        }
+
+        if (tail == null) {
+            tail = directory.resolve(segmentName(lastSequence));
+        }
+        journal = FileChannel.open(tail, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.position(journal.size());
+        flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::closeQuietly, "menu-journal-shutdown"));
+        return found;
+    }
+
+    private boolean loadSnapshot(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int magic = buffer.remaining() < 16 ? 0 : buffer.getInt(0);
+        if (magic != SNAPSHOT_MAGIC && magic != LEGACY_SNAPSHOT_MAGIC) {
+            return false;
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.limit() - 4);
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            return false;
+        }
+
+        buffer.position(4);
+        long sequence = buffer.getLong();
+        int mapCount = magic == SNAPSHOT_MAGIC ? buffer.getInt() : 3;
+        for (Menu menu : Menu.values()) {
+            mapFor(menu).clear();
+        }
+        for (int m = 0; m < mapCount; m++) {
+            Map<String, Double> map = mapFor(Menu.values()[m]);
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String name = readName(buffer);
+                map.put(name, Double.longBitsToDouble(buffer.getLong()));
+            }
+        }
+        snapshotSequence = sequence;
+        return true;
+    }
+
+    // Applies the records of one segment; returns true if any record was read
+    private boolean replay(Path segment) throws IOException {
+        boolean any = false;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // read the whole segment
+            }
+            buffer.flip();
+
+            long good = 0;
+            CRC32C crc = new CRC32C();
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES || length > buffer.remaining()) {
+                    break;
+                }
+                crc.reset();
+                crc.update(buffer.array(), buffer.position(), length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteBuffer record = buffer.slice(buffer.position(), length);
+                buffer.position(buffer.position() + length);
+                good = buffer.position();
+                any = true;
+                apply(record);
+            }
+
+            if (good < channel.size()) {
+                truncatedBytes = channel.size() - good;
+                channel.truncate(good);
+                channel.force(true);
+            }
+        }
+        return any;
+    }
+
+    private void apply(ByteBuffer record) {
+        long sequence = record.getLong();
+        byte op = record.get();
+        Menu menu = Menu.values()[record.get()];
+        double price = Double.longBitsToDouble(record.getLong());
+        String name = readName(record);
+        if (sequence <= lastSequence) {
+            return; // already in the snapshot
+        }
+        lastSequence = sequence;
+        replayedRecords++;
+        if (op == OP_PUT) {
+            mapFor(menu).put(name, price);
+        } else {
+            mapFor(menu).remove(name);
+        }
+    }
+
+    // ===================== APPENDING =====================
+
+    /**
+     * Rejects a name too long to journal. Call before changing the maps, so a
+     * rejected edit leaves the menu as it was.
+     */
+    static void checkName(String name) {
+        nameBytes(name);
+    }
+
+    /**
+     * Journals an add or update. Call while holding the lock that guards the maps.
+     */
+    synchronized void put(Menu menu, String name, double price) {
+        append(OP_PUT, menu, name, price);
+    }
+
+    /**
+     * Journals a removal. Call while holding the lock that guards the maps.
+     */
+    synchronized void remove(Menu menu, String name) {
+        append(OP_REMOVE, menu, name, 0.0);
+    }
+
+    private void append(byte op, Menu menu, String name, double price) {
+        byte[] nameBytes = nameBytes(name);
+        int length = RECORD_FIXED_BYTES + nameBytes.length;
+        if (pending.remaining() < HEADER_BYTES + length) {
+            flushPending();
+        }
+
+        lastSequence++;
+        int start = pending.position();
+        pending.putInt(length).putInt(0);
+        pending.putLong(lastSequence).put(op).put((byte) menu.ordinal())
+                .putLong(Double.doubleToRawLongBits(price))
+                .putShort((short) nameBytes.length).put(nameBytes);
+        CRC32C crc = new CRC32C();
+        crc.update(pending.array(), start + HEADER_BYTES, length);
+        pending.putInt(start + 4, (int) crc.getValue());
+
+        if (lastSequence - snapshotSequence >= SNAPSHOT_EVERY) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes and fsyncs everything appended so far. Appends are not blocked
+     * while the write and fsync run.
+     */
+    void sync() {
+        ByteBuffer batch;
+        FileChannel channel;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            writeLock.lock(); // waits for the previous batch, whose buffer is swapped back in
+            batch = swapPending();
+            channel = journal;
+        }
+        try {
+            if (batch != null) {
+                writeBatch(channel, batch);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Same as sync() but keeps the journal lock throughout; for callers that are about to
+    // replace or close the channel, or that have no room left to append
+    private void flushPending() {
+        writeLock.lock();
+        try {
+            ByteBuffer batch = swapPending();
+            if (batch != null) {
+                writeBatch(journal, batch);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Call holding the journal lock and writeLock; returns null when nothing is pending
+    private ByteBuffer swapPending() {
+        if (pending.position() == 0) {
+            return null;
+        }
+        ByteBuffer full = pending;
+        pending = writing;
+        writing = full;
+        writing.flip();
+        return writing;
+    }
+
+    // Call holding writeLock
+    private static void writeBatch(FileChannel channel, ByteBuffer batch) {
+        try {
+            while (batch.hasRemaining()) {
+                channel.write(batch);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Menu journal write failed", e);
+        } finally {
+            batch.clear();
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                Thread.sleep(SYNC_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sync();
+        }
+    }
+
+    // ===================== SNAPSHOTS =====================
+
+    /**
+     * Writes a compacted snapshot of the maps, starts a new journal segment and
+     * drops files the snapshot makes obsolete.
+     */
+    synchronized void checkpoint() {
+        try {
+            flushPending();
+            Path target = directory.resolve(String.format("snapshot-%020d.bin", lastSequence));
+            Path temp = directory.resolve(target.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer body = encodeSnapshot(lastSequence);
+                while (body.hasRemaining()) {
+                    out.write(body);
+                }
+                out.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            snapshotSequence = lastSequence;
+
+            journal.close();
+            Path segment = directory.resolve(segmentName(lastSequence));
+            journal = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            journal.position(journal.size());
+
+            // Keep the previous snapshot as a fallback; everything older can go
+            List<Path> snapshots = list("snapshot-", ".bin");
+            for (int i = 0; i < snapshots.size() - 2; i++) {
+                Files.deleteIfExists(snapshots.get(i));
+            }
+            long oldestKept = snapshots.size() >= 2 ? sequenceOf(snapshots.get(snapshots.size() - 2)) : 0;
+            for (Path old : list("journal-", ".log")) {
+                if (sequenceOf(old) < oldestKept) {
+                    Files.deleteIfExists(old);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Menu snapshot failed", e);
+        }
+    }
+
+    private ByteBuffer encodeSnapshot(long sequence) {
+        List<byte[]> names = new ArrayList<>();
+        List<Double> prices = new ArrayList<>();
+        int size = 4 + 8 + 4 + 4;
+        for (Menu menu : Menu.values()) {
+            Map<String, Double> map = mapFor(menu);
+            size += 4;
+            for (Map.Entry<String, Double> entry : map.entrySet()) {
+                byte[] bytes = nameBytes(entry.getKey());
+                names.add(bytes);
+                prices.add(entry.getValue());
+                size += 2 + bytes.length + 8;
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(SNAPSHOT_MAGIC).putLong(sequence).putInt(Menu.values().length);
+        int next = 0;
+        for (Menu menu : Menu.values()) {
+            Map<String, Double> map = mapFor(menu);
+            buffer.putInt(map.size());
+            for (int i = 0; i < map.size(); i++, next++) {
+                byte[] name = names.get(next);
+                buffer.putShort((short) name.length).put(name).putLong(Double.doubleToRawLongBits(prices.get(next)));
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    // ===================== LIFECYCLE =====================
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        flushPending();
+        closed = true;
+        flusher.interrupt();
+        journal.close();
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Menu journal close failed: " + e.getMessage());
+        }
+    }
+
+    long lastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * Journal records applied on top of the snapshot during recovery.
+     */
+    int replayedRecords() {
+        return replayedRecords;
+    }
+
+    /**
+     * Bytes of torn or corrupt journal tail dropped during recovery.
+     */
+    long truncatedBytes() {
+        return truncatedBytes;
+    }
+
+    // ===================== HELPERS =====================
+
+    private Map<String, Double> mapFor(Menu menu) {
+        switch (menu) {
+            case TEA:
+                return teaMap;
+            case MATERIAL:
+                return materialMap;
+            case TEA_PREP:
+                return teaPrepMap;
+            case MATERIAL_PREP:
+                return materialPrepMap;
+            default:
+                return sweetLevelMap;
+        }
+    }
+
+    private static byte[] nameBytes(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Menu item name is " + bytes.length
+                    + " bytes; the journal takes at most " + MAX_NAME_BYTES);
+        }
+        return bytes;
+    }
+
+    private static String readName(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String segmentName(long afterSequence) {
+        return String.format("journal-%020d.log", afterSequence);
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(name.indexOf('-') + 1, name.indexOf('.')));
+    }
+
+    // Files with the given prefix and suffix, oldest first (names sort by sequence)
+    private List<Path> list(String prefix, String suffix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
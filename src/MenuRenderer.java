@@ -0,0 +1,78 @@
+/**
+ * Renders the printed menu of a MenuSnapshot, in the format showMenu has always used.
+ *
+ * Items are listed in each catalog's display order (sorted by name) with the display
+ * names compiled into the snapshot, so rendering does no capitalizing. The result is
+ * cached by the snapshot, see MenuSnapshot#renderedMenu().
+ */
+final class MenuRenderer {
+
+    private MenuRenderer() {
+    }
+
+    static String render(MenuSnapshot menu) {
+        String newLine = System.lineSeparator();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("\n=== MIKE'S TEA SHOP MENU ===").append(newLine);
+
+        sb.append("\nTEAS:").append(newLine);
+        MenuSnapshot.Catalog teas = menu.teas();
+        for (int i = 0; i < teas.size(); i++) {
+            int id = teas.displayId(i);
+            double price = MenuSnapshot.toDollars(teas.cents(id));
+            sb.append("  ").append(teas.displayName(id)).append(" - $").append(String.format("%.2f", price)).append(newLine);
+        }
+
+        sb.append("\nMATERIALS:").append(newLine);
+        MenuSnapshot.Catalog materials = menu.materials();
+        for (int i = 0; i < materials.size(); i++) {
+            int id = materials.displayId(i);
+            double price = MenuSnapshot.toDollars(materials.cents(id));
+            sb.append("  ").append(materials.displayName(id)).append(" - +$").append(String.format("%.2f", price)).append(newLine);
+        }
+
+        sb.append("\nSWEET LEVELS:").append(newLine);
+        MenuSnapshot.Catalog sweetLevels = menu.sweetLevels();
+        for (int i = 0; i < sweetLevels.size(); i++) {
+            int id = sweetLevels.displayId(i);
+            double adjustment = MenuSnapshot.toDollars(sweetLevels.cents(id));
+            String adj = adjustment == 0 ? "" :
+                    adjustment < 0 ? " (-$" + String.format("%.2f", Math.abs(adjustment)) + ")" :
+                            " (+$" + String.format("%.2f", adjustment) + ")";
+            // Sweet levels have always been shown as entered (lowercased), not capitalized
+            sb.append("  ").append(sweetLevels.name(id)).append(adj).append(newLine);
+        }
+
+        sb.append("=============================\n").append(newLine);
+        return sb.toString();
+    }
+
+    /**
+     * Capitalizes the first letter of every word. Same result as the shops'
+     * stream-based capitalizeWords, but in one pass, and it does not fail on
+     * repeated or leading spaces (those words are kept empty).
+     */
+    static String capitalizeWords(String str) {
+        int length = str.length();
+        while (length > 0 && str.charAt(length - 1) == ' ') {
+            length--; // split(" ") drops trailing empty words
+        }
+        StringBuilder sb = new StringBuilder(length);
+        int start = 0;
+        while (start <= length) {
+            int end = str.indexOf(' ', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            if (end > start) {
+                sb.append(str.substring(start, start + 1).toUpperCase()).append(str, start + 1, end);
+            }
+            if (end == length) {
+                break;
+            }
+            sb.append(' ');
+            start = end + 1;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,378 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled, immutable view of the three menus used for pricing.
+ *
+ * Every item gets a dense int id and its price is stored as long cents in a
+ * primitive array, so pricing does one hash probe per order token and pure
+ * integer arithmetic. Snapshots are never modified: the add and remove methods
+ * of the shops compile a new one from their maps after every change and publish
+ * it with a single volatile write.
+ *
+ * Readers take one snapshot per order and use it for everything (lookups,
+ * prices, error listings), so they never see a half-applied change and need no lock.
+ * Each published snapshot carries a version one higher than the one it replaced.
+ *
+ * Items also carry a display name, capitalized once when the item is first
+ * compiled, and a display order sorted by that name. The display order is only
+ * sorted when something lists the catalog (the printed menu, an export), not on
+ * every compile, and the printed menu is rendered once per snapshot, on first
+ * request, and reused until the next edit replaces it.
+ *
+ * Teas and materials carry a prep time for the barista scheduler, compiled from
+ * the shop's prep-time maps (seconds) next to the price maps.
+ */
+final class MenuSnapshot {
+
+    static final int NOT_FOUND = -1;
+
+    private final long version;
+    private final Catalog teas;
+    private final Catalog materials;
+    private final Catalog sweetLevels;
+
+    // Printed menu for this version, built on first use by MenuRenderer
+    private volatile String rendered;
+
+    private MenuSnapshot(long version, Catalog teas, Catalog materials, Catalog sweetLevels) {
+        this.version = version;
+        this.teas = teas;
+        this.materials = materials;
+        this.sweetLevels = sweetLevels;
+    }
+
+    static MenuSnapshot compile(Map<String, Double> teaMap, Map<String, Double> materialMap,
+                                Map<String, Double> sweetLevelMap) {
+        return new MenuSnapshot(0, Catalog.compile(teaMap), Catalog.compile(materialMap),
+                Catalog.compile(sweetLevelMap));
+    }
+
+    static MenuSnapshot compile(Map<String, Double> teaMap, Map<String, Double> teaPrepMap,
+                                Map<String, Double> materialMap, Map<String, Double> materialPrepMap,
+                                Map<String, Double> sweetLevelMap) {
+        return new MenuSnapshot(0, Catalog.compile(teaMap, teaPrepMap, null),
+                Catalog.compile(materialMap, materialPrepMap, null), Catalog.compile(sweetLevelMap));
+    }
+
+    // A menu assembled from already compiled catalogs, e.g. a branch menu
+    static MenuSnapshot of(Catalog teas, Catalog materials, Catalog sweetLevels, long version) {
+        return new MenuSnapshot(version, teas, materials, sweetLevels);
+    }
+
+    // Copy-with methods recompile only the catalog that changed
+
+    MenuSnapshot withTeas(Map<String, Double> teaMap) {
+        return new MenuSnapshot(version + 1, Catalog.compile(teaMap, teas), materials, sweetLevels);
+    }
+
+    MenuSnapshot withTeas(Map<String, Double> teaMap, Map<String, Double> teaPrepMap) {
+        return new MenuSnapshot(version + 1, Catalog.compile(teaMap, teaPrepMap, teas), materials, sweetLevels);
+    }
+
+    MenuSnapshot withMaterials(Map<String, Double> materialMap) {
+        return new MenuSnapshot(version + 1, teas, Catalog.compile(materialMap, materials), sweetLevels);
+    }
+
+    MenuSnapshot withMaterials(Map<String, Double> materialMap, Map<String, Double> materialPrepMap) {
+        return new MenuSnapshot(version + 1, teas, Catalog.compile(materialMap, materialPrepMap, materials),
+                sweetLevels);
+    }
+
+    MenuSnapshot withSweetLevels(Map<String, Double> sweetLevelMap) {
+        return new MenuSnapshot(version + 1, teas, materials, Catalog.compile(sweetLevelMap, sweetLevels));
+    }
+
+    // A bulk change to several menus as one version; null prep maps keep the previous prep times
+    MenuSnapshot withAll(Map<String, Double> teaMap, Map<String, Double> teaPrepMap,
+                         Map<String, Double> materialMap, Map<String, Double> materialPrepMap,
+                         Map<String, Double> sweetLevelMap) {
+        return new MenuSnapshot(version + 1, Catalog.compile(teaMap, teaPrepMap, teas),
+                Catalog.compile(materialMap, materialPrepMap, materials), Catalog.compile(sweetLevelMap, sweetLevels));
+    }
+
+    long version() {
+        return version;
+    }
+
+    Catalog teas() {
+        return teas;
+    }
+
+    Catalog materials() {
+        return materials;
+    }
+
+    Catalog sweetLevels() {
+        return sweetLevels;
+    }
+
+    Catalog catalog(PriceQuote.ItemKind kind) {
+        switch (kind) {
+            case TEA:
+                return teas;
+            case MATERIAL:
+                return materials;
+            default:
+                return sweetLevels;
+        }
+    }
+
+    /**
+     * The menu as printed by showMenu. Rendered at most a few times per version
+     * (racing readers may each render once) and then served from this snapshot.
+     */
+    String renderedMenu() {
+        String menu = rendered;
+        if (menu == null) {
+            menu = MenuRenderer.render(this);
+            rendered = menu;
+        }
+        return menu;
+    }
+
+    static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    static double toDollars(long cents) {
+        return cents / 100.0;
+    }
+
+    static long toMillis(double seconds) {
+        return Math.round(seconds * 1000);
+    }
+
+    /**
+     * One menu: names, cent prices and prep times indexed by item id, plus an open-addressing
+     * hash table from name to id that can be probed with an order token directly.
+     */
+    static final class Catalog {
+        private final String[] names;
+        private final String[] displayNames;
+        private final long[] cents;
+        private final long[] prepMillis;
+        private final int[] hashes;
+        private final int[] slots;
+        private final int mask;
+        // Ids sorted by display name, on first use; racing readers may each sort once
+        private volatile int[] displayOrder;
+
+        private Catalog(String[] names, String[] displayNames, long[] cents, long[] prepMillis) {
+            this.names = names;
+            this.displayNames = displayNames;
+            this.cents = cents;
+            this.prepMillis = prepMillis;
+            this.hashes = new int[names.length];
+
+            int capacity = Integer.highestOneBit(Math.max(names.length, 2) * 2 - 1) << 1;
+            this.slots = new int[capacity];
+            this.mask = capacity - 1;
+            Arrays.fill(slots, NOT_FOUND);
+
+            for (int id = 0; id < names.length; id++) {
+                int hash = names[id].hashCode();
+                hashes[id] = hash;
+                int slot = spread(hash) & mask;
+                while (slots[slot] != NOT_FOUND) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id;
+            }
+        }
+
+        static Catalog compile(Map<String, Double> map) {
+            return compile(map, null);
+        }
+
+        static Catalog compile(Map<String, Double> map, Catalog previous) {
+            return compile(map, null, previous);
+        }
+
+        /**
+         * Compiles a catalog, taking display names of items that were already in
+         * {@code previous} from there instead of capitalizing them again. Prep times
+         * come from {@code prepMap} (seconds) when given, otherwise from
+         * {@code previous}; items with neither take no time.
+         */
+        static Catalog compile(Map<String, Double> map, Map<String, Double> prepMap, Catalog previous) {
+            String[] names = new String[map.size()];
+            String[] displayNames = new String[map.size()];
+            long[] cents = new long[map.size()];
+            long[] prepMillis = new long[map.size()];
+            int id = 0;
+            for (Map.Entry<String, Double> entry : map.entrySet()) {
+                String name = entry.getKey();
+                int previousId = previous == null ? NOT_FOUND : previous.find(name);
+                names[id] = name;
+                displayNames[id] = previousId == NOT_FOUND ? MenuRenderer.capitalizeWords(name) : previous.displayNames[previousId];
+                cents[id] = toCents(entry.getValue());
+                if (prepMap != null) {
+                    prepMillis[id] = toMillis(prepMap.getOrDefault(name, 0.0));
+                } else if (previousId != NOT_FOUND) {
+                    prepMillis[id] = previous.prepMillis[previousId];
+                }
+                id++;
+            }
+            return new Catalog(names, displayNames, cents, prepMillis);
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        String name(int id) {
+            return names[id];
+        }
+
+        /**
+         * Name with every word capitalized, as shown on the menu.
+         */
+        String displayName(int id) {
+            return displayNames[id];
+        }
+
+        /**
+         * Item id at a position of the display order (sorted by display name).
+         */
+        int displayId(int position) {
+            int[] order = displayOrder;
+            if (order == null) {
+                order = sortedByDisplayName();
+                displayOrder = order;
+            }
+            return order[position];
+        }
+
+        // Merge sort of the ids on primitive arrays, so nothing is boxed per item
+        private int[] sortedByDisplayName() {
+            int[] order = new int[names.length];
+            for (int id = 0; id < order.length; id++) {
+                order[id] = id;
+            }
+            int[] buffer = new int[order.length];
+            for (int width = 1; width < order.length; width *= 2) {
+                for (int low = 0; low < order.length - width; low += 2 * width) {
+                    int middle = low + width;
+                    int high = Math.min(middle + width, order.length);
+                    int i = low;
+                    int j = middle;
+                    int k = low;
+                    while (i < middle && j < high) {
+                        buffer[k++] = compareDisplayNames(displayNames[order[j]], displayNames[order[i]]) < 0
+                                ? order[j++] : order[i++];
+                    }
+                    while (i < middle) {
+                        buffer[k++] = order[i++];
+                    }
+                    while (j < high) {
+                        buffer[k++] = order[j++];
+                    }
+                    System.arraycopy(buffer, low, order, low, high - low);
+                }
+            }
+            return order;
+        }
+
+        /**
+         * Price (or sweet level adjustment) of an item, in cents.
+         */
+        long cents(int id) {
+            return cents[id];
+        }
+
+        /**
+         * Time to prepare an item, in milliseconds.
+         */
+        long prepMillis(int id) {
+            return prepMillis[id];
+        }
+
+        /**
+         * Item names in id order, which is the iteration order of the map the catalog was compiled from.
+         */
+        List<String> names() {
+            return Collections.unmodifiableList(Arrays.asList(names));
+        }
+
+        /**
+         * Looks up an order token, returning its id or NOT_FOUND.
+         */
+        int find(OrderTokenizer.Token token) {
+            int hash = token.foldedHashCode();
+            int slot = spread(hash) & mask;
+            int id;
+            while ((id = slots[slot]) != NOT_FOUND) {
+                if (hashes[id] == hash && token.contentEquals(names[id])) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        int find(String name) {
+            int hash = name.hashCode();
+            int slot = spread(hash) & mask;
+            int id;
+            while ((id = slots[slot]) != NOT_FOUND) {
+                if (hashes[id] == hash && names[id].equals(name)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return NOT_FOUND;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+
+        // Case-insensitive, with runs of digits compared by value so "30%" sorts before "100%"
+        static int compareDisplayNames(String a, String b) {
+            int i = 0;
+            int j = 0;
+            while (i < a.length() && j < b.length()) {
+                char x = a.charAt(i);
+                char y = b.charAt(j);
+                if (Character.isDigit(x) && Character.isDigit(y)) {
+                    int endA = i;
+                    while (endA < a.length() && Character.isDigit(a.charAt(endA))) {
+                        endA++;
+                    }
+                    int endB = j;
+                    while (endB < b.length() && Character.isDigit(b.charAt(endB))) {
+                        endB++;
+                    }
+                    // Skip leading zeros; then the longer run is larger, equal lengths compare by digit
+                    while (i < endA - 1 && a.charAt(i) == '0') {
+                        i++;
+                    }
+                    while (j < endB - 1 && b.charAt(j) == '0') {
+                        j++;
+                    }
+                    int cmp = Integer.compare(endA - i, endB - j);
+                    for (int k = 0; cmp == 0 && k < endA - i; k++) {
+                        cmp = Character.compare(a.charAt(i + k), b.charAt(j + k));
+                    }
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                    i = endA;
+                    j = endB;
+                } else {
+                    int cmp = Character.compare(Character.toLowerCase(x), Character.toLowerCase(y));
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            int cmp = Integer.compare(a.length() - i, b.length() - j);
+            return cmp != 0 ? cmp : a.compareTo(b);
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.*;
 
 /**
@@ -19,6 +22,30 @@ public class MikeTeaShop {
     static Map<String, Double> materialMap = new HashMap<>();     // Material "table"
     static Map<String, Double> sweetLevelMap = new HashMap<>();   // Sweet level "table"
 
+    // Compiled copy of the three tables, rebuilt after every change and published atomically.
+    // Only the synchronized management methods touch the maps; everything else reads this snapshot.
+    static volatile MenuSnapshot menu;
+
+    // Cache of order totals, keyed by canonical order; invalidated by the menu version, not cleared
+    static final OrderPriceCache PRICE_CACHE = new OrderPriceCache(4096);
+
+    // Every order taken through the breakdown, for sales analytics; priceOrder only quotes
+    static final SalesStore SALES = new SalesStore();
+
+    // Receipts, audit lines and errors are written by a background thread (see ShopLog for the properties)
+    static final ShopLog LOG = ShopLog.fromProperties();
+
+    // Journal of menu edits, so they survive a restart; null unless -Dteashop.menu.dir is set
+    static final MenuJournal JOURNAL = MenuJournal.openFromProperty("MikeTeaShop");
+
+    // "Did you mean" indexes, updated together with the maps
+    static final SuggestionIndex TEA_SUGGESTIONS;
+    static final SuggestionIndex MATERIAL_SUGGESTIONS;
+    static final SuggestionIndex SWEET_LEVEL_SUGGESTIONS;
+
+    // Menus up to this size are listed in full when an invalid item has no close match
+    static final int LIST_ALL_LIMIT = 20;
+
     static {
         // Initialize default teas
         teaMap.put("black tea", 3.0);
@@ -35,6 +62,16 @@ public class MikeTeaShop {
         sweetLevelMap.put("50%", 0.0);
         sweetLevelMap.put("30%", 0.0);
         sweetLevelMap.put("0%", -0.50); // 50 cents discount
+
+        // Stored edits replace the defaults
+        if (JOURNAL != null) {
+            JOURNAL.recover(teaMap, materialMap, sweetLevelMap);
+        }
+
+        TEA_SUGGESTIONS = new SuggestionIndex(teaMap.keySet());
+        MATERIAL_SUGGESTIONS = new SuggestionIndex(materialMap.keySet());
+        SWEET_LEVEL_SUGGESTIONS = new SuggestionIndex(sweetLevelMap.keySet());
+        menu = MenuSnapshot.compile(teaMap, materialMap, sweetLevelMap);
     }
 
     // ===================== SERVICE LAYER (BUSINESS LOGIC) =====================
@@ -44,58 +81,133 @@ public class MikeTeaShop {
     /**
      * Tea management service methods
      */
-    public static void addTea(String name, double price) {
+    public static synchronized void addTea(String name, double price) {
+        if (JOURNAL != null) {
+            MenuJournal.checkName(name.toLowerCase());
+        }
         teaMap.put(name.toLowerCase(), price);
-        System.out.println("Added tea: " + name + " ($" + String.format("%.2f", price) + ")");
+        menu = menu.withTeas(teaMap);
+        if (JOURNAL != null) {
+            JOURNAL.put(MenuJournal.Menu.TEA, name.toLowerCase(), price);
+        }
+        TEA_SUGGESTIONS.add(name.toLowerCase());
+        LOG.println(ShopLog.Kind.AUDIT, "Added tea: " + name + " ($" + String.format("%.2f", price) + ")");
     }
 
-    public static boolean removeTea(String name) {
+    public static synchronized boolean removeTea(String name) {
         Double removed = teaMap.remove(name.toLowerCase());
         if (removed != null) {
-            System.out.println("Removed tea: " + name + " (was $" + String.format("%.2f", removed) + ")");
+            menu = menu.withTeas(teaMap);
+            if (JOURNAL != null) {
+                JOURNAL.remove(MenuJournal.Menu.TEA, name.toLowerCase());
+            }
+            TEA_SUGGESTIONS.remove(name.toLowerCase());
+            LOG.println(ShopLog.Kind.AUDIT, "Removed tea: " + name + " (was $" + String.format("%.2f", removed) + ")");
             return true;
         }
-        System.out.println("Tea not found: " + name);
+        LOG.println(ShopLog.Kind.AUDIT, "Tea not found: " + name);
         return false;
     }
 
     /**
      * Material management service methods
      */
-    public static void addMaterial(String name, double price) {
+    public static synchronized void addMaterial(String name, double price) {
+        if (JOURNAL != null) {
+            MenuJournal.checkName(name.toLowerCase());
+        }
         materialMap.put(name.toLowerCase(), price);
-        System.out.println("Added material: " + name + " ($" + String.format("%.2f", price) + ")");
+        menu = menu.withMaterials(materialMap);
+        if (JOURNAL != null) {
+            JOURNAL.put(MenuJournal.Menu.MATERIAL, name.toLowerCase(), price);
+        }
+        MATERIAL_SUGGESTIONS.add(name.toLowerCase());
+        LOG.println(ShopLog.Kind.AUDIT, "Added material: " + name + " ($" + String.format("%.2f", price) + ")");
     }
 
-    public static boolean removeMaterial(String name) {
+    public static synchronized boolean removeMaterial(String name) {
         Double removed = materialMap.remove(name.toLowerCase());
         if (removed != null) {
-            System.out.println("Removed material: " + name + " (was $" + String.format("%.2f", removed) + ")");
+            menu = menu.withMaterials(materialMap);
+            if (JOURNAL != null) {
+                JOURNAL.remove(MenuJournal.Menu.MATERIAL, name.toLowerCase());
+            }
+            MATERIAL_SUGGESTIONS.remove(name.toLowerCase());
+            LOG.println(ShopLog.Kind.AUDIT, "Removed material: " + name + " (was $"
+                    + String.format("%.2f", removed) + ")");
             return true;
         }
-        System.out.println("Material not found: " + name);
+        LOG.println(ShopLog.Kind.AUDIT, "Material not found: " + name);
         return false;
     }
 
     /**
      * Sweet level management service methods
      */
-    public static void addSweetLevel(String name, double priceAdjustment) {
+    public static synchronized void addSweetLevel(String name, double priceAdjustment) {
+        if (JOURNAL != null) {
+            MenuJournal.checkName(name.toLowerCase());
+        }
         sweetLevelMap.put(name.toLowerCase(), priceAdjustment);
+        menu = menu.withSweetLevels(sweetLevelMap);
+        if (JOURNAL != null) {
+            JOURNAL.put(MenuJournal.Menu.SWEET_LEVEL, name.toLowerCase(), priceAdjustment);
+        }
+        SWEET_LEVEL_SUGGESTIONS.add(name.toLowerCase());
         String type = priceAdjustment < 0 ? "discount" : priceAdjustment > 0 ? "surcharge" : "no change";
-        System.out.println("Added sweet level: " + name + " (" + type + " $" + String.format("%.2f", Math.abs(priceAdjustment)) + ")");
+        LOG.println(ShopLog.Kind.AUDIT, "Added sweet level: " + name + " (" + type + " $"
+                + String.format("%.2f", Math.abs(priceAdjustment)) + ")");
     }
 
-    public static boolean removeSweetLevel(String name) {
+    public static synchronized boolean removeSweetLevel(String name) {
         Double removed = sweetLevelMap.remove(name.toLowerCase());
         if (removed != null) {
-            System.out.println("Removed sweet level: " + name);
+            menu = menu.withSweetLevels(sweetLevelMap);
+            if (JOURNAL != null) {
+                JOURNAL.remove(MenuJournal.Menu.SWEET_LEVEL, name.toLowerCase());
+            }
+            SWEET_LEVEL_SUGGESTIONS.remove(name.toLowerCase());
+            LOG.println(ShopLog.Kind.AUDIT, "Removed sweet level: " + name);
             return true;
         }
-        System.out.println("Sweet level not found: " + name);
+        LOG.println(ShopLog.Kind.AUDIT, "Sweet level not found: " + name);
         return false;
     }
 
+    /**
+     * Bulk import service method: a whole catalog (CSV or JSON lines, see MenuImport)
+     * published as one menu version. Like addTea, existing items take the new price;
+     * bad rows and conflicting duplicates are listed in the report.
+     */
+    static MenuImport.Report importMenu(Reader in, MenuImport.Format format) throws IOException {
+        return applyImport(MenuImport.read(in, format));
+    }
+
+    private static synchronized MenuImport.Report applyImport(MenuImport.Batch batch) {
+        Map<String, Double> teas = batch.applyTo(PriceQuote.ItemKind.TEA, teaMap, null, 0, true);
+        Map<String, Double> materials = batch.applyTo(PriceQuote.ItemKind.MATERIAL, materialMap, null, 0, true);
+        Map<String, Double> sweetLevels = batch.applyTo(PriceQuote.ItemKind.SWEET_LEVEL, sweetLevelMap, null, 0, true);
+        if (teas.isEmpty() && materials.isEmpty() && sweetLevels.isEmpty()) {
+            return batch.report();
+        }
+        menu = menu.withAll(teaMap, null, materialMap, null, sweetLevelMap);
+        if (JOURNAL != null) {
+            JOURNAL.checkpoint();
+        }
+        TEA_SUGGESTIONS.addAll(teas.keySet());
+        MATERIAL_SUGGESTIONS.addAll(materials.keySet());
+        SWEET_LEVEL_SUGGESTIONS.addAll(sweetLevels.keySet());
+        batch.report().published(menu.version());
+        return batch.report();
+    }
+
+    /**
+     * Bulk export service method: the current menu in an import format
+     */
+    static void exportMenu(Writer out, MenuImport.Format format) throws IOException {
+        MenuImport.write(menu, format, out);
+    }
+
     // ===================== PRESENTATION LAYER (VIEW/CONTROLLER) =====================
     // These methods handle display and user interaction
     // In a layered architecture, these would be split into:
@@ -106,103 +218,87 @@ public class MikeTeaShop {
      * Displays the current menu (View functionality)
      */
     public static void showMenu() {
-        System.out.println("\n=== MIKE'S TEA SHOP MENU ===");
-
-        System.out.println("\nTEAS:");
-        teaMap.forEach((tea, price) ->
-                System.out.println("  " + capitalizeWords(tea) + " - $" + String.format("%.2f", price)));
-
-        System.out.println("\nMATERIALS:");
-        materialMap.forEach((material, price) ->
-                System.out.println("  " + capitalizeWords(material) + " - +$" + String.format("%.2f", price)));
-
-        System.out.println("\nSWEET LEVELS:");
-        sweetLevelMap.forEach((level, adjustment) -> {
-            String adj = adjustment == 0 ? "" :
-                    adjustment < 0 ? " (-$" + String.format("%.2f", Math.abs(adjustment)) + ")" :
-                            " (+$" + String.format("%.2f", adjustment) + ")";
-            System.out.println("  " + level + adj);
-        });
-
-        System.out.println("=============================\n");
+        // Rendered once per menu version, sorted by name; edits publish a new snapshot
+        LOG.print(ShopLog.Kind.DISPLAY, menu.renderedMenu());
     }
 
     /**
      * Helper method for formatting display strings
      */
     private static String capitalizeWords(String str) {
-        return Arrays.stream(str.split(" "))
-                .map(word -> word.substring(0, 1).toUpperCase() + word.substring(1))
-                .reduce((a, b) -> a + " " + b)
-                .orElse("");
+        return MenuRenderer.capitalizeWords(str);
     }
 
     // ===================== CORE BUSINESS SERVICE =====================
+    /**
+     * Prices an order through the order price cache (Service logic, no output)
+     * Returns 0.0 for an invalid order, like calculatePriceWithBreakdown
+     */
+    static double cachedPrice(String input) {
+        long cents = PRICE_CACHE.totalCents(input, menu);
+        return cents == OrderPriceCache.INVALID ? 0.0 : MenuSnapshot.toDollars(cents);
+    }
+
+    /**
+     * Prices an order without any console output (pure Service logic)
+     * Returns the total, the line items and an error code; nothing is recorded as a sale
+     */
+    static PriceQuote priceOrder(String input) {
+        MenuSnapshot snapshot = menu;
+        return OrderPricer.price(input, snapshot);
+    }
+
     /**
      * Calculates order price with detailed breakdown
      * Combines:
-     * - Controller logic (input handling)
-     * - Service logic (price calculation)
-     * - View logic (console output)
+     * - Service logic (priceOrder)
+     * - View logic (console output, see ReceiptRenderer)
      */
     public static double calculatePriceWithBreakdown(String input) {
-        // Input validation (Controller aspect)
-        String[] parts = input.toLowerCase().split(",\\s*");
-        System.out.println("\n--- Order: " + input + " ---");
-
-        if (parts.length < 2) {
-            System.out.println("Invalid Order Format. Need at least tea and sweetness level.");
-            return 0.0;
+        MenuSnapshot snapshot = menu;
+        PriceQuote quote = OrderPricer.price(input, snapshot);
+        SALES.record(quote, snapshot);
+
+        // Display breakdown (View aspect), as one log event so concurrent receipts do not interleave
+        StringBuilder receipt = new StringBuilder(256);
+        ReceiptRenderer.renderHeader(input, receipt);
+        ReceiptRenderer.renderBreakdown(quote, receipt);
+
+        switch (quote.error()) {
+            case INVALID_ORDER_FORMAT:
+                receipt.append("Invalid Order Format. Need at least tea and sweetness level.\n");
+                break;
+            case INVALID_TEA:
+                receipt.append("Invalid tea: ").append(quote.invalidItem())
+                        .append(hint(TEA_SUGGESTIONS, snapshot.teas(), quote)).append('\n');
+                break;
+            case INVALID_MATERIAL:
+                receipt.append("Invalid material: ").append(quote.invalidItem())
+                        .append(hint(MATERIAL_SUGGESTIONS, snapshot.materials(), quote)).append('\n');
+                break;
+            case INVALID_SWEET_LEVEL:
+                receipt.append("Invalid sweetness level: ").append(quote.invalidItem())
+                        .append(hint(SWEET_LEVEL_SUGGESTIONS, snapshot.sweetLevels(), quote)).append('\n');
+                break;
+            default:
+                break;
         }
+        LOG.print(quote.isValid() ? ShopLog.Kind.RECEIPT : ShopLog.Kind.ERROR, receipt.toString());
+        return quote.total();
+    }
 
-        // Tea validation and pricing (Service aspect)
-        String tea = parts[0].trim();
-        if (!teaMap.containsKey(tea)) {
-            System.out.println("Invalid tea: " + tea + ". Available: " + teaMap.keySet());
-            return 0.0;
-        }
-
-        double teaPrice = teaMap.get(tea);
-        double materialCost = 0.0;
-        List<String> materials = new ArrayList<>();
-
-        System.out.println("Tea: " + capitalizeWords(tea) + " - $" + String.format("%.2f", teaPrice));
-
-        // Material handling (Service aspect)
-        for (int i = 1; i < parts.length - 1; i++) {
-            String material = parts[i].trim();
-            if (materialMap.containsKey(material)) {
-                double price = materialMap.get(material);
-                materialCost += price;
-                materials.add(material);
-                System.out.println("+ " + capitalizeWords(material) + " - $" + String.format("%.2f", price));
-            } else {
-                System.out.println("Invalid material: " + material + ". Available: " + materialMap.keySet());
-                return 0.0;
-            }
-        }
-
-        // Sweetness level handling (Service aspect)
-        String sweetness = parts[parts.length - 1].trim();
-        if (!sweetLevelMap.containsKey(sweetness)) {
-            System.out.println("Invalid sweetness level: " + sweetness + ". Available: " + sweetLevelMap.keySet());
-            return 0.0;
-        }
-
-        double sweetAdjustment = sweetLevelMap.get(sweetness);
-        System.out.println("Sweet Level: " + sweetness);
-
-        // Display adjustments (View aspect)
-        if (sweetAdjustment < 0) {
-            System.out.println("Discount: -$" + String.format("%.2f", Math.abs(sweetAdjustment)));
-        } else if (sweetAdjustment > 0) {
-            System.out.println("Surcharge: +$" + String.format("%.2f", sweetAdjustment));
+    // Closest menu names, or the whole (small) menu when nothing is close
+    private static String hint(SuggestionIndex index, MenuSnapshot.Catalog catalog, PriceQuote quote) {
+        List<String> suggestions = index.suggest(quote.invalidItem());
+        if (!suggestions.isEmpty()) {
+            return ". Did you mean: " + String.join(", ", suggestions) + "?";
         }
+        return catalog.size() <= LIST_ALL_LIMIT ? ". Available: " + catalog.names() : ".";
+    }
 
-        // Price calculation (Core business logic)
-        double totalPrice = Math.max(teaPrice + materialCost + sweetAdjustment, 0.50);
-        System.out.println("-------------------------");
-        return totalPrice;
+    // Demo text goes through the log too, so it stays in order with the receipts
+    private static void println(String line) {
+        LOG.println(ShopLog.Kind.DISPLAY, line);
     }
 
     // ===================== APPLICATION LAYER =====================
@@ -215,19 +311,19 @@ public class MikeTeaShop {
      * - REST endpoints or proper UI framework
      */
     public static void main(String[] args) {
-        System.out.println("=== MIKE'S TEA SHOP - DYNAMIC SYSTEM ===\n");
+        println("=== MIKE'S TEA SHOP - DYNAMIC SYSTEM ===\n");
 
         // Show initial menu
         showMenu();
 
         // Test original functionality
-        System.out.println("=== ORIGINAL ORDERS ===");
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("black tea, 0%")));
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("green tea, pearl, coconut, 0%")));
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("oolong tea, coconut, 50%")));
+        println("=== ORIGINAL ORDERS ===");
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("black tea, 0%")));
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("green tea, pearl, coconut, 0%")));
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("oolong tea, coconut, 50%")));
 
         // Demo: Add new items
-        System.out.println("\n=== ADDING NEW ITEMS ===");
+        println("\n=== ADDING NEW ITEMS ===");
         addTea("Earl Grey", 3.25);
         addTea("Jasmine Tea", 3.75);
         addMaterial("Tapioca", 0.60);
@@ -238,12 +334,12 @@ public class MikeTeaShop {
         showMenu();
 
         // Test new items
-        System.out.println("=== ORDERS WITH NEW ITEMS ===");
+        println("=== ORDERS WITH NEW ITEMS ===");
         calculatePriceWithBreakdown("Earl Grey, Tapioca, Jelly, 75%");
         calculatePriceWithBreakdown("Jasmine Tea, Pearl, Extra Sweet");
 
         // Demo: Remove items
-        System.out.println("\n=== REMOVING ITEMS ===");
+        println("\n=== REMOVING ITEMS ===");
         removeTea("Earl Grey");
         removeMaterial("Jelly");
         removeSweetLevel("Extra Sweet");
@@ -251,7 +347,7 @@ public class MikeTeaShop {
         showMenu();
 
         // Test invalid orders
-        System.out.println("\n=== TESTING INVALID ORDERS ===");
+        println("\n=== TESTING INVALID ORDERS ===");
         calculatePriceWithBreakdown("uyuyuy,50%");
         calculatePriceWithBreakdown("Green Tea, Invalid Material, 50%");
         calculatePriceWithBreakdown("Green Tea, Invalid Sweet Level");
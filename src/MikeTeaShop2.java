@@ -1,4 +1,8 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.*;
+import java.util.stream.Stream;
 
 // Custom exceptions
 class TeaShopException extends Exception {
@@ -7,27 +11,79 @@ class TeaShopException extends Exception {
     }
 }
 
-class InvalidTeaException extends TeaShopException {
+// An order item that is not on the menu, with the nearest names that are
+abstract class InvalidItemException extends TeaShopException {
+    private final List<String> suggestions;
+
+    protected InvalidItemException(String message, List<String> suggestions) {
+        super(message);
+        this.suggestions = suggestions;
+    }
+
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+}
+
+class InvalidTeaException extends InvalidItemException {
     public InvalidTeaException(String teaName) {
-        super("Invalid tea: " + teaName);
+        this(teaName, Collections.emptyList());
+    }
+
+    public InvalidTeaException(String teaName, List<String> suggestions) {
+        super(PriceQuote.ErrorCode.INVALID_TEA.message(teaName), suggestions);
     }
 }
 
-class InvalidMaterialException extends TeaShopException {
+class InvalidMaterialException extends InvalidItemException {
     public InvalidMaterialException(String materialName) {
-        super("Invalid material: " + materialName);
+        this(materialName, Collections.emptyList());
+    }
+
+    public InvalidMaterialException(String materialName, List<String> suggestions) {
+        super(PriceQuote.ErrorCode.INVALID_MATERIAL.message(materialName), suggestions);
     }
 }
 
-class InvalidSweetLevelException extends TeaShopException {
+class InvalidSweetLevelException extends InvalidItemException {
     public InvalidSweetLevelException(String sweetLevel) {
-        super("Invalid sweetness level: " + sweetLevel);
+        this(sweetLevel, Collections.emptyList());
+    }
+
+    public InvalidSweetLevelException(String sweetLevel, List<String> suggestions) {
+        super(PriceQuote.ErrorCode.INVALID_SWEET_LEVEL.message(sweetLevel), suggestions);
     }
 }
 
 class InvalidOrderFormatException extends TeaShopException {
     public InvalidOrderFormatException() {
-        super("Invalid order format. Need at least tea and sweetness level.");
+        super(PriceQuote.ErrorCode.INVALID_ORDER_FORMAT.message(null));
+    }
+}
+
+// Not enough stock of a tea or material to reserve a whole order
+class OutOfStockException extends TeaShopException {
+    private final String itemName;
+    private final long requested;
+    private final long available;
+
+    public OutOfStockException(String itemType, String itemName, long requested, long available) {
+        super(itemType + " '" + itemName + "' is out of stock (need " + requested + ", have " + available + ").");
+        this.itemName = itemName;
+        this.requested = requested;
+        this.available = available;
+    }
+
+    public String getItemName() {
+        return itemName;
+    }
+
+    public long getRequested() {
+        return requested;
+    }
+
+    public long getAvailable() {
+        return available;
     }
 }
 
@@ -49,6 +105,47 @@ public class MikeTeaShop2 {
     static Map<String, Double> materialMap = new HashMap<>();
     static Map<String, Double> sweetLevelMap = new HashMap<>();
 
+    // Prep time in seconds for each tea and material, next to the price maps
+    static Map<String, Double> teaPrepMap = new HashMap<>();
+    static Map<String, Double> materialPrepMap = new HashMap<>();
+    static final double DEFAULT_TEA_PREP_SECONDS = 60;
+    static final double DEFAULT_MATERIAL_PREP_SECONDS = 15;
+
+    // Compiled menu used for pricing, rebuilt from the maps after every change.
+    // The maps are only touched by the synchronized management methods; readers use this snapshot.
+    static volatile MenuSnapshot menu;
+
+    // Totals of popular orders; entries go stale when an edit publishes a new menu version
+    static final OrderPriceCache PRICE_CACHE = new OrderPriceCache(4096);
+
+    // Every order taken (placeOrder and the breakdown), for sales analytics; quotes
+    // (priceOrder, calculatePrice) are not sales
+    static final SalesStore SALES = new SalesStore();
+
+    // Receipts, audit lines and errors are written by a background thread (see ShopLog for the properties)
+    static final ShopLog LOG = ShopLog.fromProperties();
+
+    // Journal of menu edits, so they survive a restart; null unless -Dteashop.menu.dir is set
+    static final MenuJournal JOURNAL = MenuJournal.openFromProperty("MikeTeaShop2");
+
+    // "Did you mean" indexes, kept in step with the maps by the management methods
+    static final SuggestionIndex TEA_SUGGESTIONS;
+    static final SuggestionIndex MATERIAL_SUGGESTIONS;
+    static final SuggestionIndex SWEET_LEVEL_SUGGESTIONS;
+
+    // Menus up to this size are listed in full when an invalid item has no close match
+    static final int LIST_ALL_LIMIT = 20;
+
+    // Branch menus: this menu is the shared base, each branch keeps a small overlay
+    static final BranchMenus BRANCHES;
+
+    // Active promotions as data, and their rules compiled against a menu snapshot on first use
+    private static volatile List<Promotions.Promotion> promotionRules = Collections.emptyList();
+    private static volatile Promotions compiledPromotions;
+
+    // Stock of teas and materials; items without a stock level are unlimited
+    static final Inventory INVENTORY = new Inventory();
+
     static {
         // Initialize default teas
         teaMap.put("black tea", 3.0);
@@ -60,27 +157,69 @@ public class MikeTeaShop2 {
         materialMap.put("coconut", 0.50);
         materialMap.put("honey bean", 0.80);
 
+        // Initialize prep times (seconds)
+        teaPrepMap.put("black tea", 45.0);
+        teaPrepMap.put("green tea", 60.0);
+        teaPrepMap.put("oolong tea", 90.0);
+        materialPrepMap.put("pearl", 20.0);
+        materialPrepMap.put("coconut", 10.0);
+        materialPrepMap.put("honey bean", 15.0);
+
         // Initialize sweet levels (discount/surcharge)
         sweetLevelMap.put("100%", 0.0);
         sweetLevelMap.put("50%", 0.0);
         sweetLevelMap.put("30%", 0.0);
         sweetLevelMap.put("0%", -0.50); // 50 cents discount
+
+        // Stored edits replace the defaults
+        if (JOURNAL != null) {
+            JOURNAL.recover(teaMap, materialMap, sweetLevelMap, teaPrepMap, materialPrepMap);
+        }
+        // Stores written before prep times existed have none
+        for (String tea : teaMap.keySet()) {
+            teaPrepMap.putIfAbsent(tea, DEFAULT_TEA_PREP_SECONDS);
+        }
+        for (String material : materialMap.keySet()) {
+            materialPrepMap.putIfAbsent(material, DEFAULT_MATERIAL_PREP_SECONDS);
+        }
+
+        TEA_SUGGESTIONS = new SuggestionIndex(teaMap.keySet());
+        MATERIAL_SUGGESTIONS = new SuggestionIndex(materialMap.keySet());
+        SWEET_LEVEL_SUGGESTIONS = new SuggestionIndex(sweetLevelMap.keySet());
+        menu = MenuSnapshot.compile(teaMap, teaPrepMap, materialMap, materialPrepMap, sweetLevelMap);
+        BRANCHES = new BranchMenus(teaMap, materialMap, sweetLevelMap, () -> menu);
     }
 
     // ===================== MANAGEMENT METHODS =====================
 
     // Tea management
-    public static void addTea(String name, double price) throws ItemAlreadyExistsException {
+    public static synchronized void addTea(String name, double price) throws ItemAlreadyExistsException {
+        addTea(name, price, teaPrepMap.getOrDefault(name.toLowerCase(), DEFAULT_TEA_PREP_SECONDS));
+    }
+
+    public static synchronized void addTea(String name, double price, double prepSeconds)
+            throws ItemAlreadyExistsException {
         String lowerName = name.toLowerCase();
+        if (JOURNAL != null) {
+            MenuJournal.checkName(lowerName);
+        }
 
         // Check if tea already exists
         if (teaMap.containsKey(lowerName)) {
             double existingPrice = teaMap.get(lowerName);
+            double existingPrep = teaPrepMap.getOrDefault(lowerName, DEFAULT_TEA_PREP_SECONDS);
 
-            // If price is different, update it
-            if (Math.abs(existingPrice - price) > 0.001) {  // Using epsilon for double comparison
+            // If price or prep time is different, update it
+            if (Math.abs(existingPrice - price) > 0.001 || existingPrep != prepSeconds) {  // Using epsilon for double comparison
                 teaMap.put(lowerName, price);
-                System.out.println("Updated tea: " + name + " price from $" +
+                teaPrepMap.put(lowerName, prepSeconds);
+                menu = menu.withTeas(teaMap, teaPrepMap);
+                if (JOURNAL != null) {
+                    JOURNAL.put(MenuJournal.Menu.TEA, lowerName, price);
+                    JOURNAL.put(MenuJournal.Menu.TEA_PREP, lowerName, prepSeconds);
+                }
+                BRANCHES.putBase(PriceQuote.ItemKind.TEA, lowerName, price);
+                LOG.println(ShopLog.Kind.AUDIT, "Updated tea: " + name + " price from $" +
                         String.format("%.2f", existingPrice) + " to $" +
                         String.format("%.2f", price));
             } else {
@@ -91,175 +230,389 @@ public class MikeTeaShop2 {
         } else {
             // New tea - add to map
             teaMap.put(lowerName, price);
-            System.out.println("Added tea: " + name + " ($" +
+            teaPrepMap.put(lowerName, prepSeconds);
+            menu = menu.withTeas(teaMap, teaPrepMap);
+            if (JOURNAL != null) {
+                JOURNAL.put(MenuJournal.Menu.TEA, lowerName, price);
+                JOURNAL.put(MenuJournal.Menu.TEA_PREP, lowerName, prepSeconds);
+            }
+            BRANCHES.putBase(PriceQuote.ItemKind.TEA, lowerName, price);
+            TEA_SUGGESTIONS.add(lowerName);
+            LOG.println(ShopLog.Kind.AUDIT, "Added tea: " + name + " ($" +
                     String.format("%.2f", price) + ")");
         }
     }
 
-    public static boolean removeTea(String name) throws ItemNotFoundException {
+    public static synchronized boolean removeTea(String name) throws ItemNotFoundException {
         String lowerName = name.toLowerCase();
         if (!teaMap.containsKey(lowerName)) {
             throw new ItemNotFoundException("Tea", name);
         }
         Double removed = teaMap.remove(lowerName);
-        System.out.println("Removed tea: " + name + " (was $" + String.format("%.2f", removed) + ")");
+        teaPrepMap.remove(lowerName);
+        menu = menu.withTeas(teaMap, teaPrepMap);
+        if (JOURNAL != null) {
+            JOURNAL.remove(MenuJournal.Menu.TEA, lowerName);
+            JOURNAL.remove(MenuJournal.Menu.TEA_PREP, lowerName);
+        }
+        BRANCHES.removeBase(PriceQuote.ItemKind.TEA, lowerName);
+        TEA_SUGGESTIONS.remove(lowerName);
+        LOG.println(ShopLog.Kind.AUDIT, "Removed tea: " + name + " (was $" + String.format("%.2f", removed) + ")");
         return true;
     }
 
     // Material management
-    public static void addMaterial(String name, double price) throws ItemAlreadyExistsException {
+    public static synchronized void addMaterial(String name, double price) throws ItemAlreadyExistsException {
+        addMaterial(name, price, DEFAULT_MATERIAL_PREP_SECONDS);
+    }
+
+    public static synchronized void addMaterial(String name, double price, double prepSeconds)
+            throws ItemAlreadyExistsException {
         String lowerName = name.toLowerCase();
+        if (JOURNAL != null) {
+            MenuJournal.checkName(lowerName);
+        }
         if (materialMap.containsKey(lowerName)) {
             throw new ItemAlreadyExistsException("Material", name);
         }
         materialMap.put(lowerName, price);
-        System.out.println("Added material: " + name + " ($" + String.format("%.2f", price) + ")");
+        materialPrepMap.put(lowerName, prepSeconds);
+        menu = menu.withMaterials(materialMap, materialPrepMap);
+        if (JOURNAL != null) {
+            JOURNAL.put(MenuJournal.Menu.MATERIAL, lowerName, price);
+            JOURNAL.put(MenuJournal.Menu.MATERIAL_PREP, lowerName, prepSeconds);
+        }
+        BRANCHES.putBase(PriceQuote.ItemKind.MATERIAL, lowerName, price);
+        MATERIAL_SUGGESTIONS.add(lowerName);
+        LOG.println(ShopLog.Kind.AUDIT, "Added material: " + name + " ($" + String.format("%.2f", price) + ")");
     }
 
-    public static boolean removeMaterial(String name) throws ItemNotFoundException {
+    public static synchronized boolean removeMaterial(String name) throws ItemNotFoundException {
         String lowerName = name.toLowerCase();
         if (!materialMap.containsKey(lowerName)) {
             throw new ItemNotFoundException("Material", name);
         }
         Double removed = materialMap.remove(lowerName);
-        System.out.println("Removed material: " + name + " (was $" + String.format("%.2f", removed) + ")");
+        materialPrepMap.remove(lowerName);
+        menu = menu.withMaterials(materialMap, materialPrepMap);
+        if (JOURNAL != null) {
+            JOURNAL.remove(MenuJournal.Menu.MATERIAL, lowerName);
+            JOURNAL.remove(MenuJournal.Menu.MATERIAL_PREP, lowerName);
+        }
+        BRANCHES.removeBase(PriceQuote.ItemKind.MATERIAL, lowerName);
+        MATERIAL_SUGGESTIONS.remove(lowerName);
+        LOG.println(ShopLog.Kind.AUDIT, "Removed material: " + name + " (was $" + String.format("%.2f", removed) + ")");
         return true;
     }
 
     // Sweet level management
-    public static void addSweetLevel(String name, double priceAdjustment) throws ItemAlreadyExistsException {
+    public static synchronized void addSweetLevel(String name, double priceAdjustment) throws ItemAlreadyExistsException {
         String lowerName = name.toLowerCase();
+        if (JOURNAL != null) {
+            MenuJournal.checkName(lowerName);
+        }
         if (sweetLevelMap.containsKey(lowerName)) {
             throw new ItemAlreadyExistsException("Sweet level", name);
         }
         sweetLevelMap.put(lowerName, priceAdjustment);
+        menu = menu.withSweetLevels(sweetLevelMap);
+        if (JOURNAL != null) {
+            JOURNAL.put(MenuJournal.Menu.SWEET_LEVEL, lowerName, priceAdjustment);
+        }
+        BRANCHES.putBase(PriceQuote.ItemKind.SWEET_LEVEL, lowerName, priceAdjustment);
+        SWEET_LEVEL_SUGGESTIONS.add(lowerName);
         String type = priceAdjustment < 0 ? "discount" : priceAdjustment > 0 ? "surcharge" : "no change";
-        System.out.println("Added sweet level: " + name + " (" + type + " $" + String.format("%.2f", Math.abs(priceAdjustment)) + ")");
+        LOG.println(ShopLog.Kind.AUDIT, "Added sweet level: " + name + " (" + type + " $" + String.format("%.2f", Math.abs(priceAdjustment)) + ")");
     }
 
-    public static boolean removeSweetLevel(String name) throws ItemNotFoundException {
+    public static synchronized boolean removeSweetLevel(String name) throws ItemNotFoundException {
         String lowerName = name.toLowerCase();
         if (!sweetLevelMap.containsKey(lowerName)) {
             throw new ItemNotFoundException("Sweet level", name);
         }
         sweetLevelMap.remove(lowerName);
-        System.out.println("Removed sweet level: " + name);
+        menu = menu.withSweetLevels(sweetLevelMap);
+        if (JOURNAL != null) {
+            JOURNAL.remove(MenuJournal.Menu.SWEET_LEVEL, lowerName);
+        }
+        BRANCHES.removeBase(PriceQuote.ItemKind.SWEET_LEVEL, lowerName);
+        SWEET_LEVEL_SUGGESTIONS.remove(lowerName);
+        LOG.println(ShopLog.Kind.AUDIT, "Removed sweet level: " + name);
         return true;
     }
 
-    // ===================== DISPLAY METHODS =====================
+    // ===================== BULK IMPORT AND EXPORT =====================
+
+    /**
+     * Imports a catalog (see MenuImport for the CSV and JSON-lines formats) as one
+     * menu version. Rows are read and validated before the lock is taken. Bad rows,
+     * conflicting duplicates and, unless {@code replaceExisting}, items already on
+     * the menu with another price are listed in the report instead of failing the
+     * import. Nothing is printed per item.
+     */
+    static MenuImport.Report importMenu(Reader in, MenuImport.Format format, boolean replaceExisting)
+            throws IOException {
+        return applyImport(MenuImport.read(in, format), replaceExisting);
+    }
 
-    public static void showMenu() {
-        System.out.println("\n=== MIKE'S TEA SHOP MENU ===");
+    private static synchronized MenuImport.Report applyImport(MenuImport.Batch batch, boolean replaceExisting) {
+        Map<String, Double> teas = batch.applyTo(PriceQuote.ItemKind.TEA, teaMap, teaPrepMap,
+                DEFAULT_TEA_PREP_SECONDS, replaceExisting);
+        Map<String, Double> materials = batch.applyTo(PriceQuote.ItemKind.MATERIAL, materialMap, materialPrepMap,
+                DEFAULT_MATERIAL_PREP_SECONDS, replaceExisting);
+        Map<String, Double> sweetLevels = batch.applyTo(PriceQuote.ItemKind.SWEET_LEVEL, sweetLevelMap, null,
+                0, replaceExisting);
+        if (teas.isEmpty() && materials.isEmpty() && sweetLevels.isEmpty()) {
+            return batch.report();
+        }
+        menu = menu.withAll(teaMap, teaPrepMap, materialMap, materialPrepMap, sweetLevelMap);
+        if (JOURNAL != null) {
+            // One snapshot of the whole import rather than a journal record per item
+            JOURNAL.checkpoint();
+        }
+        BRANCHES.putAllBase(teas, materials, sweetLevels);
+        TEA_SUGGESTIONS.addAll(teas.keySet());
+        MATERIAL_SUGGESTIONS.addAll(materials.keySet());
+        SWEET_LEVEL_SUGGESTIONS.addAll(sweetLevels.keySet());
+        batch.report().published(menu.version());
+        return batch.report();
+    }
+
+    /**
+     * Writes the current menu in an import format.
+     */
+    static void exportMenu(Writer out, MenuImport.Format format) throws IOException {
+        MenuImport.write(menu, format, out);
+    }
+
+    // ===================== PROMOTIONS =====================
+
+    /**
+     * Replaces the active promotions; they apply from the next order on.
+     */
+    static synchronized void setPromotions(List<Promotions.Promotion> promotions) {
+        promotionRules = Collections.unmodifiableList(new ArrayList<>(promotions));
+    }
+
+    static synchronized void addPromotion(Promotions.Promotion promotion) {
+        List<Promotions.Promotion> promotions = new ArrayList<>(promotionRules);
+        promotions.add(promotion);
+        promotionRules = Collections.unmodifiableList(promotions);
+    }
+
+    static List<Promotions.Promotion> activePromotions() {
+        return promotionRules;
+    }
+
+    // The active promotions compiled for a snapshot, recompiled after either one changes
+    static Promotions promotions(MenuSnapshot snapshot) {
+        List<Promotions.Promotion> rules = promotionRules;
+        Promotions current = compiledPromotions;
+        if (current == null || current.menu() != snapshot || current.promotions() != rules) {
+            // Racing callers may both compile; either result is correct
+            current = Promotions.compile(rules, snapshot);
+            compiledPromotions = current;
+        }
+        return current;
+    }
 
-        System.out.println("\nTEAS:");
-        teaMap.forEach((tea, price) ->
-                System.out.println("  " + capitalizeWords(tea) + " - $" + String.format("%.2f", price)));
+    private static void applyPromotions(PriceQuote quote, MenuSnapshot snapshot) {
+        if (!quote.isValid() || promotionRules.isEmpty()) {
+            return;
+        }
+        applyPromotions(quote, promotions(snapshot));
+    }
 
-        System.out.println("\nMATERIALS:");
-        materialMap.forEach((material, price) ->
-                System.out.println("  " + capitalizeWords(material) + " - +$" + String.format("%.2f", price)));
+    private static void applyPromotions(PriceQuote quote, Promotions promotions) {
+        promotions.apply(quote, promotions.timeDependent() ? Promotions.currentMinuteOfWeek() : 0);
+    }
 
-        System.out.println("\nSWEET LEVELS:");
-        sweetLevelMap.forEach((level, adjustment) -> {
-            String adj = adjustment == 0 ? "" :
-                    adjustment < 0 ? " (-$" + String.format("%.2f", Math.abs(adjustment)) + ")" :
-                            " (+$" + String.format("%.2f", adjustment) + ")";
-            System.out.println("  " + level + adj);
-        });
+    // ===================== DISPLAY METHODS =====================
 
-        System.out.println("=============================\n");
+    public static void showMenu() {
+        // Rendered once per menu version, sorted by name; edits publish a new snapshot
+        LOG.print(ShopLog.Kind.DISPLAY, menu.renderedMenu());
     }
 
     private static String capitalizeWords(String str) {
-        return Arrays.stream(str.split(" "))
-                .map(word -> word.substring(0, 1).toUpperCase() + word.substring(1))
-                .reduce((a, b) -> a + " " + b)
-                .orElse("");
+        return MenuRenderer.capitalizeWords(str);
     }
 
     // ===================== PRICING CALCULATION =====================
 
-    public static double calculatePriceWithBreakdown(String input) {
-        try {
-            String[] parts = input.toLowerCase().split(",\\s*");
+    // Quiet pricing: no console output and no side effects, errors are reported through the quote's error code.
+    // A quote: stock is not looked at (placeOrder and the breakdown take it)
+    static PriceQuote priceOrder(String input) {
+        MenuSnapshot snapshot = menu;
+        PriceQuote quote = OrderPricer.price(input, snapshot);
+        applyPromotions(quote, snapshot);
+        return quote;
+    }
 
-            System.out.println("\n--- Order: " + input + " ---");
+    // Branch pricing: the branch's own items and prices on top of the shared menu, with the
+    // promotions compiled against the branch's menu
+    static PriceQuote priceOrder(String branch, String input) {
+        BranchMenus.Branch menus = BRANCHES.branch(branch);
+        MenuSnapshot snapshot = menus.menu();
+        PriceQuote quote = OrderPricer.price(input, snapshot);
+        List<Promotions.Promotion> rules = promotionRules;
+        if (quote.isValid() && !rules.isEmpty()) {
+            applyPromotions(quote, menus.promotions(rules, snapshot));
+        }
+        return quote;
+    }
 
-            if (parts.length < 2) {
-                throw new InvalidOrderFormatException();
-            }
+    static BranchMenus.Branch branch(String name) {
+        return BRANCHES.branch(name);
+    }
 
-            String tea = parts[0].trim();
-            if (!teaMap.containsKey(tea)) {
-                throw new InvalidTeaException(tea);
-            }
+    // Cached pricing for repeated orders; returns 0.0 for an invalid order like calculatePriceWithBreakdown.
+    // Menu prices only: promotions depend on the time of the order, so they are not cached
+    static double cachedPrice(String input) {
+        long cents = PRICE_CACHE.totalCents(input, menu);
+        return cents == OrderPriceCache.INVALID ? 0.0 : MenuSnapshot.toDollars(cents);
+    }
 
-            double teaPrice = teaMap.get(tea);
-            double materialCost = 0.0;
-            List<String> materials = new ArrayList<>();
+    // Batch pricing: the whole batch is priced in parallel against one menu snapshot, at menu prices
+    static BatchResult priceBatch(Collection<String> orders) {
+        return BatchPricer.price(orders, menu);
+    }
 
-            System.out.println("Tea: " + capitalizeWords(tea) + " - $" + String.format("%.2f", teaPrice));
+    static BatchResult priceBatch(Stream<String> orders) {
+        return BatchPricer.price(orders, menu);
+    }
 
-            // Handle materials
-            for (int i = 1; i < parts.length - 1; i++) {
-                String material = parts[i].trim();
-                if (!materialMap.containsKey(material)) {
-                    throw new InvalidMaterialException(material);
-                }
-                double price = materialMap.get(material);
-                materialCost += price;
-                materials.add(material);
-                System.out.println("+ " + capitalizeWords(material) + " - $" + String.format("%.2f", price));
-            }
+    // Exception-based API: same validation as priceOrder, but throws the matching TeaShopException.
+    // A quote like priceOrder: it never throws OutOfStockException, placeOrder does
+    public static double calculatePrice(String input) throws TeaShopException {
+        PriceQuote quote = priceOrder(input);
+        throwIfInvalid(quote);
+        return quote.total();
+    }
 
-            // Handle sweetness
-            String sweetness = parts[parts.length - 1].trim();
-            if (!sweetLevelMap.containsKey(sweetness)) {
-                throw new InvalidSweetLevelException(sweetness);
+    /**
+     * Takes an order: prices it (throwing like calculatePrice if it is invalid),
+     * takes its stock (OutOfStockException if any item is short, and then nothing
+     * is taken) and records the sale. Returns the quote.
+     */
+    static PriceQuote placeOrder(String input) throws TeaShopException {
+        MenuSnapshot snapshot = menu;
+        PriceQuote quote = OrderPricer.price(input, snapshot);
+        throwIfInvalid(quote);
+        applyPromotions(quote, snapshot);
+        INVENTORY.reserve(quote).commit();
+        SALES.record(quote, snapshot);
+        return quote;
+    }
+
+    public static double calculatePriceWithBreakdown(String input) {
+        MenuSnapshot snapshot = menu;
+        PriceQuote quote = OrderPricer.price(input, snapshot);
+        applyPromotions(quote, snapshot);
+        // Unlike priceOrder and calculatePrice, the breakdown sells the order: like placeOrder
+        // it takes the stock all-or-nothing, so two breakdowns cannot both sell the last unit
+        String shortage = null;
+        if (quote.isValid()) {
+            try {
+                INVENTORY.reserve(quote).commit();
+                SALES.record(quote, snapshot);
+            } catch (OutOfStockException e) {
+                shortage = e.getItemName();
+            }
+        }
+        // One event per order, so receipts from concurrent orders are not interleaved
+        StringBuilder receipt = new StringBuilder(256);
+        ReceiptRenderer.renderHeader(input, receipt);
+        ReceiptRenderer.renderBreakdown(quote, receipt);
+
+        if (shortage != null) {
+            receipt.append("ERROR: Out of stock: ").append(shortage).append('\n');
+            LOG.print(ShopLog.Kind.ERROR, receipt.toString());
+            return 0.0;
+        }
+        // Invalid orders are reported from the error code; no exception is created
+        if (!quote.isValid()) {
+            receipt.append("ERROR: ").append(quote.errorMessage()).append('\n');
+            switch (quote.error()) {
+                case INVALID_TEA:
+                    appendSuggestions(receipt, quote, "teas", snapshot.teas());
+                    break;
+                case INVALID_MATERIAL:
+                    appendSuggestions(receipt, quote, "materials", snapshot.materials());
+                    break;
+                case INVALID_SWEET_LEVEL:
+                    appendSuggestions(receipt, quote, "sweet levels", snapshot.sweetLevels());
+                    break;
+                default:
+                    break;
             }
+        }
+        LOG.print(quote.isValid() ? ShopLog.Kind.RECEIPT : ShopLog.Kind.ERROR, receipt.toString());
+        return quote.total();
+    }
 
-            double sweetAdjustment = sweetLevelMap.get(sweetness);
-            System.out.println("Sweet Level: " + sweetness);
+    // Nearest names if there are any; small menus are still listed in full otherwise
+    private static void appendSuggestions(StringBuilder receipt, PriceQuote quote, String kind,
+                                          MenuSnapshot.Catalog catalog) {
+        List<String> suggestions = suggestionsFor(quote);
+        if (!suggestions.isEmpty()) {
+            receipt.append("Did you mean: ").append(String.join(", ", suggestions)).append("?\n");
+        } else if (catalog.size() <= LIST_ALL_LIMIT) {
+            receipt.append("Available ").append(kind).append(": ").append(catalog.names()).append('\n');
+        }
+    }
 
-            if (sweetAdjustment < 0) {
-                System.out.println("Discount: -$" + String.format("%.2f", Math.abs(sweetAdjustment)));
-            } else if (sweetAdjustment > 0) {
-                System.out.println("Surcharge: +$" + String.format("%.2f", sweetAdjustment));
-            }
+    // "Did you mean" names for the invalid item of a failed quote
+    static List<String> suggestionsFor(PriceQuote quote) {
+        switch (quote.error()) {
+            case INVALID_TEA:
+                return TEA_SUGGESTIONS.suggest(quote.invalidItem());
+            case INVALID_MATERIAL:
+                return MATERIAL_SUGGESTIONS.suggest(quote.invalidItem());
+            case INVALID_SWEET_LEVEL:
+                return SWEET_LEVEL_SUGGESTIONS.suggest(quote.invalidItem());
+            default:
+                return Collections.emptyList();
+        }
+    }
 
-            double totalPrice = Math.max(teaPrice + materialCost + sweetAdjustment, 0.50);
-            System.out.println("-------------------------");
-            return totalPrice;
-        } catch (TeaShopException e) {
-            System.out.println("ERROR: " + e.getMessage());
-            if (e instanceof InvalidTeaException) {
-                System.out.println("Available teas: " + teaMap.keySet());
-            } else if (e instanceof InvalidMaterialException) {
-                System.out.println("Available materials: " + materialMap.keySet());
-            } else if (e instanceof InvalidSweetLevelException) {
-                System.out.println("Available sweet levels: " + sweetLevelMap.keySet());
-            }
-            return 0.0;
+    // Maps a quote's error code back to the matching TeaShopException
+    static void throwIfInvalid(PriceQuote quote) throws TeaShopException {
+        switch (quote.error()) {
+            case INVALID_ORDER_FORMAT:
+                throw new InvalidOrderFormatException();
+            case INVALID_TEA:
+                throw new InvalidTeaException(quote.invalidItem(), suggestionsFor(quote));
+            case INVALID_MATERIAL:
+                throw new InvalidMaterialException(quote.invalidItem(), suggestionsFor(quote));
+            case INVALID_SWEET_LEVEL:
+                throw new InvalidSweetLevelException(quote.invalidItem(), suggestionsFor(quote));
+            default:
+                break;
         }
     }
 
     // ===================== MAIN DEMO =====================
 
+    // Demo text goes through the log too, so it stays in order with the receipts
+    private static void println(String line) {
+        LOG.println(ShopLog.Kind.DISPLAY, line);
+    }
+
     public static void main(String[] args) {
-        System.out.println("=== MIKE'S TEA SHOP - DYNAMIC SYSTEM ===\n");
+        println("=== MIKE'S TEA SHOP - DYNAMIC SYSTEM ===\n");
 
         // Show initial menu
         showMenu();
 
         // Test original functionality
-        System.out.println("=== ORIGINAL ORDERS ===");
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("black tea, 0%")));
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("green tea, pearl, coconut, 0%")));
-        System.out.println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("oolong tea, coconut, 50%")));
+        println("=== ORIGINAL ORDERS ===");
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("black tea, 0%")));
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("green tea, pearl, coconut, 0%")));
+        println("Price: $" + String.format("%.2f", calculatePriceWithBreakdown("oolong tea, coconut, 50%")));
 
         // Demo: Add new items
-        System.out.println("\n=== ADDING NEW ITEMS ===");
+        println("\n=== ADDING NEW ITEMS ===");
         try {
             addTea("Earl Grey", 3.25);
             addTea("Jasmine Tea", 3.75);
@@ -271,18 +624,18 @@ public class MikeTeaShop2 {
             // This will throw an exception
             addTea("Earl Grey", 3.50);
         } catch (TeaShopException e) {
-            System.out.println("Failed to add item: " + e.getMessage());
+            println("Failed to add item: " + e.getMessage());
         }
 
         showMenu();
 
         // Test new items
-        System.out.println("=== ORDERS WITH NEW ITEMS ===");
+        println("=== ORDERS WITH NEW ITEMS ===");
         calculatePriceWithBreakdown("Earl Grey, Tapioca, Jelly, 75%");
         calculatePriceWithBreakdown("Jasmine Tea, Pearl, Extra Sweet");
 
         // Demo: Remove items
-        System.out.println("\n=== REMOVING ITEMS ===");
+        println("\n=== REMOVING ITEMS ===");
         try {
             removeTea("Earl Grey");
             removeMaterial("Jelly");
@@ -291,16 +644,16 @@ public class MikeTeaShop2 {
             // This will throw an exception
             removeMaterial("Nonexistent Material");
         } catch (TeaShopException e) {
-            System.out.println("Failed to remove item: " + e.getMessage());
+            println("Failed to remove item: " + e.getMessage());
         }
 
         showMenu();
 
         // Test invalid orders
-        System.out.println("\n=== TESTING INVALID ORDERS ===");
+        println("\n=== TESTING INVALID ORDERS ===");
 
 // Test InvalidOrderFormatException cases
-        System.out.println("\n1. Testing Invalid Order Format:");
+        println("\n1. Testing Invalid Order Format:");
         calculatePriceWithBreakdown("");  // Empty input
         calculatePriceWithBreakdown("green tea");  // Missing sweet level
         calculatePriceWithBreakdown(",50%");  // Missing tea
@@ -308,33 +661,33 @@ public class MikeTeaShop2 {
         calculatePriceWithBreakdown("green tea, ,50%");  // Empty material
 
 // Test InvalidTeaException cases
-        System.out.println("\n2. Testing Invalid Tea:");
+        println("\n2. Testing Invalid Tea:");
         calculatePriceWithBreakdown("nonexistent tea,50%");
         calculatePriceWithBreakdown("BLACK TEA WITH TYPO,50%");
         calculatePriceWithBreakdown("12345,50%");
 
 // Test InvalidMaterialException cases
-        System.out.println("\n3. Testing Invalid Materials:");
+        println("\n3. Testing Invalid Materials:");
         calculatePriceWithBreakdown("green tea, fake pearl,50%");
         calculatePriceWithBreakdown("black tea, pearl, invalid topping,50%");
         calculatePriceWithBreakdown("oolong tea, 123material,50%");
 
 // Test InvalidSweetLevelException cases
-        System.out.println("\n4. Testing Invalid Sweet Levels:");
+        println("\n4. Testing Invalid Sweet Levels:");
         calculatePriceWithBreakdown("green tea,20%");  // Doesn't exist
         calculatePriceWithBreakdown("black tea,pearl,150%");  // Too high
         calculatePriceWithBreakdown("oolong tea,coconut,no sugar");  // Wrong format
         calculatePriceWithBreakdown("green tea,pearl,");  // Empty sweet level
 
 // Test edge cases
-        System.out.println("\n5. Testing Edge Cases:");
+        println("\n5. Testing Edge Cases:");
         calculatePriceWithBreakdown("green tea,pearl,50%,extra");  // Extra parameter
         calculatePriceWithBreakdown("  green tea  ,  pearl  ,  50%  ");  // Extra whitespace (should work)
         calculatePriceWithBreakdown("green tea,pearl,pearl,50%");  // Duplicate material (should work)
         calculatePriceWithBreakdown("green tea,50%,pearl");  // Sweet level in wrong position
 
 // Test case sensitivity
-        System.out.println("\n6. Testing Case Sensitivity:");
+        println("\n6. Testing Case Sensitivity:");
         calculatePriceWithBreakdown("GREEN TEA,PEARL,50%");  // All uppercase (should work)
         calculatePriceWithBreakdown("Green Tea,Coconut,30%");  // Mixed case (should work)
     }
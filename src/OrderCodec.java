@@ -0,0 +1,329 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary form of valid orders, built from menu item ids instead of names.
+ *
+ * An order is its tea id, its sweet level id and the multiset of its material ids
+ * (material order does not change the price, so materials are kept sorted). Two
+ * encodings are offered:
+ * - packed: one long, for the common case of a tea id below 4096, a sweet level id
+ *   below 32 and at most 6 materials with ids below 128. Bits from low to high: tea
+ *   (12), sweet level (5), material count (3), then 7 bits per material.
+ * - varint: tea, sweet level, material count, then the sorted material ids as
+ *   deltas from the previous one, each as an unsigned LEB128 varint. Any order
+ *   fits; a typical one takes 3 to 6 bytes against 20 to 40 as text.
+ *
+ * Ids are those of the codec's dictionary: the item names, in id order, of the
+ * menu the orders were encoded against. writeDictionary() stores it once, ahead of
+ * the orders, and read() maps it onto the current menu by name, so encoded orders
+ * outlive menu edits. Pricing works on the encoded form directly, with the current
+ * menu's prices; an order naming an item that has since been removed, or an id
+ * the dictionary does not have, is INVALID (toText throws IllegalArgumentException).
+ */
+final class OrderCodec {
+
+    static final long NOT_PACKABLE = -1;
+    static final long INVALID = OrderPriceCache.INVALID;
+
+    static final int MAX_PACKED_MATERIALS = 6;
+    private static final int TEA_BITS = 12;
+    private static final int SWEET_LEVEL_BITS = 5;
+    private static final int COUNT_BITS = 3;
+    private static final int MATERIAL_BITS = 7;
+    private static final int SWEET_LEVEL_SHIFT = TEA_BITS;
+    private static final int COUNT_SHIFT = SWEET_LEVEL_SHIFT + SWEET_LEVEL_BITS;
+    private static final int MATERIALS_SHIFT = COUNT_SHIFT + COUNT_BITS;
+
+    private static final int DICTIONARY_MAGIC = 0x4f524431; // "ORD1"
+    // Names are written with a 2-byte length
+    static final int MAX_NAME_BYTES = 0xFFFF;
+
+    private final MenuSnapshot menu;
+    // Encoded id -> id in menu (NOT_FOUND if the item is gone); null when they are the same
+    private final int[] teaIds;
+    private final int[] materialIds;
+    private final int[] sweetLevelIds;
+    // Encoded id -> name, for decoding back to text
+    private final String[] teaNames;
+    private final String[] materialNames;
+    private final String[] sweetLevelNames;
+
+    private OrderCodec(MenuSnapshot menu, String[] teaNames, String[] materialNames, String[] sweetLevelNames,
+                       boolean identity) {
+        this.menu = menu;
+        this.teaNames = teaNames;
+        this.materialNames = materialNames;
+        this.sweetLevelNames = sweetLevelNames;
+        this.teaIds = identity ? null : translate(teaNames, menu.teas());
+        this.materialIds = identity ? null : translate(materialNames, menu.materials());
+        this.sweetLevelIds = identity ? null : translate(sweetLevelNames, menu.sweetLevels());
+    }
+
+    /**
+     * A codec whose dictionary is the menu itself: quotes priced against the menu
+     * can be encoded, and encoded orders are priced with it.
+     */
+    static OrderCodec of(MenuSnapshot menu) {
+        return new OrderCodec(menu, names(menu.teas()), names(menu.materials()), names(menu.sweetLevels()), true);
+    }
+
+    /**
+     * The same dictionary, pricing against another (e.g. newer) menu.
+     */
+    OrderCodec against(MenuSnapshot current) {
+        return new OrderCodec(current, teaNames, materialNames, sweetLevelNames, false);
+    }
+
+    // ===================== ENCODING =====================
+
+    /**
+     * Packs a valid quote priced against this codec's menu, or returns NOT_PACKABLE.
+     */
+    long pack(PriceQuote quote) {
+        checkEncodable(quote);
+        int tea = quote.itemId(0);
+        int sweetness = quote.itemId(quote.itemCount() - 1);
+        int count = quote.itemCount() - 2;
+        if (tea >= 1 << TEA_BITS || sweetness >= 1 << SWEET_LEVEL_BITS || count > MAX_PACKED_MATERIALS) {
+            return NOT_PACKABLE;
+        }
+        int[] materials = sortedMaterials(quote);
+        long packed = tea | (long) sweetness << SWEET_LEVEL_SHIFT | (long) count << COUNT_SHIFT;
+        for (int i = 0; i < count; i++) {
+            if (materials[i] >= 1 << MATERIAL_BITS) {
+                return NOT_PACKABLE;
+            }
+            packed |= (long) materials[i] << (MATERIALS_SHIFT + i * MATERIAL_BITS);
+        }
+        return packed;
+    }
+
+    /**
+     * Appends the varint encoding of a valid quote priced against this codec's menu.
+     * Returns false, writing nothing, if the buffer has too little room.
+     */
+    boolean encode(PriceQuote quote, ByteBuffer out) {
+        checkEncodable(quote);
+        int[] materials = sortedMaterials(quote);
+        int start = out.position();
+        try {
+            putVarint(out, quote.itemId(0));
+            putVarint(out, quote.itemId(quote.itemCount() - 1));
+            putVarint(out, materials.length);
+            int previous = 0;
+            for (int material : materials) {
+                putVarint(out, material - previous);
+                previous = material;
+            }
+            return true;
+        } catch (java.nio.BufferOverflowException e) {
+            out.position(start);
+            return false;
+        }
+    }
+
+    /**
+     * Writes the dictionary (the item names in id order) that read() needs to
+     * make sense of orders encoded with this codec. Throws IllegalArgumentException
+     * if a name is longer than MAX_NAME_BYTES in UTF-8.
+     */
+    byte[] writeDictionary() {
+        byte[][][] encoded = new byte[3][][];
+        int size = 4;
+        String[][] dictionary = {teaNames, materialNames, sweetLevelNames};
+        for (int kind = 0; kind < 3; kind++) {
+            encoded[kind] = new byte[dictionary[kind].length][];
+            size += 4;
+            for (int i = 0; i < encoded[kind].length; i++) {
+                byte[] bytes = dictionary[kind][i].getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > MAX_NAME_BYTES) {
+                    throw new IllegalArgumentException("Item name is " + bytes.length
+                            + " bytes; an order dictionary takes at most " + MAX_NAME_BYTES);
+                }
+                encoded[kind][i] = bytes;
+                size += 2 + bytes.length;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(DICTIONARY_MAGIC);
+        for (byte[][] names : encoded) {
+            out.putInt(names.length);
+            for (byte[] bytes : names) {
+                out.putShort((short) bytes.length).put(bytes);
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Reads a dictionary written by writeDictionary() and returns a codec that
+     * decodes orders encoded with it and prices them against {@code current}.
+     */
+    static OrderCodec read(ByteBuffer in, MenuSnapshot current) {
+        if (in.getInt() != DICTIONARY_MAGIC) {
+            throw new IllegalArgumentException("Not an order dictionary");
+        }
+        String[][] names = new String[3][];
+        for (int kind = 0; kind < 3; kind++) {
+            names[kind] = new String[in.getInt()];
+            for (int i = 0; i < names[kind].length; i++) {
+                byte[] bytes = new byte[in.getShort() & 0xFFFF];
+                in.get(bytes);
+                names[kind][i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return new OrderCodec(current, names[0], names[1], names[2], false);
+    }
+
+    // ===================== PRICING =====================
+
+    /**
+     * Total in cents of a packed order, with the same rules as OrderPricer, or INVALID.
+     */
+    long totalCents(long packed) {
+        int tea = map(teaIds, teaNames, (int) (packed & ((1 << TEA_BITS) - 1)));
+        int sweetness = map(sweetLevelIds, sweetLevelNames,
+                (int) (packed >>> SWEET_LEVEL_SHIFT) & ((1 << SWEET_LEVEL_BITS) - 1));
+        int count = (int) (packed >>> COUNT_SHIFT) & ((1 << COUNT_BITS) - 1);
+        if (tea == MenuSnapshot.NOT_FOUND || sweetness == MenuSnapshot.NOT_FOUND) {
+            return INVALID;
+        }
+        long total = menu.teas().cents(tea) + menu.sweetLevels().cents(sweetness);
+        MenuSnapshot.Catalog materials = menu.materials();
+        for (int i = 0; i < count; i++) {
+            int material = map(materialIds, materialNames,
+                    (int) (packed >>> (MATERIALS_SHIFT + i * MATERIAL_BITS)) & ((1 << MATERIAL_BITS) - 1));
+            if (material == MenuSnapshot.NOT_FOUND) {
+                return INVALID;
+            }
+            total += materials.cents(material);
+        }
+        return Math.max(total, OrderPricer.MINIMUM_PRICE_CENTS);
+    }
+
+    /**
+     * Reads one varint-encoded order and returns its total in cents, or INVALID.
+     * The buffer is left after the order either way.
+     */
+    long totalCents(ByteBuffer in) {
+        int tea = map(teaIds, teaNames, getVarint(in));
+        int sweetness = map(sweetLevelIds, sweetLevelNames, getVarint(in));
+        int count = getVarint(in);
+        boolean valid = tea != MenuSnapshot.NOT_FOUND && sweetness != MenuSnapshot.NOT_FOUND;
+        long total = valid ? menu.teas().cents(tea) + menu.sweetLevels().cents(sweetness) : 0;
+        MenuSnapshot.Catalog materials = menu.materials();
+        int material = 0;
+        for (int i = 0; i < count; i++) {
+            material += getVarint(in);
+            int id = map(materialIds, materialNames, material);
+            if (id == MenuSnapshot.NOT_FOUND) {
+                valid = false;
+            } else if (valid) {
+                total += materials.cents(id);
+            }
+        }
+        return valid ? Math.max(total, OrderPricer.MINIMUM_PRICE_CENTS) : INVALID;
+    }
+
+    // ===================== DECODING =====================
+
+    /**
+     * The order as text in the usual format, materials in id order. Names come from
+     * the dictionary, so this works even for items no longer on the menu.
+     */
+    String toText(long packed) {
+        StringBuilder sb = new StringBuilder(name(teaNames, (int) (packed & ((1 << TEA_BITS) - 1)), "tea"));
+        int count = (int) (packed >>> COUNT_SHIFT) & ((1 << COUNT_BITS) - 1);
+        for (int i = 0; i < count; i++) {
+            sb.append(", ").append(name(materialNames,
+                    (int) (packed >>> (MATERIALS_SHIFT + i * MATERIAL_BITS)) & ((1 << MATERIAL_BITS) - 1), "material"));
+        }
+        return sb.append(", ").append(name(sweetLevelNames,
+                (int) (packed >>> SWEET_LEVEL_SHIFT) & ((1 << SWEET_LEVEL_BITS) - 1), "sweet level")).toString();
+    }
+
+    /**
+     * Reads one varint-encoded order as text (see toText(long)).
+     */
+    String toText(ByteBuffer in) {
+        StringBuilder sb = new StringBuilder(name(teaNames, getVarint(in), "tea"));
+        String sweetLevel = name(sweetLevelNames, getVarint(in), "sweet level");
+        int count = getVarint(in);
+        int material = 0;
+        for (int i = 0; i < count; i++) {
+            material += getVarint(in);
+            sb.append(", ").append(name(materialNames, material, "material"));
+        }
+        return sb.append(", ").append(sweetLevel).toString();
+    }
+
+    // ===================== HELPERS =====================
+
+    private void checkEncodable(PriceQuote quote) {
+        if (!quote.isValid()) {
+            throw new IllegalArgumentException("Cannot encode an invalid order: " + quote.errorMessage());
+        }
+        if (teaIds != null) {
+            throw new IllegalStateException("Encode with OrderCodec.of(menu) for the menu the quote was priced against");
+        }
+    }
+
+    private static int[] sortedMaterials(PriceQuote quote) {
+        int[] materials = new int[quote.itemCount() - 2];
+        for (int i = 0; i < materials.length; i++) {
+            materials[i] = quote.itemId(i + 1);
+        }
+        Arrays.sort(materials);
+        return materials;
+    }
+
+    // Encoded id -> menu id, NOT_FOUND for an id outside the dictionary (corrupt or foreign data)
+    private static int map(int[] ids, String[] names, int id) {
+        if (id < 0 || id >= names.length) {
+            return MenuSnapshot.NOT_FOUND;
+        }
+        return ids == null ? id : ids[id];
+    }
+
+    private static String name(String[] names, int id, String kind) {
+        if (id < 0 || id >= names.length) {
+            throw new IllegalArgumentException("Unknown " + kind + " id " + id
+                    + " (dictionary has " + names.length + ")");
+        }
+        return names[id];
+    }
+
+    private static int[] translate(String[] names, MenuSnapshot.Catalog catalog) {
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = catalog.find(names[i]);
+        }
+        return ids;
+    }
+
+    private static String[] names(MenuSnapshot.Catalog catalog) {
+        return catalog.names().toArray(new String[0]);
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,145 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Size and pricing time of an order log as text versus OrderCodec's varint and
+ * packed-long encodings (1 million orders by default). Checks that every encoded
+ * order prices the same as its text, that decoding gives text that prices the same
+ * again, and that a log read back after a menu change is priced with the new menu.
+ *
+ * Run: java OrderCodecBenchmark [orders]
+ */
+public class OrderCodecBenchmark {
+
+    public static void main(String[] args) {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+
+        Map<String, Double> teas = new HashMap<>();
+        Map<String, Double> materials = new HashMap<>();
+        Map<String, Double> sweetLevels = new HashMap<>();
+        String[] teaNames = {"black tea", "green tea", "oolong tea", "jasmine green tea", "earl grey",
+                "matcha latte", "taro milk tea", "thai milk tea", "honeydew green tea", "winter melon tea"};
+        String[] materialNames = {"pearl", "pudding", "grass jelly", "red bean", "aloe vera", "coconut jelly",
+                "cheese foam", "popping boba", "lychee jelly", "oat milk"};
+        for (int i = 0; i < teaNames.length; i++) {
+            teas.put(teaNames[i], 3.0 + i * 0.25);
+        }
+        for (int i = 0; i < materialNames.length; i++) {
+            materials.put(materialNames[i], 0.5 + i % 4 * 0.25);
+        }
+        for (String level : new String[]{"0%", "30%", "50%", "100%"}) {
+            sweetLevels.put(level, level.equals("0%") ? -0.5 : 0.0);
+        }
+        MenuSnapshot menu = MenuSnapshot.compile(teas, materials, sweetLevels);
+        OrderCodec codec = OrderCodec.of(menu);
+
+        // The log as text, and its encodings
+        String[] lines = new String[orders];
+        long textBytes = 0;
+        for (int i = 0; i < orders; i++) {
+            StringBuilder order = new StringBuilder(teaNames[random.nextInt(teaNames.length)]);
+            int toppings = random.nextInt(4);
+            for (int j = 0; j < toppings; j++) {
+                order.append(", ").append(materialNames[random.nextInt(materialNames.length)]);
+            }
+            lines[i] = order.append(", ").append(new String[]{"0%", "30%", "50%", "100%"}[random.nextInt(4)])
+                    .toString();
+            textBytes += lines[i].getBytes(StandardCharsets.UTF_8).length + 1; // newline
+        }
+        ByteBuffer varints = ByteBuffer.allocate(orders * 8);
+        long[] packed = new long[orders];
+        long[] expected = new long[orders];
+        PriceQuote quote = new PriceQuote();
+        for (int i = 0; i < orders; i++) {
+            OrderPricer.price(lines[i], menu, quote);
+            check(quote.isValid(), "generated order is invalid: " + lines[i]);
+            expected[i] = quote.totalCents();
+            check(codec.encode(quote, varints), "varint buffer full");
+            packed[i] = codec.pack(quote);
+            check(packed[i] != OrderCodec.NOT_PACKABLE, "order did not pack: " + lines[i]);
+        }
+        varints.flip();
+
+        checkRoundTrip(codec, menu, lines, expected, varints, packed);
+        checkMenuChange(codec, teas, materials, sweetLevels, lines, varints);
+
+        System.out.println("=== ORDER CODEC BENCHMARK (" + String.format("%,d", orders) + " orders) ===\n");
+        System.out.println(String.format("Size: text %,d bytes (%.1f/order), varint %,d bytes (%.1f/order), "
+                        + "packed %,d bytes (8/order)", textBytes, (double) textBytes / orders, varints.limit(),
+                (double) varints.limit() / orders, orders * 8L));
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            long textTotal = 0;
+            for (String line : lines) {
+                textTotal += OrderPricer.price(line, menu, quote).totalCents();
+            }
+            double textNanos = (double) (System.nanoTime() - start) / orders;
+
+            start = System.nanoTime();
+            long varintTotal = 0;
+            ByteBuffer in = varints.duplicate();
+            while (in.hasRemaining()) {
+                varintTotal += codec.totalCents(in);
+            }
+            double varintNanos = (double) (System.nanoTime() - start) / orders;
+
+            start = System.nanoTime();
+            long packedTotal = 0;
+            for (long order : packed) {
+                packedTotal += codec.totalCents(order);
+            }
+            double packedNanos = (double) (System.nanoTime() - start) / orders;
+
+            check(textTotal == varintTotal && textTotal == packedTotal, "totals differ");
+            if (round == 4) {
+                System.out.println(String.format("Pricing: text %.1f ns/order, varint %.1f ns/order, "
+                        + "packed %.1f ns/order", textNanos, varintNanos, packedNanos));
+            }
+        }
+    }
+
+    private static void checkRoundTrip(OrderCodec codec, MenuSnapshot menu, String[] lines, long[] expected,
+                                       ByteBuffer varints, long[] packed) {
+        ByteBuffer prices = varints.duplicate();
+        ByteBuffer texts = varints.duplicate();
+        for (int i = 0; i < lines.length; i++) {
+            check(codec.totalCents(prices) == expected[i], "varint price differs for " + lines[i]);
+            check(codec.totalCents(packed[i]) == expected[i], "packed price differs for " + lines[i]);
+            String text = codec.toText(texts);
+            check(text.equals(codec.toText(packed[i])), "varint and packed decode differently: " + lines[i]);
+            check(OrderPricer.price(text, menu).totalCents() == expected[i], "decoded text prices differently: "
+                    + lines[i] + " -> " + text);
+        }
+        check(!prices.hasRemaining() && !texts.hasRemaining(), "trailing bytes after the last order");
+    }
+
+    // Reads the log back against a menu where one material is gone and one tea costs more
+    private static void checkMenuChange(OrderCodec codec, Map<String, Double> teas, Map<String, Double> materials,
+                                        Map<String, Double> sweetLevels, String[] lines, ByteBuffer varints) {
+        Map<String, Double> newTeas = new HashMap<>(teas);
+        Map<String, Double> newMaterials = new HashMap<>(materials);
+        newTeas.put("green tea", 9.0);
+        newTeas.put("brown sugar milk tea", 4.5);
+        newMaterials.remove("pudding");
+        MenuSnapshot newMenu = MenuSnapshot.compile(newTeas, newMaterials, sweetLevels);
+
+        OrderCodec reader = OrderCodec.read(ByteBuffer.wrap(codec.writeDictionary()), newMenu);
+        ByteBuffer in = varints.duplicate();
+        for (String line : lines) {
+            PriceQuote quote = OrderPricer.price(line, newMenu);
+            long want = quote.isValid() ? quote.totalCents() : OrderCodec.INVALID;
+            check(reader.totalCents(in) == want, "price after the menu change differs for " + line);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic order streams built from a menu snapshot.
+ *
+ * A Mix sets the shape of the stream: how skewed tea popularity is (Zipf
+ * exponent over the teas in a shuffled order), how many materials an order
+ * has, what percentage of orders fail with each error code, and how often
+ * valid orders get extra spacing or odd letter case. Materials and sweet
+ * levels are picked uniformly. The same menu, mix and seed always give the
+ * same orders, so runs of different builds can be compared.
+ */
+final class OrderLoadGenerator {
+
+    /**
+     * Knobs of a generated stream. Percentages are of all orders (0-100).
+     */
+    static final class Mix {
+        final double zipfExponent;
+        // Weight of orders with 0, 1, 2, ... materials
+        final double[] materialCountWeights;
+        final double invalidFormatPercent;
+        final double invalidTeaPercent;
+        final double invalidMaterialPercent;
+        final double invalidSweetLevelPercent;
+        // Share of valid orders with extra blanks around items, and with changed letter case
+        final double spacingNoisePercent;
+        final double caseNoisePercent;
+
+        Mix(double zipfExponent, double[] materialCountWeights, double invalidFormatPercent,
+            double invalidTeaPercent, double invalidMaterialPercent, double invalidSweetLevelPercent,
+            double spacingNoisePercent, double caseNoisePercent) {
+            if (zipfExponent < 0 || materialCountWeights.length == 0) {
+                throw new IllegalArgumentException("Bad mix: zipf must be >= 0 and material weights non-empty");
+            }
+            double weights = 0;
+            for (double weight : materialCountWeights) {
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Negative material count weight");
+                }
+                weights += weight;
+            }
+            double invalid = invalidFormatPercent + invalidTeaPercent + invalidMaterialPercent
+                    + invalidSweetLevelPercent;
+            if (weights == 0 || invalid < 0 || invalid > 100 || Math.min(Math.min(invalidFormatPercent,
+                    invalidTeaPercent), Math.min(invalidMaterialPercent, invalidSweetLevelPercent)) < 0) {
+                throw new IllegalArgumentException("Bad mix: invalid percentages must be 0-100 in total");
+            }
+            this.zipfExponent = zipfExponent;
+            this.materialCountWeights = materialCountWeights.clone();
+            this.invalidFormatPercent = invalidFormatPercent;
+            this.invalidTeaPercent = invalidTeaPercent;
+            this.invalidMaterialPercent = invalidMaterialPercent;
+            this.invalidSweetLevelPercent = invalidSweetLevelPercent;
+            this.spacingNoisePercent = spacingNoisePercent;
+            this.caseNoisePercent = caseNoisePercent;
+        }
+
+        /**
+         * A mix from "key=value" pairs separated by ';', on top of the defaults:
+         * {@code zipf=1.1; materials=35,35,20,10; format=1; tea=2; material=2; sweet=1;
+         * spacing=10; case=10}. materials lists the weights of 0, 1, 2, ... materials;
+         * format, tea, material and sweet are the invalid percentages.
+         */
+        static Mix parse(String text) {
+            double zipf = 1.1;
+            double[] materials = {35, 35, 20, 10};
+            double[] invalid = {1, 2, 2, 1};
+            double spacing = 10;
+            double letterCase = 10;
+            for (String part : text.split(";")) {
+                if (part.isBlank()) {
+                    continue;
+                }
+                int equals = part.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected key=value: " + part.trim());
+                }
+                String key = part.substring(0, equals).trim().toLowerCase(Locale.ROOT);
+                String value = part.substring(equals + 1).trim();
+                switch (key) {
+                    case "zipf":
+                        zipf = Double.parseDouble(value);
+                        break;
+                    case "materials":
+                        materials = Arrays.stream(value.split(",")).mapToDouble(w -> Double.parseDouble(w.trim()))
+                                .toArray();
+                        break;
+                    case "format":
+                        invalid[0] = Double.parseDouble(value);
+                        break;
+                    case "tea":
+                        invalid[1] = Double.parseDouble(value);
+                        break;
+                    case "material":
+                        invalid[2] = Double.parseDouble(value);
+                        break;
+                    case "sweet":
+                        invalid[3] = Double.parseDouble(value);
+                        break;
+                    case "spacing":
+                        spacing = Double.parseDouble(value);
+                        break;
+                    case "case":
+                        letterCase = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown mix key: " + key);
+                }
+            }
+            return new Mix(zipf, materials, invalid[0], invalid[1], invalid[2], invalid[3], spacing, letterCase);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder weights = new StringBuilder();
+            for (double weight : materialCountWeights) {
+                weights.append(weights.length() == 0 ? "" : ",").append(format(weight));
+            }
+            return "zipf=" + format(zipfExponent) + "; materials=" + weights + "; format="
+                    + format(invalidFormatPercent) + "; tea=" + format(invalidTeaPercent) + "; material="
+                    + format(invalidMaterialPercent) + "; sweet=" + format(invalidSweetLevelPercent)
+                    + "; spacing=" + format(spacingNoisePercent) + "; case=" + format(caseNoisePercent);
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+        }
+    }
+
+    private final MenuSnapshot menu;
+    private final Mix mix;
+    private final Random random;
+    // teaRanks[r] is the tea id of popularity rank r; cumulative Zipf weights by rank
+    private final int[] teaRanks;
+    private final double[] teaCumulative;
+    private final double[] materialCountCumulative;
+
+    OrderLoadGenerator(MenuSnapshot menu, Mix mix, long seed) {
+        if (menu.teas().size() == 0 || menu.sweetLevels().size() == 0) {
+            throw new IllegalArgumentException("The menu needs at least one tea and one sweet level");
+        }
+        this.menu = menu;
+        this.mix = mix;
+        this.random = new Random(seed);
+
+        int teas = menu.teas().size();
+        teaRanks = new int[teas];
+        for (int i = 0; i < teas; i++) {
+            teaRanks[i] = i;
+        }
+        for (int i = teas - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = teaRanks[i];
+            teaRanks[i] = teaRanks[j];
+            teaRanks[j] = swap;
+        }
+        teaCumulative = new double[teas];
+        double total = 0;
+        for (int rank = 0; rank < teas; rank++) {
+            total += 1 / Math.pow(rank + 1, mix.zipfExponent);
+            teaCumulative[rank] = total;
+        }
+        // Without materials on the menu every order has none
+        double[] weights = menu.materials().size() == 0 ? new double[]{1} : mix.materialCountWeights;
+        materialCountCumulative = new double[weights.length];
+        total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            materialCountCumulative[i] = total;
+        }
+    }
+
+    Mix mix() {
+        return mix;
+    }
+
+    /**
+     * The tea of the given popularity rank (0 is the most ordered).
+     */
+    String teaOfRank(int rank) {
+        return menu.teas().name(teaRanks[rank]);
+    }
+
+    String[] generate(int count) {
+        String[] orders = new String[count];
+        for (int i = 0; i < count; i++) {
+            orders[i] = next();
+        }
+        return orders;
+    }
+
+    String next() {
+        double roll = random.nextDouble() * 100;
+        PriceQuote.ErrorCode error = PriceQuote.ErrorCode.NONE;
+        if ((roll -= mix.invalidFormatPercent) < 0) {
+            error = PriceQuote.ErrorCode.INVALID_ORDER_FORMAT;
+        } else if ((roll -= mix.invalidTeaPercent) < 0) {
+            error = PriceQuote.ErrorCode.INVALID_TEA;
+        } else if ((roll -= mix.invalidMaterialPercent) < 0) {
+            error = PriceQuote.ErrorCode.INVALID_MATERIAL;
+        } else if (roll - mix.invalidSweetLevelPercent < 0) {
+            error = PriceQuote.ErrorCode.INVALID_SWEET_LEVEL;
+        }
+
+        String tea = teaOfRank(pick(teaCumulative));
+        int materialCount = pick(materialCountCumulative);
+        String[] items = new String[materialCount + 2];
+        items[0] = error == PriceQuote.ErrorCode.INVALID_TEA ? notOnMenu(tea, menu.teas()) : tea;
+        for (int i = 1; i <= materialCount; i++) {
+            items[i] = menu.materials().name(random.nextInt(menu.materials().size()));
+        }
+        items[items.length - 1] = menu.sweetLevels().name(random.nextInt(menu.sweetLevels().size()));
+
+        switch (error) {
+            case INVALID_ORDER_FORMAT:
+                return badFormat(items);
+            case INVALID_MATERIAL:
+                if (materialCount > 0) {
+                    int at = 1 + random.nextInt(materialCount);
+                    items[at] = notOnMenu(items[at], menu.materials());
+                } else {
+                    String near = menu.materials().size() > 0
+                            ? menu.materials().name(random.nextInt(menu.materials().size())) : "topping";
+                    items = new String[]{items[0], notOnMenu(near, menu.materials()), items[1]};
+                }
+                break;
+            case INVALID_SWEET_LEVEL:
+                items[items.length - 1] = notOnMenu(random.nextBoolean() ? "150%" : "no sugar", menu.sweetLevels());
+                break;
+            default:
+                break;
+        }
+        return join(items, error == PriceQuote.ErrorCode.NONE);
+    }
+
+    // Index of the first cumulative weight above a uniform draw
+    private int pick(double[] cumulative) {
+        double target = random.nextDouble() * cumulative[cumulative.length - 1];
+        int index = Arrays.binarySearch(cumulative, target);
+        index = index < 0 ? -index - 1 : index + 1;
+        return Math.min(index, cumulative.length - 1);
+    }
+
+    // A near miss of a real name, as a customer might type it
+    private String notOnMenu(String name, MenuSnapshot.Catalog catalog) {
+        String candidate;
+        switch (random.nextInt(3)) {
+            case 0:
+                candidate = name + name.charAt(name.length() - 1);
+                break;
+            case 1:
+                candidate = name.length() > 1 ? name.substring(0, name.length() - 1) : name + "x";
+                break;
+            default:
+                candidate = "fake " + name;
+                break;
+        }
+        while (catalog.find(candidate) != MenuSnapshot.NOT_FOUND) {
+            candidate = candidate + "x";
+        }
+        return candidate;
+    }
+
+    // Shapes the parser rejects as a whole (an empty material or a missing tea is reported as that item instead)
+    private String badFormat(String[] items) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return "";
+            case 1:
+                // No sweet level
+                return items[0];
+            default:
+                return items[0] + ",";
+        }
+    }
+
+    private String join(String[] items, boolean noise) {
+        boolean spacing = noise && random.nextDouble() * 100 < mix.spacingNoisePercent;
+        boolean letterCase = noise && random.nextDouble() * 100 < mix.caseNoisePercent;
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0) {
+                order.append(spacing ? "  ,  " : random.nextInt(4) == 0 ? "," : ", ");
+            }
+            order.append(letterCase ? changeCase(items[i]) : items[i]);
+        }
+        return spacing ? "  " + order + "  " : order.toString();
+    }
+
+    private String changeCase(String item) {
+        switch (random.nextInt(3)) {
+            case 0:
+                return item.toUpperCase(Locale.ROOT);
+            case 1:
+                return MenuRenderer.capitalizeWords(item);
+            default:
+                char[] chars = item.toCharArray();
+                for (int i = 0; i < chars.length; i += 2) {
+                    chars[i] = Character.toUpperCase(chars[i]);
+                }
+                return new String(chars);
+        }
+    }
+}
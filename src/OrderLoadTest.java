@@ -0,0 +1,408 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load harness for the pricing entry points of both shops.
+ *
+ * Orders come from an OrderLoadGenerator mix over the shop's current menu, or
+ * from a recorded order log (one order per line, optionally after an arrival time
+ * in millis and a tab, as BaristaScheduler.readLog takes).
+ * Each entry point is driven from 1, 2, 4, ... up to maxThreads threads in turn
+ * while an editor thread keeps changing the same shop's menu (editsPerSecond),
+ * so every level also pays for menu version changes.
+ *
+ * With a target rate the threads together start orders on a fixed schedule and
+ * latency is measured from the scheduled start, so time spent behind schedule
+ * counts (no coordinated omission); with rate 0 every thread prices as fast as it
+ * can. In replay mode the orders of a log with arrival times start at their recorded
+ * offsets instead, keeping the log's bursts and lulls, with the gaps scaled so the
+ * mean rate is the target rate (or as recorded, with rate 0); the log then repeats,
+ * one mean gap after its last order. Each level reports throughput, latency percentiles and the bytes allocated
+ * per order by the pricing threads. Every entry point is run with PricingMetrics
+ * off and then on, so the cost of the metrics shows. The output is one fixed-width
+ * table per entry point and setting, so runs of two builds can be put side by side.
+ *
+ * Run: java OrderLoadTest [secondsPerLevel] [maxThreads] [ordersPerSecond] [mix | order log]
+ *          [entry,entry...] [editsPerSecond] [fixed | replay]
+ * e.g. java OrderLoadTest 3 8 0 "zipf=1.3; materials=20,40,40; tea=5; case=30"
+ */
+public class OrderLoadTest {
+
+    static final int GENERATED_ORDERS = 1 << 16;
+    static final long SEED = 42;
+
+    /**
+     * One pricing entry point. price() returns something derived from the result
+     * so the call cannot be optimized away.
+     */
+    private interface Call {
+        long price(String order);
+    }
+
+    private static final class Entry {
+        final String name;
+        final boolean secondShop;
+        final Call call;
+
+        Entry(String name, boolean secondShop, Call call) {
+            this.name = name;
+            this.secondShop = secondShop;
+            this.call = call;
+        }
+    }
+
+    private static final Map<String, Entry> ENTRIES = new LinkedHashMap<>();
+
+    static {
+        add(new Entry("MikeTeaShop.priceOrder", false, order -> MikeTeaShop.priceOrder(order).totalCents()));
+        add(new Entry("MikeTeaShop.cachedPrice", false, order -> (long) (MikeTeaShop.cachedPrice(order) * 100)));
+        add(new Entry("MikeTeaShop.calculatePriceWithBreakdown", false,
+                order -> (long) (MikeTeaShop.calculatePriceWithBreakdown(order) * 100)));
+        add(new Entry("MikeTeaShop2.priceOrder", true, order -> MikeTeaShop2.priceOrder(order).totalCents()));
+        add(new Entry("MikeTeaShop2.calculatePrice", true, order -> {
+            try {
+                return (long) (MikeTeaShop2.calculatePrice(order) * 100);
+            } catch (TeaShopException e) {
+                return e.getMessage().length();
+            }
+        }));
+        add(new Entry("MikeTeaShop2.cachedPrice", true, order -> (long) (MikeTeaShop2.cachedPrice(order) * 100)));
+        add(new Entry("MikeTeaShop2.calculatePriceWithBreakdown", true,
+                order -> (long) (MikeTeaShop2.calculatePriceWithBreakdown(order) * 100)));
+    }
+
+    private static void add(Entry entry) {
+        ENTRIES.put(entry.name, entry);
+    }
+
+    static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        double rate = args.length > 2 ? Double.parseDouble(args[2]) : 0;
+        String source = args.length > 3 ? args[3] : "";
+        String entryNames = args.length > 4 ? args[4]
+                : "MikeTeaShop.priceOrder,MikeTeaShop2.priceOrder,MikeTeaShop2.calculatePrice";
+        double editsPerSecond = args.length > 5 ? Double.parseDouble(args[5]) : 100;
+        boolean replay = args.length > 6 && args[6].equals("replay");
+        if (args.length > 6 && !replay && !args[6].equals("fixed")) {
+            throw new IllegalArgumentException("Arrivals must be fixed or replay, not " + args[6]);
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (String name : entryNames.split(",")) {
+            Entry entry = ENTRIES.get(name.trim());
+            if (entry == null) {
+                throw new IllegalArgumentException("Unknown entry point " + name.trim() + "; one of " + ENTRIES.keySet());
+            }
+            entries.add(entry);
+        }
+        List<Integer> levels = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            levels.add(threads);
+        }
+        levels.add(maxThreads);
+
+        PrintStream console = System.out;
+        // The shops print receipts and every menu change; keep them off the console while running
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        boolean metricsWere = PricingMetrics.enabled();
+        try {
+            Path log = source.isEmpty() || source.contains("=") ? null : Path.of(source);
+            String[] firstShopOrders = orders(log, source, MikeTeaShop.menu);
+            String[] secondShopOrders = orders(log, source, MikeTeaShop2.menu);
+            if (replay && log == null) {
+                throw new IllegalArgumentException("Replay needs an order log with arrival times");
+            }
+            long[] schedule = replay ? schedule(log, rate) : null;
+
+            console.println("=== ORDER LOAD TEST ===\n");
+            console.println("Orders: " + (log != null ? log + " (" + firstShopOrders.length + " orders)"
+                    : GENERATED_ORDERS + " generated, mix " + OrderLoadGenerator.Mix.parse(source)));
+            console.println(describe(secondShopOrders, MikeTeaShop2.menu));
+            String target = rate > 0 ? String.format("%,.0f orders/s", rate) : "as fast as possible";
+            if (replay) {
+                target = String.format("recorded arrivals at %,.0f orders/s",
+                        firstShopOrders.length * 1e9 / schedule[firstShopOrders.length]);
+            }
+            console.println(String.format("%s s per level, target %s, %.0f menu edits/s%n", seconds, target,
+                    editsPerSecond));
+
+            for (Entry entry : entries) {
+                String[] orders = entry.secondShop ? secondShopOrders : firstShopOrders;
+                for (boolean metrics : new boolean[]{false, true}) {
+                    PricingMetrics.setEnabled(metrics);
+                    // Warm-up, not reported
+                    run(entry, orders, maxThreads, 1, rate, schedule, editsPerSecond);
+                    console.println(entry.name + (metrics ? ", metrics on" : ", metrics off"));
+                    console.println("  threads     orders/s   p50 us   p99 us  p99.9 us    max us   B/order  alloc MB/s"
+                            + "   edits");
+                    for (int threads : levels) {
+                        console.println(run(entry, orders, threads, seconds, rate, schedule, editsPerSecond));
+                    }
+                    console.println();
+                }
+            }
+        } finally {
+            PricingMetrics.setEnabled(metricsWere);
+            MikeTeaShop.LOG.flush();
+            MikeTeaShop2.LOG.flush();
+            System.setOut(console);
+        }
+    }
+
+    private static String[] orders(Path log, String mix, MenuSnapshot menu) throws IOException {
+        if (log == null) {
+            return new OrderLoadGenerator(menu, OrderLoadGenerator.Mix.parse(mix), SEED).generate(GENERATED_ORDERS);
+        }
+        List<String> orders = new ArrayList<>();
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            orders.add(tab > 0 ? line.substring(tab + 1) : line);
+        }
+        if (orders.isEmpty()) {
+            throw new IllegalArgumentException("No orders in " + log);
+        }
+        return orders.toArray(new String[0]);
+    }
+
+    /**
+     * Start offsets in nanos of the log's orders, from their arrival times, scaled so
+     * the mean rate is ordersPerSecond (unscaled for 0). One more entry holds the
+     * length of one pass: the recorded span plus one mean gap.
+     */
+    private static long[] schedule(Path log, double ordersPerSecond) throws IOException {
+        List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+        long[] arrivals = new long[lines.size()];
+        for (int i = 0; i < arrivals.length; i++) {
+            String line = lines.get(i);
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                throw new IllegalArgumentException("Replay needs an arrival time on every line; line " + (i + 1)
+                        + " has none");
+            }
+            arrivals[i] = Long.parseLong(line.substring(0, tab).trim());
+            if (i > 0 && arrivals[i] < arrivals[i - 1]) {
+                throw new IllegalArgumentException("Arrival times go back in time at line " + (i + 1));
+            }
+        }
+        int n = arrivals.length;
+        long span = arrivals[n - 1] - arrivals[0];
+        if (n < 2 || span == 0) {
+            throw new IllegalArgumentException("Replay needs at least two distinct arrival times");
+        }
+        double passMillis = span + (double) span / (n - 1);
+        double nanosPerMilli = ordersPerSecond > 0 ? n / ordersPerSecond * 1e9 / passMillis : 1e6;
+        long[] schedule = new long[n + 1];
+        for (int i = 0; i < n; i++) {
+            schedule[i] = (long) ((arrivals[i] - arrivals[0]) * nanosPerMilli);
+        }
+        schedule[n] = (long) (passMillis * nanosPerMilli);
+        return schedule;
+    }
+
+    // What the stream actually contains, priced once against the menu before the run
+    private static String describe(String[] orders, MenuSnapshot menu) {
+        Map<PriceQuote.ErrorCode, Integer> errors = new EnumMap<>(PriceQuote.ErrorCode.class);
+        Map<String, Integer> teas = new LinkedHashMap<>();
+        long materials = 0;
+        PriceQuote quote = new PriceQuote();
+        for (String order : orders) {
+            OrderPricer.price(order, menu, quote);
+            errors.merge(quote.error(), 1, Integer::sum);
+            if (quote.isValid()) {
+                teas.merge(quote.itemName(0), 1, Integer::sum);
+                materials += quote.itemCount() - 2;
+            }
+        }
+        int valid = errors.getOrDefault(PriceQuote.ErrorCode.NONE, 0);
+        StringBuilder text = new StringBuilder(String.format("Stream: %.1f%% valid", 100.0 * valid / orders.length));
+        for (PriceQuote.ErrorCode error : PriceQuote.ErrorCode.values()) {
+            if (error != PriceQuote.ErrorCode.NONE) {
+                text.append(String.format(", %s %.1f%%", error.name().toLowerCase(),
+                        100.0 * errors.getOrDefault(error, 0) / orders.length));
+            }
+        }
+        if (valid > 0) {
+            Map.Entry<String, Integer> top = teas.entrySet().stream().max(Map.Entry.comparingByValue()).get();
+            text.append(String.format("; %.2f materials per valid order, %d teas ordered, top tea %s %.1f%%",
+                    (double) materials / valid, teas.size(), top.getKey(), 100.0 * top.getValue() / valid));
+        }
+        return text.toString();
+    }
+
+    private static String run(Entry entry, String[] orders, int threads, int seconds, double rate, long[] schedule,
+                              double editsPerSecond) throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        PricingMetrics.LatencyHistogram[] latencies = new PricingMetrics.LatencyHistogram[threads];
+        long[] priced = new long[threads];
+        long[] allocated = new long[threads];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        long[] start = new long[1];
+        long durationNanos = TimeUnit.SECONDS.toNanos(seconds);
+        // Per-thread gap between scheduled orders; threads are offset so starts are spread evenly
+        long interval = rate > 0 && schedule == null ? (long) (threads * 1e9 / rate) : 0;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            latencies[t] = new PricingMetrics.LatencyHistogram();
+            Thread worker = new Thread(() -> {
+                PricingMetrics.LatencyHistogram latency = latencies[id];
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long deadline = start[0] + durationNanos;
+                long bytesBefore = threadBean.getCurrentThreadAllocatedBytes();
+                long acc = 0;
+                long count = 0;
+                long scheduled = start[0] + (interval * id) / threads;
+                for (long i = id; ; i += threads) {
+                    long begin;
+                    if (schedule != null) {
+                        // Thread id takes orders id, id + threads, ...; each pass of the log starts one pass later
+                        begin = waitUntil(start[0] + (i / orders.length) * schedule[orders.length]
+                                + schedule[(int) (i % orders.length)]);
+                    } else if (interval > 0) {
+                        begin = waitUntil(scheduled);
+                        scheduled += interval;
+                    } else {
+                        begin = System.nanoTime();
+                    }
+                    if (begin >= deadline) {
+                        break;
+                    }
+                    acc += entry.call.price(orders[(int) (i % orders.length)]);
+                    latency.record(System.nanoTime() - begin);
+                    count++;
+                }
+                allocated[id] = threadBean.getCurrentThreadAllocatedBytes() - bytesBefore;
+                priced[id] = count;
+                sink += acc;
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        AtomicBoolean stop = new AtomicBoolean();
+        long[] edits = new long[1];
+        Thread editor = new Thread(() -> edits[0] = edit(entry.secondShop, editsPerSecond, stop), "menu-editor");
+        ready.await();
+        start[0] = System.nanoTime();
+        editor.start();
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - start[0]) / 1e9;
+        stop.set(true);
+        editor.join();
+        undoEdits(entry.secondShop);
+
+        PricingMetrics.HistogramSnapshot all = latencies[0].snapshot();
+        long orderCount = priced[0];
+        long bytes = allocated[0];
+        for (int t = 1; t < threads; t++) {
+            all = all.plus(latencies[t].snapshot());
+            orderCount += priced[t];
+            bytes += allocated[t];
+        }
+        return String.format("  %7d %,12.0f %8.2f %8.2f %9.2f %9.1f %9.1f %11.1f %7d", threads,
+                orderCount / elapsed, all.percentile(0.50) / 1e3, all.percentile(0.99) / 1e3,
+                all.percentile(0.999) / 1e3, all.max() / 1e3, (double) bytes / Math.max(orderCount, 1),
+                bytes / elapsed / 1e6, edits[0]);
+    }
+
+    // Parks, then spins, until the given nanoTime; returns it as the order's start
+    private static long waitUntil(long scheduled) {
+        long now;
+        while ((now = System.nanoTime()) < scheduled) {
+            long wait = scheduled - now;
+            if (wait > 50_000) {
+                LockSupport.parkNanos(wait - 20_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        return scheduled;
+    }
+
+    // Reprices a tea of its own and adds or removes a material of its own, at the given rate;
+    // every edit publishes a new menu version. Returns the number of edits.
+    private static long edit(boolean secondShop, double editsPerSecond, AtomicBoolean stop) {
+        if (editsPerSecond <= 0) {
+            return 0;
+        }
+        long interval = (long) (1e9 / editsPerSecond);
+        long next = System.nanoTime();
+        long edits = 0;
+        long teaEdits = 0;
+        while (!stop.get()) {
+            boolean material = edits % 8 == 7;
+            // Alternates so every tea edit is a price change
+            double price = material ? 0 : 3.0 + (teaEdits++ % 2) * 0.25;
+            try {
+                if (secondShop) {
+                    if (!material) {
+                        MikeTeaShop2.addTea("load test tea", price);
+                    } else if (MikeTeaShop2.menu.materials().find("load test topping") == MenuSnapshot.NOT_FOUND) {
+                        MikeTeaShop2.addMaterial("load test topping", 0.5);
+                    } else {
+                        MikeTeaShop2.removeMaterial("load test topping");
+                    }
+                } else if (!material) {
+                    MikeTeaShop.addTea("load test tea", price);
+                } else if (!MikeTeaShop.removeMaterial("load test topping")) {
+                    MikeTeaShop.addMaterial("load test topping", 0.5);
+                }
+            } catch (TeaShopException e) {
+                throw new IllegalStateException(e);
+            }
+            edits++;
+            next += interval;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return edits;
+    }
+
+    private static void undoEdits(boolean secondShop) {
+        try {
+            if (secondShop) {
+                if (MikeTeaShop2.menu.teas().find("load test tea") != MenuSnapshot.NOT_FOUND) {
+                    MikeTeaShop2.removeTea("load test tea");
+                }
+                if (MikeTeaShop2.menu.materials().find("load test topping") != MenuSnapshot.NOT_FOUND) {
+                    MikeTeaShop2.removeMaterial("load test topping");
+                }
+            } else {
+                MikeTeaShop.removeTea("load test tea");
+                MikeTeaShop.removeMaterial("load test topping");
+            }
+        } catch (TeaShopException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
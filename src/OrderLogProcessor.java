@@ -0,0 +1,223 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Streaming processor for newline-delimited order logs (one order per line, in
+ * the format calculatePriceWithBreakdown takes).
+ *
+ * The file is cut into line-aligned chunks which are memory-mapped and priced
+ * in parallel against one MenuSnapshot, using the same OrderPricer rules as
+ * MikeTeaShop2. Lines are read straight out of the mapping through a reusable
+ * CharSequence view; only lines containing non-ASCII bytes are decoded into a
+ * String. Heap use does not grow with file size: each chunk keeps per-tea counters
+ * and at most MAX_MALFORMED_DETAILS malformed line details.
+ */
+final class OrderLogProcessor {
+
+    static final long DEFAULT_CHUNK_SIZE = 32L << 20;
+    static final int MAX_MALFORMED_DETAILS = 1000;
+
+    private OrderLogProcessor() {
+    }
+
+    static OrderLogReport process(Path file, MenuSnapshot menu) throws IOException {
+        return process(file, menu, DEFAULT_CHUNK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    static OrderLogReport process(Path file, MenuSnapshot menu, long chunkSize, ForkJoinPool pool)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] boundaries = lineAlignedBoundaries(channel, chunkSize);
+            List<ChunkTask> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                tasks.add(new ChunkTask(channel, menu, boundaries[i], boundaries[i + 1]));
+            }
+
+            OrderLogReport report = new OrderLogReport(menu);
+            try {
+                pool.invoke(new RecursiveTask<Void>() {
+                    @Override
+                    protected Void compute() {
+                        invokeAll(tasks);
+                        return null;
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            // Merge in file order so malformed lines come out sorted by offset
+            for (ChunkTask task : tasks) {
+                report.merge(task.join());
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Start offsets of the chunks plus the file size. Every boundary but the first
+     * and last sits right after a '\n', so no line is split between chunks.
+     */
+    static long[] lineAlignedBoundaries(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+
+        long position = chunkSize;
+        while (position < size) {
+            long lineStart = nextLineStart(channel, position, probe);
+            if (lineStart >= size) {
+                break;
+            }
+            if (lineStart > boundaries.get(boundaries.size() - 1)) {
+                boundaries.add(lineStart);
+            }
+            position = lineStart + chunkSize;
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    // First position after the next '\n' at or after position - 1
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long scan = position - 1;
+        while (true) {
+            probe.clear();
+            int read = channel.read(probe, scan);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return scan + i + 1;
+                }
+            }
+            scan += read;
+        }
+    }
+
+    private static final class ChunkTask extends RecursiveTask<OrderLogReport> {
+        private final FileChannel channel;
+        private final MenuSnapshot menu;
+        private final long start;
+        private final long end;
+
+        ChunkTask(FileChannel channel, MenuSnapshot menu, long start, long end) {
+            this.channel = channel;
+            this.menu = menu;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected OrderLogReport compute() {
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            OrderLogReport report = new OrderLogReport(menu);
+            PriceQuote quote = new PriceQuote();
+            LineView line = new LineView(buffer);
+            int limit = buffer.limit();
+            int lineStart = 0;
+            boolean ascii = true;
+
+            for (int i = 0; i <= limit; i++) {
+                byte b = i < limit ? buffer.get(i) : (byte) '\n';
+                if (b != '\n') {
+                    ascii &= b >= 0;
+                    continue;
+                }
+                if (i > lineStart) {
+                    line.bind(lineStart, i);
+                    // Multi-byte UTF-8 has to be decoded before it can be case-folded
+                    OrderPricer.price(ascii ? line : line.toString(), menu, quote);
+                    report.record(start + lineStart, quote);
+                }
+                lineStart = i + 1;
+                ascii = true;
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Reusable view of one line of a mapped chunk. Bytes are read as chars, which
+     * is exact for ASCII; toString() decodes UTF-8.
+     */
+    static final class LineView implements CharSequence {
+        private final ByteBuffer buffer;
+        private int start;
+        private int end;
+
+        LineView(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void bind(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        @Override
+        public String toString() {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    // ===================== COMMAND LINE =====================
+
+    /**
+     * Usage: java OrderLogProcessor <order-log> [chunkMegabytes]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java OrderLogProcessor <order-log> [chunkMegabytes]");
+            return;
+        }
+        long chunkSize = args.length > 1 ? Long.parseLong(args[1]) << 20 : DEFAULT_CHUNK_SIZE;
+
+        long started = System.nanoTime();
+        OrderLogReport report = process(Paths.get(args[0]), MikeTeaShop2.menu, chunkSize, ForkJoinPool.commonPool());
+        long elapsed = System.nanoTime() - started;
+
+        report.print(System.out);
+        System.out.println(String.format("Processed in %.1f ms", elapsed / 1e6));
+    }
+}
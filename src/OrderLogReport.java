@@ -0,0 +1,132 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Totals of an OrderLogProcessor run: revenue, per-tea counts and malformed
+ * lines with their byte offsets. Detail is kept for the first
+ * MAX_MALFORMED_DETAILS malformed lines only; all of them are counted.
+ */
+final class OrderLogReport {
+
+    /**
+     * One rejected line: where it starts in the file and why it was rejected.
+     */
+    static final class MalformedLine {
+        final long offset;
+        final PriceQuote.ErrorCode error;
+        final String invalidItem;
+
+        MalformedLine(long offset, PriceQuote.ErrorCode error, String invalidItem) {
+            this.offset = offset;
+            this.error = error;
+            this.invalidItem = invalidItem;
+        }
+
+        @Override
+        public String toString() {
+            return "offset " + offset + ": " + error.exceptionType().getSimpleName()
+                    + (invalidItem != null ? " (" + invalidItem + ")" : "");
+        }
+    }
+
+    private final MenuSnapshot menu;
+    private final long[] teaCounts;
+    private final long[] errorCounts = new long[PriceQuote.ErrorCode.values().length];
+    private final List<MalformedLine> malformed = new ArrayList<>();
+    private long revenueCents;
+    private long lineCount;
+
+    OrderLogReport(MenuSnapshot menu) {
+        this.menu = menu;
+        this.teaCounts = new long[menu.teas().size()];
+    }
+
+    void record(long offset, PriceQuote quote) {
+        lineCount++;
+        errorCounts[quote.error().ordinal()]++;
+        if (quote.isValid()) {
+            revenueCents += quote.totalCents();
+            teaCounts[quote.itemId(0)]++;
+        } else if (malformed.size() < OrderLogProcessor.MAX_MALFORMED_DETAILS) {
+            malformed.add(new MalformedLine(offset, quote.error(), quote.invalidItem()));
+        }
+    }
+
+    void merge(OrderLogReport other) {
+        lineCount += other.lineCount;
+        revenueCents += other.revenueCents;
+        for (int i = 0; i < teaCounts.length; i++) {
+            teaCounts[i] += other.teaCounts[i];
+        }
+        for (int i = 0; i < errorCounts.length; i++) {
+            errorCounts[i] += other.errorCounts[i];
+        }
+        for (MalformedLine line : other.malformed) {
+            if (malformed.size() >= OrderLogProcessor.MAX_MALFORMED_DETAILS) {
+                break;
+            }
+            malformed.add(line);
+        }
+    }
+
+    long lineCount() {
+        return lineCount;
+    }
+
+    long revenueCents() {
+        return revenueCents;
+    }
+
+    long validCount() {
+        return errorCounts[PriceQuote.ErrorCode.NONE.ordinal()];
+    }
+
+    long malformedCount() {
+        return lineCount - validCount();
+    }
+
+    long errorCount(PriceQuote.ErrorCode error) {
+        return errorCounts[error.ordinal()];
+    }
+
+    /**
+     * Valid orders per tea, in menu id order.
+     */
+    Map<String, Long> teaCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int id = 0; id < teaCounts.length; id++) {
+            counts.put(menu.teas().name(id), teaCounts[id]);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * The first malformed lines, sorted by offset.
+     */
+    List<MalformedLine> malformedLines() {
+        return Collections.unmodifiableList(malformed);
+    }
+
+    void print(PrintStream out) {
+        out.println("Lines: " + lineCount + ", valid: " + validCount() + ", malformed: " + malformedCount());
+        out.println("Revenue: $" + String.format("%.2f", MenuSnapshot.toDollars(revenueCents)));
+        out.println("Orders per tea:");
+        teaCounts().forEach((tea, count) -> out.println("  " + tea + ": " + count));
+        for (PriceQuote.ErrorCode error : PriceQuote.ErrorCode.values()) {
+            if (error != PriceQuote.ErrorCode.NONE) {
+                out.println(error.exceptionType().getSimpleName() + ": " + errorCounts[error.ordinal()]);
+            }
+        }
+        if (!malformed.isEmpty()) {
+            out.println("Malformed lines" + (malformedCount() > malformed.size()
+                    ? " (first " + malformed.size() + ")" : "") + ":");
+            for (MalformedLine line : malformed) {
+                out.println("  " + line);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of order totals keyed by a canonical form of the order.
+ *
+ * The canonical form is what the pricer itself sees: lowercased, trimmed parts,
+ * with the materials sorted so that "green tea, pearl, coconut, 0%" and
+ * "GREEN TEA,coconut,pearl,0%" share an entry (materials are a multiset).
+ * Whitespace inside a name is kept, since "green  tea" is not a valid tea.
+ *
+ * Entries are stamped with the version of the MenuSnapshot they were priced
+ * against. Every menu edit publishes a new version, so stale entries are
+ * detected on lookup and repriced instead of clearing the whole cache.
+ * Only valid orders are cached: for an invalid order the reported item depends
+ * on material order, which the canonical key throws away.
+ *
+ * The cache is split into segments, each an access-ordered LinkedHashMap evicting
+ * its least recently used entry, guarded by its own lock.
+ */
+final class OrderPriceCache {
+
+    static final long INVALID = -1;
+
+    private static final int SEGMENTS = 16;
+
+    private static final class Entry {
+        final long menuVersion;
+        final long cents;
+
+        Entry(long menuVersion, long cents) {
+            this.menuVersion = menuVersion;
+            this.cents = cents;
+        }
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Per-thread scratch space for building canonical keys
+    private final ThreadLocal<KeyBuilder> keyBuilders = ThreadLocal.withInitial(KeyBuilder::new);
+
+    OrderPriceCache(int capacity) {
+        this.capacity = capacity;
+        int perSegment = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Returns the order total in cents, or INVALID if the order does not price.
+     */
+    long totalCents(CharSequence order, MenuSnapshot menu) {
+        String key = keyBuilders.get().canonicalKey(order);
+        if (key == null) {
+            misses.increment();
+            PriceQuote quote = OrderPricer.price(order, menu);
+            return quote.isValid() ? quote.totalCents() : INVALID;
+        }
+
+        Segment segment = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+        }
+        if (entry != null && entry.menuVersion == menu.version()) {
+            hits.increment();
+            return entry.cents;
+        }
+        misses.increment();
+        if (entry != null) {
+            staleMisses.increment();
+        }
+
+        PriceQuote quote = OrderPricer.price(key, menu);
+        if (!quote.isValid()) {
+            return INVALID;
+        }
+        synchronized (segment) {
+            segment.put(key, new Entry(menu.version(), quote.totalCents()));
+        }
+        return quote.totalCents();
+    }
+
+    // ===================== STATISTICS =====================
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Misses caused by an entry priced against an older menu version.
+     */
+    long staleMisses() {
+        return staleMisses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        long hits = hits();
+        long lookups = hits + misses();
+        return "OrderPriceCache[size=" + size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses()
+                + " (stale " + staleMisses() + "), evictions=" + evictions()
+                + String.format(", hit rate=%.1f%%]", lookups == 0 ? 0.0 : hits * 100.0 / lookups);
+    }
+
+    private final class Segment extends LinkedHashMap<String, Entry> {
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maxEntries) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds "tea,material,...,sweetness" with the materials sorted.
+     */
+    private static final class KeyBuilder {
+        private final OrderTokenizer tokenizer = new OrderTokenizer();
+        private final StringBuilder sb = new StringBuilder();
+        private int[] order = new int[8];
+
+        // Returns null when the order has no safe canonical form (too few or empty parts)
+        String canonicalKey(CharSequence input) {
+            OrderTokenizer parts = tokenizer.reset(input);
+            int size = parts.size();
+            if (size < 2) {
+                return null;
+            }
+            for (int i = 0; i < size; i++) {
+                if (parts.token(i).length() == 0) {
+                    return null;
+                }
+            }
+
+            int materialCount = size - 2;
+            if (order.length < materialCount) {
+                order = new int[Math.max(materialCount, order.length * 2)];
+            }
+            // Insertion sort: orders only have a handful of materials
+            for (int i = 0; i < materialCount; i++) {
+                int token = i + 1;
+                int j = i;
+                while (j > 0 && CharSequence.compare(parts.token(order[j - 1]), parts.token(token)) > 0) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = token;
+            }
+
+            sb.setLength(0);
+            sb.append(parts.token(0));
+            for (int i = 0; i < materialCount; i++) {
+                sb.append(',').append(parts.token(order[i]));
+            }
+            sb.append(',').append(parts.token(size - 1));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Pure pricing core shared by MikeTeaShop and MikeTeaShop2.
+ *
+ * Parses and prices an order against a compiled MenuSnapshot without printing
+ * or formatting anything. Valid orders are priced with one hash probe per token
+ * and integer cent arithmetic; console output is a separate stage, see ReceiptRenderer.
+ */
+final class OrderPricer {
+
+    static final long MINIMUM_PRICE_CENTS = 50;
+
+    // Reusable order tokenizer, one per thread
+    private static final ThreadLocal<OrderTokenizer> ORDER_TOKENIZER = ThreadLocal.withInitial(OrderTokenizer::new);
+
+    private OrderPricer() {
+    }
+
+    static PriceQuote price(CharSequence input, MenuSnapshot menu) {
+        return price(input, menu, new PriceQuote());
+    }
+
+    /**
+     * Prices an order into a caller-supplied quote, which is cleared first.
+     * Stage timings and outcomes go to PricingMetrics when it is enabled.
+     */
+    static PriceQuote price(CharSequence input, MenuSnapshot menu, PriceQuote quote) {
+        boolean metrics = PricingMetrics.enabled();
+        long mark = metrics ? System.nanoTime() : 0;
+
+        quote.clear();
+        OrderTokenizer parts = ORDER_TOKENIZER.get().reset(input);
+        if (metrics) {
+            mark = PricingMetrics.lap(PricingMetrics.Stage.PARSE, mark);
+        }
+
+        if (parts.size() < 2) {
+            quote.fail(PriceQuote.ErrorCode.INVALID_ORDER_FORMAT, null);
+            return finish(quote, metrics);
+        }
+
+        MenuSnapshot.Catalog teas = menu.teas();
+        OrderTokenizer.Token teaToken = parts.token(0);
+        int tea = teas.find(teaToken);
+        if (metrics) {
+            mark = PricingMetrics.lap(PricingMetrics.Stage.TEA_LOOKUP, mark);
+        }
+        if (tea == MenuSnapshot.NOT_FOUND) {
+            quote.fail(PriceQuote.ErrorCode.INVALID_TEA, teaToken.toString());
+            return finish(quote, metrics);
+        }
+        long total = teas.cents(tea);
+        quote.addItem(PriceQuote.ItemKind.TEA, tea, teas.name(tea), teas.cents(tea));
+
+        MenuSnapshot.Catalog materials = menu.materials();
+        for (int i = 1; i < parts.size() - 1; i++) {
+            OrderTokenizer.Token materialToken = parts.token(i);
+            int material = materials.find(materialToken);
+            if (material == MenuSnapshot.NOT_FOUND) {
+                if (metrics) {
+                    PricingMetrics.lap(PricingMetrics.Stage.MATERIALS, mark);
+                }
+                quote.fail(PriceQuote.ErrorCode.INVALID_MATERIAL, materialToken.toString());
+                return finish(quote, metrics);
+            }
+            total += materials.cents(material);
+            quote.addItem(PriceQuote.ItemKind.MATERIAL, material, materials.name(material), materials.cents(material));
+        }
+        if (metrics) {
+            mark = PricingMetrics.lap(PricingMetrics.Stage.MATERIALS, mark);
+        }
+
+        MenuSnapshot.Catalog sweetLevels = menu.sweetLevels();
+        OrderTokenizer.Token sweetToken = parts.token(parts.size() - 1);
+        int sweetness = sweetLevels.find(sweetToken);
+        if (metrics) {
+            PricingMetrics.lap(PricingMetrics.Stage.SWEETNESS, mark);
+        }
+        if (sweetness == MenuSnapshot.NOT_FOUND) {
+            quote.fail(PriceQuote.ErrorCode.INVALID_SWEET_LEVEL, sweetToken.toString());
+            return finish(quote, metrics);
+        }
+        total += sweetLevels.cents(sweetness);
+        quote.addItem(PriceQuote.ItemKind.SWEET_LEVEL, sweetness, sweetLevels.name(sweetness),
+                sweetLevels.cents(sweetness));
+
+        quote.succeed(Math.max(total, MINIMUM_PRICE_CENTS));
+        return finish(quote, metrics);
+    }
+
+    private static PriceQuote finish(PriceQuote quote, boolean metrics) {
+        if (metrics) {
+            PricingMetrics.recordOutcome(quote.error());
+            if (quote.isValid()) {
+                PricingMetrics.recordItems(quote);
+            }
+        }
+        return quote;
+    }
+}
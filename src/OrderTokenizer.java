@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Single-pass order tokenizer.
+ *
+ * Accepts exactly what input.toLowerCase().split(",\\s*") followed by trim()
+ * on every part accepts, but walks the input once and hands out reusable
+ * token views instead of a lowercased copy, an array and a substring per part.
+ * Case is folded lazily when a token is read.
+ *
+ * Instances are reused between orders and are not thread-safe; keep one per thread.
+ */
+final class OrderTokenizer {
+
+    private CharSequence input;
+    private boolean asciiFold;
+    private Token[] tokens = new Token[8];
+    private int count;
+
+    OrderTokenizer() {
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = new Token();
+        }
+    }
+
+    /**
+     * Tokenizes a new order, invalidating the token views of the previous one.
+     */
+    OrderTokenizer reset(CharSequence input) {
+        this.input = input;
+        this.asciiFold = foldsAsciiOnly(Locale.getDefault());
+        this.count = 0;
+
+        int length = input.length();
+        int partStart = 0;
+        int lastNonEmpty = -1;
+        boolean matched = false;
+
+        for (int i = 0; i <= length; i++) {
+            if (i < length && input.charAt(i) != ',') {
+                continue;
+            }
+            if (i > partStart) {
+                lastNonEmpty = count;
+            }
+            addPart(partStart, i);
+            if (i == length) {
+                break;
+            }
+
+            // The split delimiter is the comma plus any regex whitespace after it
+            matched = true;
+            int next = i + 1;
+            while (next < length && isRegexWhitespace(input.charAt(next))) {
+                next++;
+            }
+            partStart = next;
+            i = next - 1;
+        }
+
+        // String.split drops trailing empty parts, but only if the delimiter matched at all
+        if (matched) {
+            count = lastNonEmpty + 1;
+        }
+        return this;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the lowercased, trimmed view of part {@code index}. The view stays
+     * valid until the next call to {@link #reset(CharSequence)}.
+     */
+    Token token(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Token " + index + " of " + count);
+        }
+        return tokens[index];
+    }
+
+    private void addPart(int start, int end) {
+        // Same rule as String.trim(): strip everything up to and including ' '
+        while (start < end && input.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        if (count == tokens.length) {
+            grow();
+        }
+        tokens[count].bind(start, end);
+        count++;
+    }
+
+    private void grow() {
+        int newLength = tokens.length * 2;
+        Token[] grown = Arrays.copyOf(tokens, newLength);
+        for (int i = tokens.length; i < newLength; i++) {
+            grown[i] = new Token();
+        }
+        tokens = grown;
+    }
+
+    // Same set as the regex \s class
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Turkish and Azerbaijani lowercase 'I' to a dotless i, so ASCII folding is not enough there
+    private static boolean foldsAsciiOnly(Locale locale) {
+        String language = locale.getLanguage();
+        return !"tr".equals(language) && !"az".equals(language);
+    }
+
+    private static char toLowerAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Reusable, lowercased view of one order part.
+     */
+    final class Token implements CharSequence {
+        private int start;
+        private int end;
+        private boolean plain;
+        private String folded;
+
+        private void bind(int start, int end) {
+            this.start = start;
+            this.end = end;
+            this.folded = null;
+            this.plain = asciiFold;
+            for (int i = start; plain && i < end; i++) {
+                if (input.charAt(i) >= 0x80) {
+                    plain = false;
+                }
+            }
+        }
+
+        // Non-ASCII parts can change length when lowercased, so they fall back to String
+        private String slow() {
+            if (folded == null) {
+                folded = input.subSequence(start, end).toString().toLowerCase();
+            }
+            return folded;
+        }
+
+        @Override
+        public int length() {
+            return plain ? end - start : slow().length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (!plain) {
+                return slow().charAt(index);
+            }
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+            }
+            return toLowerAscii(input.charAt(start + index));
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().substring(from, to);
+        }
+
+        /**
+         * Same value as {@code toString().hashCode()}, without materializing the string.
+         */
+        int foldedHashCode() {
+            if (!plain) {
+                return slow().hashCode();
+            }
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + toLowerAscii(input.charAt(i));
+            }
+            return h;
+        }
+
+        /**
+         * Compares this token to an already lowercased menu key.
+         */
+        boolean contentEquals(String key) {
+            if (!plain) {
+                return slow().equals(key);
+            }
+            int length = end - start;
+            if (key.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key.charAt(i) != toLowerAscii(input.charAt(start + i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            if (!plain) {
+                return slow();
+            }
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = toLowerAscii(input.charAt(start + i));
+            }
+            return new String(chars);
+        }
+    }
+}
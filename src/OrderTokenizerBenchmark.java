@@ -0,0 +1,131 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Microbenchmark: OrderTokenizer vs. the old toLowerCase().split(",\\s*") + trim() path.
+ *
+ * First checks that both parsers produce the same parts for the demo orders in
+ * MikeTeaShop2.main and a batch of random orders, then times both and reports
+ * ns/order and bytes allocated per order.
+ *
+ * Run: java OrderTokenizerBenchmark [iterations]
+ */
+public class OrderTokenizerBenchmark {
+
+    static final String[] ORDERS = {
+            "black tea, 0%",
+            "green tea, pearl, coconut, 0%",
+            "oolong tea, coconut, 50%",
+            "Earl Grey, Tapioca, Jelly, 75%",
+            "Jasmine Tea, Pearl, Extra Sweet",
+            "",
+            "green tea",
+            ",50%",
+            "green tea,",
+            "green tea, ,50%",
+            "nonexistent tea,50%",
+            "BLACK TEA WITH TYPO,50%",
+            "green tea,pearl,",
+            "green tea,pearl,50%,extra",
+            "  green tea  ,  pearl  ,  50%  ",
+            "green tea,pearl,pearl,50%",
+            "GREEN TEA,PEARL,50%",
+            "Green Tea,Coconut,30%"
+    };
+
+    // Valid orders only, used for the timing loop
+    static final String[] VALID_ORDERS = {
+            "black tea, 0%",
+            "green tea, pearl, coconut, 0%",
+            "oolong tea, coconut, 50%",
+            "  green tea  ,  pearl  ,  50%  ",
+            "green tea,pearl,pearl,50%",
+            "GREEN TEA,PEARL,50%",
+            "Green Tea,Coconut,30%"
+    };
+
+    static volatile int sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        System.out.println("=== ORDER TOKENIZER BENCHMARK ===\n");
+        int mismatches = 0;
+        for (String order : ORDERS) {
+            mismatches += verify(order);
+        }
+        Random random = new Random(42);
+        String alphabet = "aB ,\t\u0001%\u00e9\u0130";
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            mismatches += verify(sb.toString());
+        }
+        System.out.println("Equivalence check: " + (mismatches == 0 ? "OK" : mismatches + " mismatches"));
+
+        // Warm up both paths before measuring
+        runSplit(iterations / 4);
+        runTokenizer(iterations / 4);
+
+        report("split + trim", iterations, () -> runSplit(iterations));
+        report("OrderTokenizer", iterations, () -> runTokenizer(iterations));
+    }
+
+    private static int verify(String order) {
+        String[] expected = order.toLowerCase().split(",\\s*");
+        OrderTokenizer tokenizer = new OrderTokenizer().reset(order);
+        boolean same = expected.length == tokenizer.size();
+        for (int i = 0; same && i < expected.length; i++) {
+            String part = expected[i].trim();
+            OrderTokenizer.Token token = tokenizer.token(i);
+            same = part.equals(token.toString())
+                    && token.contentEquals(part)
+                    && token.foldedHashCode() == part.hashCode();
+        }
+        if (!same) {
+            System.out.println("MISMATCH for \"" + order + "\"");
+        }
+        return same ? 0 : 1;
+    }
+
+    private static void runSplit(int iterations) {
+        int acc = 0;
+        for (int i = 0; i < iterations; i++) {
+            String[] parts = VALID_ORDERS[i % VALID_ORDERS.length].toLowerCase().split(",\\s*");
+            for (String part : parts) {
+                acc += part.trim().hashCode();
+            }
+        }
+        sink = acc;
+    }
+
+    private static void runTokenizer(int iterations) {
+        OrderTokenizer tokenizer = new OrderTokenizer();
+        int acc = 0;
+        for (int i = 0; i < iterations; i++) {
+            OrderTokenizer parts = tokenizer.reset(VALID_ORDERS[i % VALID_ORDERS.length]);
+            for (int j = 0; j < parts.size(); j++) {
+                acc += parts.token(j).foldedHashCode();
+            }
+        }
+        sink = acc;
+    }
+
+    private static void report(String name, int iterations, Runnable body) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        body.run();
+        long elapsed = System.nanoTime() - start;
+        long bytes = threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+        System.out.println(String.format("%-16s %8.1f ns/order %8.1f bytes/order",
+                name, (double) elapsed / iterations, (double) bytes / iterations));
+    }
+}
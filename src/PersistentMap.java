@@ -0,0 +1,252 @@
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash map from String keys, updated by path copying (a hash array
+ * mapped trie).
+ *
+ * put() and remove() return a new map that shares every node off the changed
+ * path with the old one, so an update copies at most about log32(size) small
+ * nodes and old versions stay valid for whoever still holds them. Lookups follow
+ * one node per 5 bits of the hash. Used for the shared base menu and the branch
+ * overlays in BranchMenus.
+ */
+final class PersistentMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentMap<?> EMPTY = new PersistentMap<>(new Node(0, new Object[0]), 0);
+
+    // Bitmap node: slot i of the 32-way branch is present if bit i is set. Entries
+    // are stored compactly as [key, value] pairs where the key is a String, or as
+    // [null, child node] pairs.
+    private static final class Node {
+        final int bitmap;
+        final Object[] array;
+
+        Node(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+    }
+
+    // Keys whose full hashes are equal; only found below the last trie level
+    private static final class Collision {
+        final Object[] array; // key, value, key, value...
+
+        Collision(Object[] array) {
+            this.array = array;
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(String key) {
+        int hash = key.hashCode();
+        Object node = root;
+        for (int shift = 0; ; shift += BITS) {
+            if (node instanceof Collision) {
+                Object[] array = ((Collision) node).array;
+                for (int i = 0; i < array.length; i += 2) {
+                    if (key.equals(array[i])) {
+                        return (V) array[i + 1];
+                    }
+                }
+                return null;
+            }
+            Node n = (Node) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((n.bitmap & bit) == 0) {
+                return null;
+            }
+            int index = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+            Object k = n.array[index];
+            if (k == null) {
+                node = n.array[index + 1];
+            } else {
+                return key.equals(k) ? (V) n.array[index + 1] : null;
+            }
+        }
+    }
+
+    boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    PersistentMap<V> put(String key, V value) {
+        if (value == null) {
+            throw new NullPointerException("null value for " + key);
+        }
+        boolean[] added = new boolean[1];
+        Node updated = (Node) put(root, 0, key, key.hashCode(), value, added);
+        return updated == root ? this : new PersistentMap<>(updated, size + (added[0] ? 1 : 0));
+    }
+
+    PersistentMap<V> remove(String key) {
+        Object updated = remove(root, 0, key, key.hashCode());
+        if (updated == root) {
+            return this;
+        }
+        return new PersistentMap<>(updated == null ? empty().root : (Node) updated, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<String, ? super V> action) {
+        forEach(root, (BiConsumer<String, Object>) action);
+    }
+
+    // ===================== TRIE OPERATIONS =====================
+
+    private static Object put(Object node, int shift, String key, int hash, Object value, boolean[] added) {
+        if (node instanceof Collision) {
+            Object[] array = ((Collision) node).array;
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array[i + 1].equals(value)) {
+                        return node;
+                    }
+                    Object[] copy = array.clone();
+                    copy[i + 1] = value;
+                    return new Collision(copy);
+                }
+            }
+            added[0] = true;
+            Object[] copy = Arrays.copyOf(array, array.length + 2);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            return new Collision(copy);
+        }
+
+        Node n = (Node) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+        if ((n.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] array = new Object[n.array.length + 2];
+            System.arraycopy(n.array, 0, array, 0, index);
+            array[index] = key;
+            array[index + 1] = value;
+            System.arraycopy(n.array, index, array, index + 2, n.array.length - index);
+            return new Node(n.bitmap | bit, array);
+        }
+
+        Object k = n.array[index];
+        Object v = n.array[index + 1];
+        Object child;
+        if (k == null) {
+            child = put(v, shift + BITS, key, hash, value, added);
+            if (child == v) {
+                return node;
+            }
+        } else if (key.equals(k)) {
+            if (v.equals(value)) {
+                return node;
+            }
+            child = null;
+        } else {
+            added[0] = true;
+            child = pair(shift + BITS, (String) k, v, key, hash, value);
+        }
+        Object[] array = n.array.clone();
+        if (child == null) {
+            array[index + 1] = value;
+        } else {
+            array[index] = null;
+            array[index + 1] = child;
+        }
+        return new Node(n.bitmap, array);
+    }
+
+    // Subtree holding two entries that collided at the level above
+    private static Object pair(int shift, String key1, Object value1, String key2, int hash2, Object value2) {
+        int hash1 = key1.hashCode();
+        if (shift >= 32 || hash1 == hash2) {
+            return new Collision(new Object[]{key1, value1, key2, value2});
+        }
+        int slot1 = (hash1 >>> shift) & MASK;
+        int slot2 = (hash2 >>> shift) & MASK;
+        if (slot1 == slot2) {
+            return new Node(1 << slot1, new Object[]{null, pair(shift + BITS, key1, value1, key2, hash2, value2)});
+        }
+        return slot1 < slot2
+                ? new Node((1 << slot1) | (1 << slot2), new Object[]{key1, value1, key2, value2})
+                : new Node((1 << slot1) | (1 << slot2), new Object[]{key2, value2, key1, value1});
+    }
+
+    // Returns the node unchanged if the key is absent, or null if the node becomes empty
+    private static Object remove(Object node, int shift, String key, int hash) {
+        if (node instanceof Collision) {
+            Object[] array = ((Collision) node).array;
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array.length == 2) {
+                        return null;
+                    }
+                    Object[] copy = new Object[array.length - 2];
+                    System.arraycopy(array, 0, copy, 0, i);
+                    System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+                    return new Collision(copy);
+                }
+            }
+            return node;
+        }
+
+        Node n = (Node) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((n.bitmap & bit) == 0) {
+            return node;
+        }
+        int index = 2 * Integer.bitCount(n.bitmap & (bit - 1));
+        Object k = n.array[index];
+        Object v = n.array[index + 1];
+        if (k == null) {
+            Object child = remove(v, shift + BITS, key, hash);
+            if (child == v) {
+                return node;
+            }
+            if (child != null) {
+                Object[] array = n.array.clone();
+                array[index + 1] = child;
+                return new Node(n.bitmap, array);
+            }
+        } else if (!key.equals(k)) {
+            return node;
+        }
+        // Drop the slot
+        if (n.bitmap == bit) {
+            return null;
+        }
+        Object[] array = new Object[n.array.length - 2];
+        System.arraycopy(n.array, 0, array, 0, index);
+        System.arraycopy(n.array, index + 2, array, index, n.array.length - index - 2);
+        return new Node(n.bitmap & ~bit, array);
+    }
+
+    private static void forEach(Object node, BiConsumer<String, Object> action) {
+        Object[] array = node instanceof Collision ? ((Collision) node).array : ((Node) node).array;
+        for (int i = 0; i < array.length; i += 2) {
+            if (array[i] == null) {
+                forEach(array[i + 1], action);
+            } else {
+                action.accept((String) array[i], array[i + 1]);
+            }
+        }
+    }
+}
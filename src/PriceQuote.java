@@ -0,0 +1,215 @@
+import java.util.Arrays;
+
+/**
+ * Structured result of pricing one order: total, line items and an error code.
+ * Amounts are integer cents.
+ *
+ * Line items are kept in the order they were priced (tea, materials, sweet level).
+ * Promotion discounts (see Promotions) are separate lines, already taken off the total.
+ * When pricing fails, the items priced before the failure are kept so that a
+ * receipt can show how far the order got. A quote can be reused between orders
+ * through {@link OrderPricer#price(CharSequence, MenuSnapshot, PriceQuote)}.
+ */
+final class PriceQuote {
+
+    enum ErrorCode {
+        NONE(null),
+        INVALID_ORDER_FORMAT(InvalidOrderFormatException.class),
+        INVALID_TEA(InvalidTeaException.class),
+        INVALID_MATERIAL(InvalidMaterialException.class),
+        INVALID_SWEET_LEVEL(InvalidSweetLevelException.class);
+
+        private final Class<? extends TeaShopException> exceptionType;
+
+        ErrorCode(Class<? extends TeaShopException> exceptionType) {
+            this.exceptionType = exceptionType;
+        }
+
+        /**
+         * The MikeTeaShop2 exception this error corresponds to, or null for NONE.
+         */
+        Class<? extends TeaShopException> exceptionType() {
+            return exceptionType;
+        }
+
+        /**
+         * The message of the matching exception, built without creating it.
+         */
+        String message(String invalidItem) {
+            switch (this) {
+                case INVALID_ORDER_FORMAT:
+                    return "Invalid order format. Need at least tea and sweetness level.";
+                case INVALID_TEA:
+                    return "Invalid tea: " + invalidItem;
+                case INVALID_MATERIAL:
+                    return "Invalid material: " + invalidItem;
+                case INVALID_SWEET_LEVEL:
+                    return "Invalid sweetness level: " + invalidItem;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    enum ItemKind {
+        TEA,
+        MATERIAL,
+        SWEET_LEVEL
+    }
+
+    private ItemKind[] kinds = new ItemKind[8];
+    private String[] names = new String[8];
+    private int[] ids = new int[8];
+    private long[] cents = new long[8];
+    private int itemCount;
+
+    private String[] discountNames = new String[2];
+    private long[] discountCents = new long[2];
+    private int discountCount;
+
+    private long totalCents;
+    private ErrorCode error = ErrorCode.NONE;
+    private String invalidItem;
+
+    void clear() {
+        Arrays.fill(names, 0, itemCount, null);
+        itemCount = 0;
+        Arrays.fill(discountNames, 0, discountCount, null);
+        discountCount = 0;
+        totalCents = 0;
+        error = ErrorCode.NONE;
+        invalidItem = null;
+    }
+
+    void addItem(ItemKind kind, int id, String name, long amount) {
+        if (itemCount == names.length) {
+            int newLength = names.length * 2;
+            kinds = Arrays.copyOf(kinds, newLength);
+            names = Arrays.copyOf(names, newLength);
+            ids = Arrays.copyOf(ids, newLength);
+            cents = Arrays.copyOf(cents, newLength);
+        }
+        kinds[itemCount] = kind;
+        names[itemCount] = name;
+        ids[itemCount] = id;
+        cents[itemCount] = amount;
+        itemCount++;
+    }
+
+    void addDiscount(String name, long amount) {
+        if (discountCount == discountNames.length) {
+            discountNames = Arrays.copyOf(discountNames, discountCount * 2);
+            discountCents = Arrays.copyOf(discountCents, discountCount * 2);
+        }
+        discountNames[discountCount] = name;
+        discountCents[discountCount] = amount;
+        discountCount++;
+    }
+
+    void succeed(long totalCents) {
+        this.totalCents = totalCents;
+    }
+
+    void fail(ErrorCode error, String invalidItem) {
+        this.error = error;
+        this.invalidItem = invalidItem;
+        this.totalCents = 0;
+    }
+
+    // ===================== ACCESSORS =====================
+
+    boolean isValid() {
+        return error == ErrorCode.NONE;
+    }
+
+    /**
+     * Order total, or 0.0 when the order is invalid (same as calculatePriceWithBreakdown).
+     */
+    double total() {
+        return MenuSnapshot.toDollars(totalCents);
+    }
+
+    long totalCents() {
+        return totalCents;
+    }
+
+    ErrorCode error() {
+        return error;
+    }
+
+    /**
+     * The lowercased name that failed validation, or null for a valid order or a format error.
+     */
+    String invalidItem() {
+        return invalidItem;
+    }
+
+    /**
+     * Same text as the MikeTeaShop2 exception for this error, or null for a valid order.
+     */
+    String errorMessage() {
+        return error.message(invalidItem);
+    }
+
+    int itemCount() {
+        return itemCount;
+    }
+
+    ItemKind itemKind(int index) {
+        checkIndex(index);
+        return kinds[index];
+    }
+
+    String itemName(int index) {
+        checkIndex(index);
+        return names[index];
+    }
+
+    /**
+     * Menu id of the item in the snapshot the order was priced against.
+     */
+    int itemId(int index) {
+        checkIndex(index);
+        return ids[index];
+    }
+
+    /**
+     * Price of a tea or material, or the adjustment of a sweet level, in cents.
+     */
+    long itemCents(int index) {
+        checkIndex(index);
+        return cents[index];
+    }
+
+    int discountCount() {
+        return discountCount;
+    }
+
+    /**
+     * Name of the promotion behind a discount line.
+     */
+    String discountName(int index) {
+        checkDiscountIndex(index);
+        return discountNames[index];
+    }
+
+    /**
+     * Amount a promotion took off the total, in cents (positive).
+     */
+    long discountCents(int index) {
+        checkDiscountIndex(index);
+        return discountCents[index];
+    }
+
+    private void checkDiscountIndex(int index) {
+        if (index < 0 || index >= discountCount) {
+            throw new IndexOutOfBoundsException("Discount " + index + " of " + discountCount);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= itemCount) {
+            throw new IndexOutOfBoundsException("Line item " + index + " of " + itemCount);
+        }
+    }
+}
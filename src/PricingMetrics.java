@@ -0,0 +1,321 @@
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics for the pricing pipeline: per-stage latency histograms, order counts
+ * by outcome and items priced per tea and per material.
+ *
+ * Recording allocates nothing once an item name has been seen: latencies go into
+ * fixed log-linear buckets and counters are LongAdders. Histograms are striped by
+ * thread and merged when read, so pricing threads on different cores rarely write
+ * the same cache line. The whole thing is behind a
+ * volatile switch, off by default ({@code -Dteashop.metrics=true} or setEnabled(true)):
+ * timing every stage costs about as much as pricing a short order, so it is for
+ * profiling runs. When it is off, the pipeline does not even read the clock.
+ */
+final class PricingMetrics {
+
+    enum Stage {
+        PARSE,
+        TEA_LOOKUP,
+        MATERIALS,
+        SWEETNESS,
+        RENDER
+    }
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("teashop.metrics", "false"));
+
+    private static final LatencyHistogram[] STAGES = new LatencyHistogram[Stage.values().length];
+    private static final LongAdder[] OUTCOMES = new LongAdder[PriceQuote.ErrorCode.values().length];
+    private static final ConcurrentHashMap<String, LongAdder> TEA_ITEMS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongAdder> MATERIAL_ITEMS = new ConcurrentHashMap<>();
+
+    static {
+        for (int i = 0; i < STAGES.length; i++) {
+            STAGES[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < OUTCOMES.length; i++) {
+            OUTCOMES[i] = new LongAdder();
+        }
+    }
+
+    private PricingMetrics() {
+    }
+
+    static boolean enabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    // ===================== RECORDING =====================
+
+    /**
+     * Records the time since {@code since} for a stage and returns the current time,
+     * so consecutive stages can be timed with one clock read each.
+     */
+    static long lap(Stage stage, long since) {
+        long now = System.nanoTime();
+        STAGES[stage.ordinal()].record(now - since);
+        return now;
+    }
+
+    static void recordOutcome(PriceQuote.ErrorCode outcome) {
+        OUTCOMES[outcome.ordinal()].increment();
+    }
+
+    /**
+     * Counts the tea and materials of a successfully priced order.
+     */
+    static void recordItems(PriceQuote quote) {
+        for (int i = 0; i < quote.itemCount(); i++) {
+            switch (quote.itemKind(i)) {
+                case TEA:
+                    increment(TEA_ITEMS, quote.itemName(i));
+                    break;
+                case MATERIAL:
+                    increment(MATERIAL_ITEMS, quote.itemName(i));
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static void increment(ConcurrentHashMap<String, LongAdder> counts, String name) {
+        LongAdder counter = counts.get(name);
+        if (counter == null) {
+            counter = counts.computeIfAbsent(name, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    static void reset() {
+        for (LatencyHistogram histogram : STAGES) {
+            histogram.reset();
+        }
+        for (LongAdder outcome : OUTCOMES) {
+            outcome.reset();
+        }
+        TEA_ITEMS.clear();
+        MATERIAL_ITEMS.clear();
+    }
+
+    // ===================== QUERIES =====================
+
+    static long outcomeCount(PriceQuote.ErrorCode outcome) {
+        return OUTCOMES[outcome.ordinal()].sum();
+    }
+
+    static long teaCount(String tea) {
+        LongAdder counter = TEA_ITEMS.get(tea.toLowerCase());
+        return counter == null ? 0 : counter.sum();
+    }
+
+    static long materialCount(String material) {
+        LongAdder counter = MATERIAL_ITEMS.get(material.toLowerCase());
+        return counter == null ? 0 : counter.sum();
+    }
+
+    static HistogramSnapshot stage(Stage stage) {
+        return STAGES[stage.ordinal()].snapshot();
+    }
+
+    /**
+     * Point-in-time copy of all metrics; toString() gives a printable dump.
+     */
+    static Snapshot snapshot() {
+        Map<Stage, HistogramSnapshot> stages = new EnumMap<>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, stage(stage));
+        }
+        Map<String, Long> outcomes = new TreeMap<>();
+        for (PriceQuote.ErrorCode outcome : PriceQuote.ErrorCode.values()) {
+            String name = outcome == PriceQuote.ErrorCode.NONE ? "Valid" : outcome.exceptionType().getSimpleName();
+            outcomes.put(name, outcomeCount(outcome));
+        }
+        return new Snapshot(stages, outcomes, sums(TEA_ITEMS), sums(MATERIAL_ITEMS));
+    }
+
+    private static Map<String, Long> sums(ConcurrentHashMap<String, LongAdder> counts) {
+        Map<String, Long> sums = new TreeMap<>();
+        counts.forEach((name, counter) -> sums.put(name, counter.sum()));
+        return Collections.unmodifiableMap(sums);
+    }
+
+    static final class Snapshot {
+        final Map<Stage, HistogramSnapshot> stages;
+        final Map<String, Long> outcomes;
+        final Map<String, Long> teas;
+        final Map<String, Long> materials;
+
+        Snapshot(Map<Stage, HistogramSnapshot> stages, Map<String, Long> outcomes,
+                 Map<String, Long> teas, Map<String, Long> materials) {
+            this.stages = Collections.unmodifiableMap(stages);
+            this.outcomes = Collections.unmodifiableMap(outcomes);
+            this.teas = teas;
+            this.materials = materials;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("=== PRICING METRICS ===\n");
+            sb.append("Stage latency (ns):\n");
+            stages.forEach((stage, histogram) -> sb.append(String.format("  %-10s %s%n", stage, histogram)));
+            sb.append("Orders by outcome:\n");
+            outcomes.forEach((outcome, count) -> sb.append("  ").append(outcome).append(": ").append(count).append('\n'));
+            sb.append("Teas priced:\n");
+            teas.forEach((tea, count) -> sb.append("  ").append(tea).append(": ").append(count).append('\n'));
+            sb.append("Materials priced:\n");
+            materials.forEach((material, count) -> sb.append("  ").append(material).append(": ").append(count).append('\n'));
+            return sb.toString();
+        }
+    }
+
+    // ===================== HISTOGRAM =====================
+
+    /**
+     * Log-linear histogram: 8 linear sub-buckets per power of two, so any recorded
+     * value is reported within 12.5% of its true value.
+     *
+     * Each thread records into one of STRIPES copies of the buckets, total and max,
+     * picked by thread id; snapshot() adds them up.
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+        private static final int STRIPES =
+                Math.min(16, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+        // A stripe is its buckets, then its total and max, then padding to keep the next stripe off their line
+        private static final int TOTAL = BUCKETS;
+        private static final int MAX = BUCKETS + 1;
+        private static final int STRIPE_LENGTH = BUCKETS + 16;
+
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIPE_LENGTH);
+
+        void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            int stripe = ((int) Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_LENGTH;
+            cells.incrementAndGet(stripe + bucketOf(value));
+            cells.addAndGet(stripe + TOTAL, value);
+            long currentMax;
+            while (value > (currentMax = cells.get(stripe + MAX))
+                    && !cells.compareAndSet(stripe + MAX, currentMax, value)) {
+                // retry until the larger value wins; only threads sharing the stripe compete
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < cells.length(); i++) {
+                cells.set(i, 0);
+            }
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+            int subBucket = (int) (value >>> (magnitude - 1)) & (SUB_BUCKETS - 1);
+            return magnitude * SUB_BUCKETS + subBucket;
+        }
+
+        // Upper bound of the values that fall into a bucket
+        static long bucketLimit(int bucket) {
+            int magnitude = bucket / SUB_BUCKETS;
+            int subBucket = bucket % SUB_BUCKETS;
+            if (magnitude == 0) {
+                return subBucket;
+            }
+            return ((long) (SUB_BUCKETS + subBucket + 1) << (magnitude - 1)) - 1;
+        }
+
+        HistogramSnapshot snapshot() {
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            long max = 0;
+            for (int stripe = 0; stripe < STRIPES * STRIPE_LENGTH; stripe += STRIPE_LENGTH) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    copy[i] += cells.get(stripe + i);
+                }
+                total += cells.get(stripe + TOTAL);
+                max = Math.max(max, cells.get(stripe + MAX));
+            }
+            return new HistogramSnapshot(copy, total, max);
+        }
+    }
+
+    static final class HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long total;
+        private final long max;
+
+        HistogramSnapshot(long[] counts, long total, long max) {
+            this.counts = counts;
+            this.total = total;
+            this.max = max;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+        }
+
+        long count() {
+            return count;
+        }
+
+        double mean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /**
+         * The values recorded in this snapshot and the other together.
+         */
+        HistogramSnapshot plus(HistogramSnapshot other) {
+            long[] sum = counts.clone();
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += other.counts[i];
+            }
+            return new HistogramSnapshot(sum, total + other.total, Math.max(max, other.max));
+        }
+
+        /**
+         * Smallest bucket limit covering the given fraction (0..1) of recorded values.
+         */
+        long percentile(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(LatencyHistogram.bucketLimit(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0f p50=%d p90=%d p99=%d max=%d",
+                    count, mean(), percentile(0.50), percentile(0.90), percentile(0.99), max);
+        }
+    }
+}
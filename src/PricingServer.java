@@ -0,0 +1,396 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Embedded HTTP front end for MikeTeaShop2, on the JDK's built-in server.
+ *
+ * Endpoints (JSON responses):
+ *   GET/POST /price               price an order, given as ?order=... or as the request body
+ *   GET      /menu                the current menu snapshot
+ *   PUT      /menu/{kind}/{name}  add an item, price as ?price=... or body; kind is teas,
+ *                                 materials or sweet-levels
+ *   DELETE   /menu/{kind}/{name}  remove an item
+ *
+ * Invalid orders come back as 400 with the name of the matching TeaShopException
+ * and "did you mean" suggestions;
+ * ItemAlreadyExistsException maps to 409 and ItemNotFoundException to 404.
+ *
+ * Backpressure: the server's dispatcher thread only admits requests. At most
+ * workers + queueCapacity requests are admitted at once; past that a request is
+ * answered 429 straight away instead of waiting, and once stop() has begun
+ * every new request gets 503. Admitted requests run on a fixed pool of workers.
+ *
+ * A malformed %-escape in the query string is answered 400 (MalformedQuery).
+ *
+ * Run: java PricingServer [port] [workers] [queueCapacity]
+ * main turns on TCP_NODELAY (-Dsun.net.httpserver.nodelay=true) unless the flag
+ * is given on the command line; an embedding launcher should pass it itself.
+ */
+final class PricingServer {
+
+    static final int DEFAULT_PORT = 8080;
+    static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final HttpServer server;
+    private final ExecutorService workers;
+    private final Semaphore admission;
+    private volatile boolean stopping;
+
+    private final LongAdder served = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    PricingServer(InetSocketAddress address, int workerCount, int queueCapacity) throws IOException {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "pricing-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.admission = new Semaphore(workerCount + queueCapacity);
+        this.server = HttpServer.create(address, 1024);
+        server.createContext("/price", admit(this::price));
+        server.createContext("/menu", admit(this::menu));
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * Stops admitting requests, lets admitted ones finish (up to the delay) and shuts down.
+     */
+    void stop(int delaySeconds) {
+        stopping = true;
+        server.stop(delaySeconds);
+        workers.shutdown();
+        try {
+            workers.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    long servedCount() {
+        return served.sum();
+    }
+
+    long rejectedCount() {
+        return rejected.sum();
+    }
+
+    // ===================== ADMISSION =====================
+
+    private HttpHandler admit(HttpHandler handler) {
+        return exchange -> {
+            if (stopping) {
+                reject(exchange, 503, "Server is shutting down");
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                reject(exchange, 429, "Too many requests");
+                return;
+            }
+            try {
+                workers.execute(() -> {
+                    try {
+                        handler.handle(exchange);
+                        served.increment();
+                    } catch (IOException | RuntimeException e) {
+                        try {
+                            send(exchange, 500, error("InternalError", String.valueOf(e.getMessage())));
+                        } catch (IOException ignored) {
+                            // the client is gone
+                        }
+                    } finally {
+                        exchange.close();
+                        admission.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                admission.release();
+                reject(exchange, 503, "Server is shutting down");
+            }
+        };
+    }
+
+    private void reject(HttpExchange exchange, int status, String message) throws IOException {
+        rejected.increment();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        send(exchange, status, error(status == 429 ? "Overloaded" : "Unavailable", message));
+        exchange.close();
+    }
+
+    // ===================== HANDLERS =====================
+
+    private void price(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String order;
+        if ("GET".equals(method)) {
+            try {
+                order = queryParameter(exchange, "order");
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error("MalformedQuery", e.getMessage()));
+                return;
+            }
+        } else if ("POST".equals(method)) {
+            order = body(exchange);
+        } else {
+            send(exchange, 405, error("MethodNotAllowed", method));
+            return;
+        }
+        if (order == null) {
+            send(exchange, 400, error("MissingOrder", "Pass the order as ?order=... or in the request body"));
+            return;
+        }
+
+        PriceQuote quote = MikeTeaShop2.priceOrder(order);
+        if (!quote.isValid()) {
+            StringBuilder json = errorFields(quote.error().exceptionType().getSimpleName(), quote.errorMessage());
+            json.append(",\"suggestions\":[");
+            List<String> suggestions = MikeTeaShop2.suggestionsFor(quote);
+            for (int i = 0; i < suggestions.size(); i++) {
+                appendString(i > 0 ? json.append(',') : json, suggestions.get(i));
+            }
+            send(exchange, 400, json.append("]}").toString());
+            return;
+        }
+
+        StringBuilder json = new StringBuilder("{\"order\":");
+        appendString(json, order).append(",\"total\":").append(MenuSnapshot.toDollars(quote.totalCents()))
+                .append(",\"items\":[");
+        for (int i = 0; i < quote.itemCount(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"kind\":\"").append(quote.itemKind(i)).append("\",\"name\":");
+            appendString(json, quote.itemName(i)).append(",\"price\":")
+                    .append(MenuSnapshot.toDollars(quote.itemCents(i))).append('}');
+        }
+        json.append(']');
+        if (quote.discountCount() > 0) {
+            json.append(",\"discounts\":[");
+            for (int i = 0; i < quote.discountCount(); i++) {
+                appendString(json.append(i > 0 ? ",{\"promotion\":" : "{\"promotion\":"), quote.discountName(i))
+                        .append(",\"amount\":").append(MenuSnapshot.toDollars(quote.discountCents(i))).append('}');
+            }
+            json.append(']');
+        }
+        send(exchange, 200, json.append('}').toString());
+    }
+
+    private void menu(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String[] path = exchange.getRequestURI().getPath().split("/", 4);
+        // path = ["", "menu", kind, name]
+        if (path.length <= 2 || path[2].isEmpty()) {
+            if ("GET".equals(method)) {
+                send(exchange, 200, menuJson(MikeTeaShop2.menu));
+            } else {
+                send(exchange, 405, error("MethodNotAllowed", method));
+            }
+            return;
+        }
+        if (path.length < 4 || path[3].isEmpty()) {
+            send(exchange, 404, error("NotFound", exchange.getRequestURI().getPath()));
+            return;
+        }
+
+        String kind = path[2];
+        String name = path[3];
+        String price = null;
+        if ("PUT".equals(method)) {
+            try {
+                price = queryParameter(exchange, "price");
+            } catch (IllegalArgumentException e) {
+                send(exchange, 400, error("MalformedQuery", e.getMessage()));
+                return;
+            }
+        }
+        try {
+            if ("PUT".equals(method)) {
+                double value = parsePrice(price != null ? price : body(exchange).trim());
+                switch (kind) {
+                    case "teas":
+                        MikeTeaShop2.addTea(name, value);
+                        break;
+                    case "materials":
+                        MikeTeaShop2.addMaterial(name, value);
+                        break;
+                    case "sweet-levels":
+                        MikeTeaShop2.addSweetLevel(name, value);
+                        break;
+                    default:
+                        send(exchange, 404, error("NotFound", kind));
+                        return;
+                }
+            } else if ("DELETE".equals(method)) {
+                switch (kind) {
+                    case "teas":
+                        MikeTeaShop2.removeTea(name);
+                        break;
+                    case "materials":
+                        MikeTeaShop2.removeMaterial(name);
+                        break;
+                    case "sweet-levels":
+                        MikeTeaShop2.removeSweetLevel(name);
+                        break;
+                    default:
+                        send(exchange, 404, error("NotFound", kind));
+                        return;
+                }
+            } else {
+                send(exchange, 405, error("MethodNotAllowed", method));
+                return;
+            }
+        } catch (NumberFormatException e) {
+            send(exchange, 400, error("InvalidPrice", e.getMessage()));
+            return;
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, error("InvalidName", e.getMessage()));
+            return;
+        } catch (ItemAlreadyExistsException e) {
+            send(exchange, 409, error(e));
+            return;
+        } catch (ItemNotFoundException e) {
+            send(exchange, 404, error(e));
+            return;
+        }
+        send(exchange, 200, menuJson(MikeTeaShop2.menu));
+    }
+
+    // Double.parseDouble also takes "NaN" and "Infinity", which would be listed as $0.00
+    private static double parsePrice(String text) {
+        double value = Double.parseDouble(text);
+        if (!Double.isFinite(value)) {
+            throw new NumberFormatException("Price must be a finite number: " + text);
+        }
+        return value;
+    }
+
+    // ===================== JSON AND HTTP HELPERS =====================
+
+    static String menuJson(MenuSnapshot menu) {
+        StringBuilder json = new StringBuilder("{\"version\":").append(menu.version());
+        appendCatalog(json.append(",\"teas\":"), menu.teas());
+        appendCatalog(json.append(",\"materials\":"), menu.materials());
+        appendCatalog(json.append(",\"sweetLevels\":"), menu.sweetLevels());
+        return json.append('}').toString();
+    }
+
+    private static void appendCatalog(StringBuilder json, MenuSnapshot.Catalog catalog) {
+        json.append('{');
+        for (int id = 0; id < catalog.size(); id++) {
+            if (id > 0) {
+                json.append(',');
+            }
+            appendString(json, catalog.name(id)).append(':').append(MenuSnapshot.toDollars(catalog.cents(id)));
+        }
+        json.append('}');
+    }
+
+    private static String error(TeaShopException e) {
+        return error(e.getClass().getSimpleName(), e.getMessage());
+    }
+
+    private static String error(String type, String message) {
+        return errorFields(type, message).append('}').toString();
+    }
+
+    // An error object without its closing brace, so callers can add fields
+    private static StringBuilder errorFields(String type, String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        appendString(json, type).append(",\"message\":");
+        return appendString(json, message);
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    // Throws IllegalArgumentException on a malformed %-escape
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    private static String body(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Turns on TCP_NODELAY for the JDK server; small JSON responses otherwise sit
+     * behind Nagle's algorithm for ~40 ms. The server reads the property once, when
+     * the first HttpServer is created, so launchers call this before that.
+     */
+    static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        enableNoDelay();
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_QUEUE_CAPACITY;
+
+        PricingServer server = new PricingServer(new InetSocketAddress(port), workerCount, queueCapacity);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(2)));
+        server.start();
+        System.out.println("Pricing service on http://localhost:" + server.port()
+                + " (" + workerCount + " workers, queue " + queueCapacity + ")");
+    }
+}
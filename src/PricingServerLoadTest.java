@@ -0,0 +1,92 @@
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load test for PricingServer: starts it on an ephemeral port, then drives
+ * /price from 1, 4, 16, 64 and 256 client threads in turn and reports throughput,
+ * p50/p99 latency of answered requests and how many were shed with 429.
+ *
+ * Run: java PricingServerLoadTest [secondsPerLevel] [workers] [queueCapacity]
+ */
+public class PricingServerLoadTest {
+
+    static final String[] ORDERS = {
+            "black tea, 0%",
+            "green tea, pearl, coconut, 0%",
+            "oolong tea, coconut, 50%",
+            "GREEN TEA,PEARL,50%",
+            "nonexistent tea,50%",
+            "green tea, fake pearl,50%"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int workerCount = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors() * 2;
+        int queueCapacity = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        PricingServer.enableNoDelay();
+        PricingServer server = new PricingServer(new InetSocketAddress("127.0.0.1", 0), workerCount, queueCapacity);
+        server.start();
+        PricingMetrics.setEnabled(false);
+
+        URI[] uris = new URI[ORDERS.length];
+        for (int i = 0; i < ORDERS.length; i++) {
+            uris[i] = URI.create("http://127.0.0.1:" + server.port() + "/price?order="
+                    + URLEncoder.encode(ORDERS[i], StandardCharsets.UTF_8));
+        }
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        System.out.println("=== PRICING SERVER LOAD TEST (" + workerCount + " workers, queue " + queueCapacity + ") ===\n");
+        run(client, uris, 4, 1); // warm-up
+        for (int threads : new int[]{1, 4, 16, 64, 256}) {
+            run(client, uris, threads, seconds);
+        }
+        server.stop(1);
+    }
+
+    private static void run(HttpClient client, URI[] uris, int threads, int seconds) throws InterruptedException {
+        PricingMetrics.LatencyHistogram latencies = new PricingMetrics.LatencyHistogram();
+        LongAdder shed = new LongAdder();
+        LongAdder failed = new LongAdder();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = offset; System.nanoTime() < deadline; i++) {
+                        HttpRequest request = HttpRequest.newBuilder(uris[i % uris.length]).GET().build();
+                        long start = System.nanoTime();
+                        try {
+                            int status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                            if (status == 429 || status == 503) {
+                                shed.increment();
+                            } else {
+                                latencies.record(System.nanoTime() - start);
+                            }
+                        } catch (Exception e) {
+                            failed.increment();
+                        }
+                    }
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.start();
+        }
+        done.await();
+
+        PricingMetrics.HistogramSnapshot snapshot = latencies.snapshot();
+        System.out.println(String.format("%3d threads: %,8.0f req/s   p50 %7.1f us   p99 %8.1f us   shed %,d   errors %,d",
+                threads, snapshot.count() / (double) seconds, snapshot.percentile(0.50) / 1e3,
+                snapshot.percentile(0.99) / 1e3, shed.sum(), failed.sum()));
+    }
+}
@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Cost of applying promotions per order with the compiled index versus checking
+ * every rule, for 1,000 to 10,000 active rules. Checks that both give the same
+ * discount lines for every order at several times of the week, that discounts
+ * never take a total below the minimum price, and that time windows and
+ * non-stacking groups behave.
+ *
+ * Run: java PromotionBenchmark
+ */
+public class PromotionBenchmark {
+
+    static final int TEAS = 200;
+    static final int MATERIALS = 60;
+
+    public static void main(String[] args) {
+        Map<String, Double> teas = new HashMap<>();
+        Map<String, Double> materials = new HashMap<>();
+        Map<String, Double> sweetLevels = new HashMap<>();
+        for (int i = 0; i < TEAS; i++) {
+            teas.put("tea " + i, 3.0 + i % 8 * 0.25);
+        }
+        teas.put("cheap tea", 0.60);
+        for (int i = 0; i < MATERIALS; i++) {
+            materials.put("material " + i, 0.25 + i % 5 * 0.25);
+        }
+        for (String level : new String[]{"0%", "30%", "50%", "100%"}) {
+            sweetLevels.put(level, level.equals("0%") ? -0.5 : 0.0);
+        }
+        MenuSnapshot menu = MenuSnapshot.compile(teas, materials, sweetLevels);
+
+        Random random = new Random(42);
+        String[] orders = new String[4096];
+        for (int i = 0; i < orders.length; i++) {
+            StringBuilder order = new StringBuilder("tea " + random.nextInt(TEAS));
+            int toppings = random.nextInt(5);
+            for (int j = 0; j < toppings; j++) {
+                order.append(", material ").append(random.nextInt(MATERIALS));
+            }
+            orders[i] = order.append(", ").append(new String[]{"0%", "30%", "50%", "100%"}[random.nextInt(4)])
+                    .toString();
+        }
+
+        checkRules(menu);
+        System.out.println("=== PROMOTION BENCHMARK (" + TEAS + " teas, " + MATERIALS + " materials) ===\n");
+        for (int ruleCount : new int[]{1_000, 5_000, 10_000}) {
+            Promotions promotions = Promotions.compile(rules(ruleCount, random), menu);
+            checkSameAsUnindexed(promotions, menu, orders);
+            run(promotions, menu, orders);
+        }
+    }
+
+    // Mostly combos for one tea, free toppings and happy hours; a few "any tea + N materials" deals,
+    // which every order with enough materials has to check
+    private static List<Promotions.Promotion> rules(int count, Random random) {
+        List<Promotions.Promotion> rules = new ArrayList<>();
+        for (int r = 0; r < count; r++) {
+            String rule;
+            int kind = r % 100;
+            if (kind < 60) {
+                rule = "tea=tea " + random.nextInt(TEAS) + "; materials=material " + random.nextInt(MATERIALS)
+                        + "; off=0." + (10 + random.nextInt(40));
+            } else if (kind < 85) {
+                rule = "materials=material " + random.nextInt(MATERIALS) + "; free=material "
+                        + random.nextInt(MATERIALS) + "; group=free topping";
+            } else if (kind < 99) {
+                int from = 12 + random.nextInt(8);
+                rule = "tea=tea " + random.nextInt(TEAS) + "; percent=" + (10 + random.nextInt(3) * 5)
+                        + "; days=mon-fri; hours=" + from + ":00-" + (from + 2) + ":30; group=happy hour";
+            } else {
+                rule = "min=" + (2 + random.nextInt(3)) + "; off=0.30; group=combo";
+            }
+            rules.add(Promotions.Promotion.parse("name=rule " + r + "; " + rule));
+        }
+        return rules;
+    }
+
+    private static void run(Promotions promotions, MenuSnapshot menu, String[] orders) {
+        PriceQuote quote = new PriceQuote();
+        double[] nanos = new double[3];
+        long discounted = 0;
+        for (int repeat = 0; repeat < 2; repeat++) {
+            for (int mode = 0; mode < 3; mode++) {
+                // Checking every rule is far slower; fewer orders keep the run short
+                int rounds = mode == 2 ? 20_000 : 1_000_000;
+                int minuteOfWeek = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    OrderPricer.price(orders[i & (orders.length - 1)], menu, quote);
+                    minuteOfWeek = (minuteOfWeek + 7) % (7 * Promotions.MINUTES_PER_DAY);
+                    if (mode == 1) {
+                        promotions.apply(quote, minuteOfWeek);
+                    } else if (mode == 2) {
+                        promotions.applyUnindexed(quote, minuteOfWeek);
+                    }
+                    discounted += quote.discountCount();
+                }
+                nanos[mode] = (double) (System.nanoTime() - start) / rounds;
+            }
+        }
+        check(discounted > 0, "no promotion ever matched");
+        System.out.println(String.format("%,6d rules: pricing %.0f ns/order, + indexed promotions %.0f ns/order, "
+                + "+ checking every rule %,.0f ns/order", promotions.size(), nanos[0], nanos[1], nanos[2]));
+    }
+
+    private static void checkSameAsUnindexed(Promotions promotions, MenuSnapshot menu, String[] orders) {
+        PriceQuote indexed = new PriceQuote();
+        PriceQuote unindexed = new PriceQuote();
+        long discounts = 0;
+        for (int minuteOfWeek = 0; minuteOfWeek < 7 * Promotions.MINUTES_PER_DAY; minuteOfWeek += 1009) {
+            for (String order : orders) {
+                promotions.apply(OrderPricer.price(order, menu, indexed), minuteOfWeek);
+                promotions.applyUnindexed(OrderPricer.price(order, menu, unindexed), minuteOfWeek);
+                check(indexed.totalCents() == unindexed.totalCents()
+                        && indexed.discountCount() == unindexed.discountCount(), "index differs for " + order);
+                long itemTotal = 0;
+                for (int i = 0; i < indexed.itemCount(); i++) {
+                    itemTotal += indexed.itemCents(i);
+                }
+                for (int i = 0; i < indexed.discountCount(); i++) {
+                    check(indexed.discountName(i).equals(unindexed.discountName(i))
+                            && indexed.discountCents(i) == unindexed.discountCents(i), "index differs for " + order);
+                    itemTotal -= indexed.discountCents(i);
+                }
+                check(indexed.totalCents() == Math.max(itemTotal, OrderPricer.MINIMUM_PRICE_CENTS)
+                        && indexed.totalCents() >= OrderPricer.MINIMUM_PRICE_CENTS, "lines do not add up: " + order);
+                discounts += indexed.discountCount();
+            }
+        }
+        check(discounts > 0, "no promotion ever matched");
+    }
+
+    private static void checkRules(MenuSnapshot menu) {
+        List<Promotions.Promotion> rules = new ArrayList<>();
+        rules.add(Promotions.Promotion.parse("name=pair; tea=tea 1; materials=material 2+material 2; off=0.40"));
+        rules.add(Promotions.Promotion.parse("name=late; percent=10; days=sat-mon; hours=22:00-02:00; group=g"));
+        rules.add(Promotions.Promotion.parse("name=late big; percent=20; days=sun; hours=23:00-01:00; group=g"));
+        rules.add(Promotions.Promotion.parse("name=free; free=*; min=2"));
+        rules.add(Promotions.Promotion.parse("name=gone; tea=no such tea; off=1"));
+        rules.add(Promotions.Promotion.parse("name=floor; tea=cheap tea; off=0.30"));
+        Promotions promotions = Promotions.compile(rules, menu);
+        check(promotions.size() == 5 && promotions.skipped() == 1, "unknown tea not skipped");
+
+        int saturday = 5 * Promotions.MINUTES_PER_DAY;
+        int sunday = 6 * Promotions.MINUTES_PER_DAY;
+        PriceQuote quote = new PriceQuote();
+        // tea 1 = 3.25, material 2 = 0.75 twice: 4.75
+        promotions.apply(OrderPricer.price("tea 1, material 2, 50%", menu, quote), saturday);
+        check(quote.discountCount() == 0 && quote.totalCents() == 400, "pair rule matched a single material");
+        promotions.apply(OrderPricer.price("tea 1, material 2, material 2, 50%", menu, quote), saturday + 60);
+        check(quote.discountCount() == 2 && quote.totalCents() == 475 - 40 - 75, "pair and free topping");
+        // Windows past midnight belong to the day they start: Saturday 23:30 and Sunday 00:30 are in
+        // Saturday's "late" window only; Monday 00:30 is in both Sunday windows and the group keeps the larger
+        promotions.apply(OrderPricer.price("tea 3, 50%", menu, quote), saturday + 23 * 60 + 30);
+        check(quote.discountCount() == 1 && quote.discountName(0).equals("late"), "late window");
+        promotions.apply(OrderPricer.price("tea 3, 50%", menu, quote), sunday + 30);
+        check(quote.discountCount() == 1 && quote.discountName(0).equals("late"), "window past midnight");
+        promotions.apply(OrderPricer.price("tea 3, 50%", menu, quote), 30);
+        check(quote.discountCount() == 1 && quote.discountName(0).equals("late big")
+                && quote.totalCents() == 375 - 75, "group did not keep the larger discount");
+        promotions.apply(OrderPricer.price("tea 3, 50%", menu, quote), 2 * Promotions.MINUTES_PER_DAY + 30);
+        check(quote.discountCount() == 0, "window applied on the wrong day");
+        promotions.apply(OrderPricer.price("cheap tea, 30%", menu, quote), 12 * 60);
+        check(quote.totalCents() == OrderPricer.MINIMUM_PRICE_CENTS && quote.discountCents(0) == 10,
+                "discount went below the minimum price");
+        promotions.apply(OrderPricer.price("cheap tea, 0%", menu, quote), 12 * 60);
+        check(quote.discountCount() == 0, "discount on an order already at the minimum price");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
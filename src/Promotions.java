@@ -0,0 +1,617 @@
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Promotion rules compiled against one menu snapshot.
+ *
+ * A Promotion is plain data: which tea (or any), which materials must be in the
+ * order, a minimum material count, an optional sweet level and weekly time window,
+ * and one effect: an amount off, a percentage off or a free material (a given
+ * one, or the cheapest in the order). Promotions in the same group do not stack:
+ * only the largest discount of a group applies. Promotions in different groups,
+ * and promotions without a group, all apply.
+ *
+ * compile() resolves names to the snapshot's item ids and indexes every rule
+ * under exactly one key:
+ * - rules for one tea, under that tea;
+ * - rules for any tea that need a given material, under their first required material;
+ * - all other rules, under their minimum material count.
+ * An order only checks the rules under its tea, under each distinct material it
+ * has, and under counts up to its own material count, so its cost depends on how
+ * many rules could match rather than on how many rules exist.
+ *
+ * apply() adds the matching discounts to a priced quote as itemized lines. Each
+ * line is capped so the total never goes below OrderPricer.MINIMUM_PRICE_CENTS,
+ * and lines capped to nothing are left out.
+ */
+final class Promotions {
+
+    enum Effect {
+        AMOUNT_OFF,
+        PERCENT_OFF,
+        FREE_MATERIAL
+    }
+
+    static final int MINUTES_PER_DAY = 24 * 60;
+    static final int ALL_DAYS = 0x7F;
+
+    // Rules that need at least this many materials share the last count bucket
+    private static final int MAX_COUNT_BUCKET = 8;
+    private static final int ANY = -1;
+
+    /**
+     * One promotion as data. Item names are matched case-insensitively when the
+     * rules are compiled against a menu.
+     */
+    static final class Promotion {
+        final String name;
+        final String tea;             // null for any tea
+        final List<String> materials; // required materials, repeated for "two of"
+        final int minMaterials;
+        final String sweetLevel;      // null for any sweet level
+        final Effect effect;
+        final long amount;            // cents off, or percent off
+        final String freeMaterial;    // FREE_MATERIAL only; null for the cheapest material in the order
+        final int days;               // bit 0 = Monday
+        final int fromMinute;         // minute of the day, inclusive
+        final int toMinute;           // exclusive; before fromMinute for windows past midnight
+        final String group;           // null: stacks with everything
+
+        Promotion(String name, String tea, List<String> materials, int minMaterials, String sweetLevel,
+                  Effect effect, long amount, String freeMaterial, int days, int fromMinute, int toMinute,
+                  String group) {
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("A promotion needs a name");
+            }
+            if (amount < 0 || (effect == Effect.PERCENT_OFF && amount > 100)) {
+                throw new IllegalArgumentException("Invalid amount for promotion '" + name + "': " + amount);
+            }
+            if (minMaterials < 0 || days <= 0 || days > ALL_DAYS || fromMinute < 0 || fromMinute > MINUTES_PER_DAY
+                    || toMinute < 0 || toMinute > MINUTES_PER_DAY) {
+                throw new IllegalArgumentException("Invalid condition for promotion '" + name + "'");
+            }
+            this.name = name;
+            this.tea = lower(tea);
+            this.materials = new ArrayList<>();
+            for (String material : materials) {
+                this.materials.add(lower(material));
+            }
+            this.minMaterials = minMaterials;
+            this.sweetLevel = lower(sweetLevel);
+            this.effect = effect;
+            this.amount = amount;
+            this.freeMaterial = lower(freeMaterial);
+            this.days = days;
+            this.fromMinute = fromMinute;
+            this.toMinute = toMinute;
+            this.group = group;
+        }
+
+        /**
+         * Parses a promotion written as "key=value" pairs separated by ';', e.g.
+         * {@code name=pearl combo; tea=black tea; materials=pearl+pudding; off=0.30}
+         * or {@code name=happy hour; percent=20; days=mon-fri; hours=15:00-17:00; group=happy hour}.
+         *
+         * Keys: name (required); tea and sweet (default any); materials (joined by
+         * '+'); min (material count); exactly one of off (dollars), percent or free
+         * (a material, or * for the cheapest in the order); days (mon-fri or
+         * sat,sun); hours (HH:MM-HH:MM); group.
+         */
+        static Promotion parse(String text) {
+            Map<String, String> fields = new HashMap<>();
+            for (String pair : text.split(";")) {
+                if (pair.trim().isEmpty()) {
+                    continue;
+                }
+                int eq = pair.indexOf('=');
+                if (eq < 0) {
+                    throw new IllegalArgumentException("Expected key=value in promotion: " + pair.trim());
+                }
+                fields.put(pair.substring(0, eq).trim().toLowerCase(Locale.ROOT), pair.substring(eq + 1).trim());
+            }
+            String name = fields.remove("name");
+            String label = name == null ? text : name;
+
+            int effects = 0;
+            Effect effect = Effect.AMOUNT_OFF;
+            long amount = 0;
+            String free = null;
+            if (fields.containsKey("off")) {
+                effects++;
+                amount = MenuSnapshot.toCents(parseNumber(fields.remove("off"), label));
+            }
+            if (fields.containsKey("percent")) {
+                effects++;
+                effect = Effect.PERCENT_OFF;
+                amount = Math.round(parseNumber(fields.remove("percent"), label));
+            }
+            if (fields.containsKey("free")) {
+                effects++;
+                effect = Effect.FREE_MATERIAL;
+                free = fields.remove("free");
+                free = free.equals("*") ? null : free;
+            }
+            if (effects != 1) {
+                throw new IllegalArgumentException("Promotion '" + label + "' needs exactly one of off, percent, free");
+            }
+
+            String tea = fields.remove("tea");
+            List<String> materials = new ArrayList<>();
+            String materialList = fields.remove("materials");
+            if (materialList != null) {
+                for (String material : materialList.split("\\+")) {
+                    if (!material.trim().isEmpty()) {
+                        materials.add(material.trim());
+                    }
+                }
+            }
+            String min = fields.remove("min");
+            int minMaterials = min == null ? 0 : (int) parseNumber(min, label);
+            String days = fields.remove("days");
+            String hours = fields.remove("hours");
+            int[] window = hours == null ? new int[]{0, MINUTES_PER_DAY} : parseHours(hours, label);
+            Promotion promotion = new Promotion(name, "*".equals(tea) ? null : tea, materials, minMaterials,
+                    fields.remove("sweet"), effect, amount, free, days == null ? ALL_DAYS : parseDays(days, label),
+                    window[0], window[1], fields.remove("group"));
+            if (!fields.isEmpty()) {
+                throw new IllegalArgumentException("Unknown keys in promotion '" + label + "': " + fields.keySet());
+            }
+            return promotion;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // ===================== COMPILED RULES =====================
+
+    private final MenuSnapshot menu;
+    private final List<Promotion> promotions;
+    private final int skipped;
+    private final boolean timeDependent;
+
+    // Rule r, in definition order; ids are those of menu
+    private final String[] names;
+    private final int[] teas;
+    private final int[] sweetLevels;
+    private final int[][] requiredMaterials; // sorted
+    private final int[] minMaterials;
+    private final Effect[] effects;
+    private final long[] amounts;
+    private final int[] freeMaterials;       // ANY for the cheapest
+    private final int[] days;
+    private final int[] fromMinutes;
+    private final int[] toMinutes;
+    private final int[] groups;
+    private final int groupCount;
+
+    // The index: each rule is in exactly one of these lists
+    private final int[][] byTea;
+    private final int[][] byMaterial;
+    private final int[][] byCount;
+
+    private final ThreadLocal<Scratch> scratch;
+
+    private Promotions(MenuSnapshot menu, List<Promotion> promotions) {
+        this.menu = menu;
+        this.promotions = promotions;
+        MenuSnapshot.Catalog teaCatalog = menu.teas();
+        MenuSnapshot.Catalog materialCatalog = menu.materials();
+
+        List<Promotion> usable = new ArrayList<>();
+        List<int[]> required = new ArrayList<>();
+        for (Promotion promotion : promotions) {
+            int[] ids = resolveMaterials(promotion, materialCatalog);
+            if (ids != null && (promotion.tea == null || teaCatalog.find(promotion.tea) != MenuSnapshot.NOT_FOUND)
+                    && (promotion.sweetLevel == null
+                    || menu.sweetLevels().find(promotion.sweetLevel) != MenuSnapshot.NOT_FOUND)) {
+                usable.add(promotion);
+                required.add(ids);
+            }
+        }
+        this.skipped = promotions.size() - usable.size();
+
+        int count = usable.size();
+        names = new String[count];
+        teas = new int[count];
+        sweetLevels = new int[count];
+        requiredMaterials = new int[count][];
+        minMaterials = new int[count];
+        effects = new Effect[count];
+        amounts = new long[count];
+        freeMaterials = new int[count];
+        days = new int[count];
+        fromMinutes = new int[count];
+        toMinutes = new int[count];
+        groups = new int[count];
+        Map<String, Integer> groupIds = new HashMap<>();
+        int nextGroup = 0;
+        boolean timed = false;
+
+        List<List<Integer>> teaLists = lists(teaCatalog.size());
+        List<List<Integer>> materialLists = lists(materialCatalog.size());
+        List<List<Integer>> countLists = lists(MAX_COUNT_BUCKET + 1);
+        for (int r = 0; r < count; r++) {
+            Promotion promotion = usable.get(r);
+            names[r] = promotion.name;
+            teas[r] = promotion.tea == null ? ANY : teaCatalog.find(promotion.tea);
+            sweetLevels[r] = promotion.sweetLevel == null ? ANY : menu.sweetLevels().find(promotion.sweetLevel);
+            requiredMaterials[r] = required.get(r);
+            effects[r] = promotion.effect;
+            amounts[r] = promotion.amount;
+            freeMaterials[r] = promotion.effect == Effect.FREE_MATERIAL && promotion.freeMaterial != null
+                    ? materialCatalog.find(promotion.freeMaterial) : ANY;
+            // A free material needs a material to give away
+            minMaterials[r] = Math.max(promotion.minMaterials, Math.max(requiredMaterials[r].length,
+                    promotion.effect == Effect.FREE_MATERIAL ? 1 : 0));
+            days[r] = promotion.days;
+            fromMinutes[r] = promotion.fromMinute;
+            toMinutes[r] = promotion.toMinute;
+            timed |= promotion.days != ALL_DAYS || promotion.fromMinute != 0 || promotion.toMinute != MINUTES_PER_DAY;
+            if (promotion.group == null) {
+                groups[r] = nextGroup++;
+            } else {
+                Integer id = groupIds.get(promotion.group);
+                if (id == null) {
+                    id = nextGroup++;
+                    groupIds.put(promotion.group, id);
+                }
+                groups[r] = id;
+            }
+
+            if (teas[r] != ANY) {
+                teaLists.get(teas[r]).add(r);
+            } else if (requiredMaterials[r].length > 0) {
+                materialLists.get(requiredMaterials[r][0]).add(r);
+            } else {
+                countLists.get(Math.min(minMaterials[r], MAX_COUNT_BUCKET)).add(r);
+            }
+        }
+        this.groupCount = nextGroup;
+        this.timeDependent = timed;
+        this.byTea = toArrays(teaLists);
+        this.byMaterial = toArrays(materialLists);
+        this.byCount = toArrays(countLists);
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(groupCount));
+    }
+
+    /**
+     * Compiles promotions against a menu. Promotions naming items that are not on
+     * the menu can never match and are left out (see skipped()).
+     */
+    static Promotions compile(List<Promotion> promotions, MenuSnapshot menu) {
+        return new Promotions(menu, promotions);
+    }
+
+    // Required material ids (including a named free material), sorted; null if one is not on the menu
+    private static int[] resolveMaterials(Promotion promotion, MenuSnapshot.Catalog catalog) {
+        List<String> names = new ArrayList<>(promotion.materials);
+        if (promotion.freeMaterial != null && !names.contains(promotion.freeMaterial)) {
+            names.add(promotion.freeMaterial);
+        }
+        int[] ids = new int[names.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = catalog.find(names.get(i));
+            if (ids[i] == MenuSnapshot.NOT_FOUND) {
+                return null;
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    MenuSnapshot menu() {
+        return menu;
+    }
+
+    List<Promotion> promotions() {
+        return promotions;
+    }
+
+    /**
+     * Rules compiled in (those whose items are all on the menu).
+     */
+    int size() {
+        return names.length;
+    }
+
+    int skipped() {
+        return skipped;
+    }
+
+    /**
+     * Whether any rule has a time window, i.e. whether apply() needs the current time.
+     */
+    boolean timeDependent() {
+        return timeDependent;
+    }
+
+    /**
+     * Minute of the week (0 = Monday 00:00) as used by apply().
+     */
+    static int minuteOfWeek(LocalDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * MINUTES_PER_DAY + time.getHour() * 60 + time.getMinute();
+    }
+
+    // Epoch second << 16 | minute of the week at that second; one volatile so readers never see a torn pair
+    private static volatile long clockStamp = -1;
+
+    /**
+     * The current minute of the week in the default time zone. The clock is read
+     * through LocalDateTime at most once a second, not once per order.
+     */
+    static int currentMinuteOfWeek() {
+        long second = System.currentTimeMillis() / 1000;
+        long stamp = clockStamp;
+        if (stamp >>> 16 != second) {
+            stamp = second << 16 | minuteOfWeek(LocalDateTime.now());
+            clockStamp = stamp;
+        }
+        return (int) (stamp & 0xFFFF);
+    }
+
+    // ===================== APPLYING =====================
+
+    // Per-thread working memory for apply()
+    private static final class Scratch {
+        int[] materials = new int[8];
+        final long[] best;
+        final int[] bestRule;
+        final int[] stamps;
+        int stamp;
+        int[] touched;
+        int touchedCount;
+        int[] lines = new int[16];
+
+        Scratch(int groups) {
+            best = new long[groups];
+            bestRule = new int[groups];
+            stamps = new int[groups];
+            touched = new int[16];
+        }
+    }
+
+    /**
+     * Adds the discounts of every matching rule to a valid quote priced against
+     * this menu, at the given minute of the week. Invalid quotes are left alone.
+     */
+    void apply(PriceQuote quote, int minuteOfWeek) {
+        apply(quote, minuteOfWeek, true);
+    }
+
+    /**
+     * Same result as apply(), checking every rule in turn instead of using the
+     * index. For benchmarks and for checking the index.
+     */
+    void applyUnindexed(PriceQuote quote, int minuteOfWeek) {
+        apply(quote, minuteOfWeek, false);
+    }
+
+    private void apply(PriceQuote quote, int minuteOfWeek, boolean indexed) {
+        if (!quote.isValid() || names.length == 0) {
+            return;
+        }
+        Scratch s = scratch.get();
+        int materialCount = quote.itemCount() - 2;
+        if (s.materials.length < materialCount) {
+            s.materials = new int[materialCount * 2];
+        }
+        int[] materials = s.materials;
+        long subtotal = quote.itemCents(0) + quote.itemCents(quote.itemCount() - 1);
+        long cheapest = Long.MAX_VALUE;
+        MenuSnapshot.Catalog materialCatalog = menu.materials();
+        for (int i = 0; i < materialCount; i++) {
+            materials[i] = quote.itemId(i + 1);
+            subtotal += quote.itemCents(i + 1);
+            cheapest = Math.min(cheapest, quote.itemCents(i + 1));
+        }
+        Arrays.sort(materials, 0, materialCount);
+        int tea = quote.itemId(0);
+        int sweetness = quote.itemId(quote.itemCount() - 1);
+
+        if (++s.stamp == 0) {
+            Arrays.fill(s.stamps, 0);
+            s.stamp = 1;
+        }
+        s.touchedCount = 0;
+        if (indexed) {
+            check(s, byTea[tea], tea, sweetness, materials, materialCount, subtotal, cheapest, minuteOfWeek);
+            for (int i = 0; i < materialCount; i++) {
+                if (i == 0 || materials[i] != materials[i - 1]) {
+                    check(s, byMaterial[materials[i]], tea, sweetness, materials, materialCount, subtotal, cheapest,
+                            minuteOfWeek);
+                }
+            }
+            for (int c = 0; c <= Math.min(materialCount, MAX_COUNT_BUCKET); c++) {
+                check(s, byCount[c], tea, sweetness, materials, materialCount, subtotal, cheapest, minuteOfWeek);
+            }
+        } else {
+            for (int r = 0; r < names.length; r++) {
+                check(s, r, tea, sweetness, materials, materialCount, subtotal, cheapest, minuteOfWeek);
+            }
+        }
+        if (s.touchedCount == 0) {
+            return;
+        }
+
+        // Discount lines in rule definition order, each capped by the minimum price
+        if (s.lines.length < s.touchedCount) {
+            s.lines = new int[s.touchedCount * 2];
+        }
+        int[] lines = s.lines;
+        for (int i = 0; i < s.touchedCount; i++) {
+            lines[i] = s.bestRule[s.touched[i]];
+        }
+        Arrays.sort(lines, 0, s.touchedCount);
+        long total = subtotal;
+        for (int i = 0; i < s.touchedCount; i++) {
+            int r = lines[i];
+            long discount = Math.min(s.best[groups[r]], total - OrderPricer.MINIMUM_PRICE_CENTS);
+            if (discount > 0) {
+                quote.addDiscount(names[r], discount);
+                total -= discount;
+            }
+        }
+        quote.succeed(Math.max(total, OrderPricer.MINIMUM_PRICE_CENTS));
+    }
+
+    private void check(Scratch s, int[] rules, int tea, int sweetness, int[] materials, int materialCount,
+                       long subtotal, long cheapest, int minuteOfWeek) {
+        for (int r : rules) {
+            check(s, r, tea, sweetness, materials, materialCount, subtotal, cheapest, minuteOfWeek);
+        }
+    }
+
+    private void check(Scratch s, int r, int tea, int sweetness, int[] materials, int materialCount,
+                       long subtotal, long cheapest, int minuteOfWeek) {
+        if ((teas[r] != ANY && teas[r] != tea) || (sweetLevels[r] != ANY && sweetLevels[r] != sweetness)
+                || materialCount < minMaterials[r] || !inWindow(r, minuteOfWeek)
+                || !contains(materials, materialCount, requiredMaterials[r])) {
+            return;
+        }
+        long discount;
+        switch (effects[r]) {
+            case AMOUNT_OFF:
+                discount = amounts[r];
+                break;
+            case PERCENT_OFF:
+                discount = (subtotal * amounts[r] + 50) / 100;
+                break;
+            default:
+                discount = freeMaterials[r] == ANY ? cheapest : menu.materials().cents(freeMaterials[r]);
+                break;
+        }
+        if (discount <= 0) {
+            return;
+        }
+        int group = groups[r];
+        if (s.stamps[group] != s.stamp) {
+            s.stamps[group] = s.stamp;
+            s.best[group] = discount;
+            s.bestRule[group] = r;
+            if (s.touchedCount == s.touched.length) {
+                s.touched = Arrays.copyOf(s.touched, s.touchedCount * 2);
+            }
+            s.touched[s.touchedCount++] = group;
+        } else if (discount > s.best[group] || (discount == s.best[group] && r < s.bestRule[group])) {
+            s.best[group] = discount;
+            s.bestRule[group] = r;
+        }
+    }
+
+    private boolean inWindow(int r, int minuteOfWeek) {
+        if (days[r] == ALL_DAYS && fromMinutes[r] == 0 && toMinutes[r] == MINUTES_PER_DAY) {
+            return true;
+        }
+        int day = minuteOfWeek / MINUTES_PER_DAY;
+        int minute = minuteOfWeek % MINUTES_PER_DAY;
+        if (fromMinutes[r] <= toMinutes[r]) {
+            return (days[r] & (1 << day)) != 0 && minute >= fromMinutes[r] && minute < toMinutes[r];
+        }
+        // Past midnight: the late part belongs to the day the window started
+        if (minute >= fromMinutes[r]) {
+            return (days[r] & (1 << day)) != 0;
+        }
+        return minute < toMinutes[r] && (days[r] & (1 << ((day + 6) % 7))) != 0;
+    }
+
+    // Whether the sorted order materials contain every sorted required id (as a multiset)
+    private static boolean contains(int[] materials, int count, int[] required) {
+        int i = 0;
+        for (int id : required) {
+            while (i < count && materials[i] < id) {
+                i++;
+            }
+            if (i == count || materials[i] != id) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    // ===================== HELPERS =====================
+
+    private static String lower(String name) {
+        return name == null ? null : name.trim().toLowerCase();
+    }
+
+    private static double parseNumber(String text, String promotion) {
+        try {
+            return Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number '" + text + "' in promotion '" + promotion + "'");
+        }
+    }
+
+    private static int[] parseHours(String text, String promotion) {
+        String[] parts = text.split("-");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected HH:MM-HH:MM in promotion '" + promotion + "': " + text);
+        }
+        return new int[]{parseTime(parts[0], promotion), parseTime(parts[1], promotion)};
+    }
+
+    private static int parseTime(String text, String promotion) {
+        String[] parts = text.trim().split(":");
+        try {
+            int minute = Integer.parseInt(parts[0]) * 60 + (parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+            if (parts.length <= 2 && minute >= 0 && minute <= MINUTES_PER_DAY) {
+                return minute;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid time '" + text.trim() + "' in promotion '" + promotion + "'");
+    }
+
+    private static int parseDays(String text, String promotion) {
+        int mask = 0;
+        for (String part : text.split(",")) {
+            String[] range = part.trim().split("-");
+            int from = day(range[0], promotion);
+            int to = range.length > 1 ? day(range[1], promotion) : from;
+            for (int d = from; ; d = (d + 1) % 7) {
+                mask |= 1 << d;
+                if (d == to) {
+                    break;
+                }
+            }
+        }
+        return mask;
+    }
+
+    private static int day(String text, String promotion) {
+        String prefix = text.trim().toUpperCase(Locale.ROOT);
+        for (DayOfWeek day : DayOfWeek.values()) {
+            if (prefix.length() >= 3 && day.name().startsWith(prefix)) {
+                return day.getValue() - 1;
+            }
+        }
+        throw new IllegalArgumentException("Invalid day '" + text.trim() + "' in promotion '" + promotion + "'");
+    }
+
+    private static List<List<Integer>> lists(int count) {
+        List<List<Integer>> lists = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            lists.add(new ArrayList<>());
+        }
+        return lists;
+    }
+
+    private static int[][] toArrays(List<List<Integer>> lists) {
+        int[][] arrays = new int[lists.size()][];
+        for (int i = 0; i < arrays.length; i++) {
+            arrays[i] = lists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return arrays;
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.PrintStream;
+
+/**
+ * Optional rendering stage: prints the breakdown of a PriceQuote the way
+ * calculatePriceWithBreakdown always has.
+ *
+ * Only the priced part of the order is printed. Error lines differ between
+ * MikeTeaShop and MikeTeaShop2, so the callers print those themselves.
+ * The StringBuilder forms let a caller publish a whole receipt as one ShopLog event.
+ */
+final class ReceiptRenderer {
+
+    private ReceiptRenderer() {
+    }
+
+    static void renderHeader(CharSequence input, PrintStream out) {
+        StringBuilder receipt = new StringBuilder();
+        renderHeader(input, receipt);
+        out.print(receipt);
+    }
+
+    static void renderHeader(CharSequence input, StringBuilder out) {
+        out.append("\n--- Order: ").append(input).append(" ---\n");
+    }
+
+    static void renderBreakdown(PriceQuote quote, PrintStream out) {
+        StringBuilder receipt = new StringBuilder();
+        renderBreakdown(quote, receipt);
+        out.print(receipt);
+    }
+
+    static void renderBreakdown(PriceQuote quote, StringBuilder out) {
+        boolean metrics = PricingMetrics.enabled();
+        long start = metrics ? System.nanoTime() : 0;
+        for (int i = 0; i < quote.itemCount(); i++) {
+            String name = quote.itemName(i);
+            double amount = MenuSnapshot.toDollars(quote.itemCents(i));
+            switch (quote.itemKind(i)) {
+                case TEA:
+                    out.append("Tea: ").append(capitalizeWords(name)).append(" - $")
+                            .append(String.format("%.2f", amount)).append('\n');
+                    break;
+                case MATERIAL:
+                    out.append("+ ").append(capitalizeWords(name)).append(" - $")
+                            .append(String.format("%.2f", amount)).append('\n');
+                    break;
+                case SWEET_LEVEL:
+                    out.append("Sweet Level: ").append(name).append('\n');
+                    if (amount < 0) {
+                        out.append("Discount: -$").append(String.format("%.2f", Math.abs(amount))).append('\n');
+                    } else if (amount > 0) {
+                        out.append("Surcharge: +$").append(String.format("%.2f", amount)).append('\n');
+                    }
+                    break;
+            }
+        }
+        for (int i = 0; i < quote.discountCount(); i++) {
+            out.append("Promotion: ").append(quote.discountName(i)).append(" -$")
+                    .append(String.format("%.2f", MenuSnapshot.toDollars(quote.discountCents(i)))).append('\n');
+        }
+        if (quote.isValid()) {
+            out.append("-------------------------\n");
+        }
+        if (metrics) {
+            PricingMetrics.lap(PricingMetrics.Stage.RENDER, start);
+        }
+    }
+
+    static String capitalizeWords(String str) {
+        return MenuRenderer.capitalizeWords(str);
+    }
+}
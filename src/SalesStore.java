@@ -0,0 +1,634 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only, columnar record of successfully priced orders, with aggregate
+ * queries over time windows.
+ *
+ * Each order is one row across primitive columns: tea id, sweet level id, total
+ * cents, timestamp and a slice of a flat material-id column. Rows live in
+ * fixed-size chunks, so appending never copies old data and allocates one set
+ * of arrays per CHUNK_SIZE orders; nothing is boxed per order. Memory is bounded:
+ * once the store holds its maximum number of orders the oldest chunk (CHUNK_SIZE
+ * orders) is dropped to make room, and retainSince() drops chunks older than a
+ * given time. Dropped orders no longer show up in any query; evicted() counts them.
+ *
+ * Ids here are stable for the life of the store: snapshot ids change whenever a
+ * menu is recompiled, so each catalog is translated through a per-name
+ * dictionary once and the translation is reused for every order priced against it.
+ *
+ * Recording threads do not share a lock: each appends to one of STRIPES small
+ * pending buffers, picked by thread id. When a buffer fills, or before a query,
+ * all pending buffers are merged into the chunks in timestamp order under the
+ * store's lock. A query reads the published row count first and only looks at
+ * rows below it, which were fully written before the count was published.
+ * Merged timestamps never go backwards, so a time window is found by binary search.
+ */
+final class SalesStore {
+
+    static final int CHUNK_SIZE = 1 << 16;
+
+    // Column bytes per order, with two material ids per order on average
+    static final int BYTES_PER_ORDER = 36;
+
+    // As many orders as fit in a quarter of the maximum heap, so eviction starts well before
+    // the heap runs out: with a 4 GB heap about 30 million orders, a day of tens of millions.
+    // Chunks are allocated as orders arrive, so an idle store stays small
+    static final long DEFAULT_MAX_ORDERS = Long.getLong("teashop.sales.maxOrders", defaultMaxOrders());
+
+    static final int STRIPES = 16;
+    static final int PENDING_ROWS = 256;
+
+    private static final class Chunk {
+        final int[] teas = new int[CHUNK_SIZE];
+        final int[] sweetLevels = new int[CHUNK_SIZE];
+        final long[] cents = new long[CHUNK_SIZE];
+        final long[] timestamps = new long[CHUNK_SIZE];
+        // Materials of row r are materials[materialStarts[r] .. materialStarts[r + 1])
+        final int[] materialStarts = new int[CHUNK_SIZE + 1];
+        // Replaced (never modified in place below the published count) when it grows
+        volatile int[] materials = new int[CHUNK_SIZE * 2];
+    }
+
+    // Chunks still held, and the global row number of the first one's first row
+    private static final class Chunks {
+        final Chunk[] chunks;
+        final long firstRow;
+
+        Chunks(Chunk[] chunks, long firstRow) {
+            this.chunks = chunks;
+            this.firstRow = firstRow;
+        }
+    }
+
+    // Orders recorded but not yet merged into the chunks, with ids of the menu they were priced against
+    private static final class Pending {
+        final MenuSnapshot[] menus = new MenuSnapshot[PENDING_ROWS];
+        final int[] teas = new int[PENDING_ROWS];
+        final int[] sweetLevels = new int[PENDING_ROWS];
+        final long[] cents = new long[PENDING_ROWS];
+        final long[] timestamps = new long[PENDING_ROWS];
+        final int[] materialStarts = new int[PENDING_ROWS + 1];
+        int[] materials = new int[PENDING_ROWS * 2];
+        int size;
+
+        boolean isFull() {
+            return size == PENDING_ROWS;
+        }
+
+        // False if the buffer is full
+        boolean add(PriceQuote quote, MenuSnapshot menu, long timestampMillis) {
+            if (size == PENDING_ROWS) {
+                return false;
+            }
+            int items = quote.itemCount();
+            int start = materialStarts[size];
+            int end = start + items - 2;
+            if (end > materials.length) {
+                materials = Arrays.copyOf(materials, Math.max(end, materials.length * 2));
+            }
+            for (int i = 1; i < items - 1; i++) {
+                materials[start + i - 1] = quote.itemId(i);
+            }
+            materialStarts[size + 1] = end;
+            menus[size] = menu;
+            teas[size] = quote.itemId(0);
+            sweetLevels[size] = quote.itemId(items - 1);
+            cents[size] = quote.totalCents();
+            timestamps[size] = timestampMillis;
+            size++;
+            return true;
+        }
+    }
+
+    // Each stripe's pending buffer is guarded by the stripe's lock and swapped out by merge()
+    private static final class Stripe {
+        Pending pending = new Pending();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private volatile Chunks chunks = new Chunks(new Chunk[0], 0);
+    private volatile long rowCount;
+    private long lastTimestamp;
+    private final int maxChunks;
+
+    private final Dictionary teaNames = new Dictionary();
+    private final Dictionary materialNames = new Dictionary();
+    private final Dictionary sweetLevelNames = new Dictionary();
+
+    SalesStore() {
+        this(DEFAULT_MAX_ORDERS);
+    }
+
+    private static long defaultMaxOrders() {
+        long orders = Runtime.getRuntime().maxMemory() / 4 / BYTES_PER_ORDER;
+        return Math.max(CHUNK_SIZE, orders / CHUNK_SIZE * CHUNK_SIZE);
+    }
+
+    SalesStore(long maxOrders) {
+        if (maxOrders < CHUNK_SIZE) {
+            throw new IllegalArgumentException("maxOrders must be at least " + CHUNK_SIZE + ": " + maxOrders);
+        }
+        this.maxChunks = (int) Math.min(Integer.MAX_VALUE, maxOrders / CHUNK_SIZE);
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // ===================== RECORDING =====================
+
+    /**
+     * Records a valid quote priced against {@code menu}, stamped with the current time.
+     * Invalid quotes are ignored.
+     */
+    void record(PriceQuote quote, MenuSnapshot menu) {
+        record(quote, menu, System.currentTimeMillis());
+    }
+
+    /**
+     * Records a valid quote with the given timestamp; a timestamp earlier than the
+     * last merged one is raised to it, so rows stay in time order.
+     */
+    void record(PriceQuote quote, MenuSnapshot menu, long timestampMillis) {
+        if (!quote.isValid()) {
+            return;
+        }
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        while (true) {
+            boolean added;
+            boolean full;
+            synchronized (stripe) {
+                added = stripe.pending.add(quote, menu, timestampMillis);
+                full = stripe.pending.isFull();
+            }
+            if (full) {
+                merge();
+            }
+            if (added) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves every pending order into the chunks, oldest first, and publishes them.
+     */
+    synchronized void merge() {
+        Pending[] batches = new Pending[STRIPES];
+        int rows = 0;
+        long oldest = Long.MAX_VALUE;
+        for (int i = 0; i < STRIPES; i++) {
+            Stripe stripe = stripes[i];
+            synchronized (stripe) {
+                if (stripe.pending.size > 0) {
+                    batches[i] = stripe.pending;
+                    stripe.pending = new Pending();
+                }
+            }
+            if (batches[i] != null) {
+                rows += batches[i].size;
+                for (int r = 0; r < batches[i].size; r++) {
+                    oldest = Math.min(oldest, batches[i].timestamps[r]);
+                }
+            }
+        }
+        if (rows == 0) {
+            return;
+        }
+        // Sort keys: time since the oldest pending order above the stripe and row
+        long[] order = new long[rows];
+        int n = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            Pending batch = batches[i];
+            for (int r = 0; batch != null && r < batch.size; r++) {
+                order[n++] = (batch.timestamps[r] - oldest) << 16 | (long) i << 8 | r;
+            }
+        }
+        Arrays.sort(order);
+        for (long key : order) {
+            append(batches[(int) (key >>> 8) & (STRIPES - 1)], (int) key & (PENDING_ROWS - 1));
+        }
+    }
+
+    // Caller holds the store's lock
+    private void append(Pending batch, int p) {
+        long row = rowCount;
+        Chunks current = chunks;
+        int chunkIndex = (int) ((row - current.firstRow) / CHUNK_SIZE);
+        if (chunkIndex == current.chunks.length) {
+            int drop = chunkIndex == maxChunks ? 1 : 0;
+            Chunk[] grown = Arrays.copyOfRange(current.chunks, drop, chunkIndex + 1);
+            grown[grown.length - 1] = new Chunk();
+            current = new Chunks(grown, current.firstRow + (long) drop * CHUNK_SIZE);
+            chunks = current;
+            chunkIndex -= drop;
+        }
+        Chunk chunk = current.chunks[chunkIndex];
+        int r = (int) ((row - current.firstRow) % CHUNK_SIZE);
+
+        MenuSnapshot menu = batch.menus[p];
+        int[] teaIds = teaNames.mappingFor(menu.teas());
+        int[] materialIds = materialNames.mappingFor(menu.materials());
+        int[] sweetLevelIds = sweetLevelNames.mappingFor(menu.sweetLevels());
+
+        int from = batch.materialStarts[p];
+        int count = batch.materialStarts[p + 1] - from;
+        int start = chunk.materialStarts[r];
+        int end = start + count;
+        int[] materials = chunk.materials;
+        if (end > materials.length) {
+            materials = Arrays.copyOf(materials, Math.max(end, materials.length * 2));
+        }
+        for (int i = 0; i < count; i++) {
+            materials[start + i] = materialIds[batch.materials[from + i]];
+        }
+        chunk.materials = materials;
+        chunk.materialStarts[r + 1] = end;
+
+        chunk.teas[r] = teaIds[batch.teas[p]];
+        chunk.sweetLevels[r] = sweetLevelIds[batch.sweetLevels[p]];
+        chunk.cents[r] = batch.cents[p];
+        lastTimestamp = Math.max(lastTimestamp, batch.timestamps[p]);
+        chunk.timestamps[r] = lastTimestamp;
+
+        rowCount = row + 1; // publishes the row
+    }
+
+    /**
+     * Drops whole chunks whose newest order is older than the given time.
+     */
+    synchronized void retainSince(long timestampMillis) {
+        merge();
+        Chunks current = chunks;
+        int drop = 0;
+        while (drop < current.chunks.length - 1
+                && current.chunks[drop].timestamps[CHUNK_SIZE - 1] < timestampMillis) {
+            drop++;
+        }
+        if (drop > 0) {
+            chunks = new Chunks(Arrays.copyOfRange(current.chunks, drop, current.chunks.length),
+                    current.firstRow + (long) drop * CHUNK_SIZE);
+        }
+    }
+
+    // ===================== QUERIES =====================
+
+    /**
+     * Orders currently held by the store.
+     */
+    long size() {
+        merge();
+        long count = rowCount;
+        return Math.max(0, count - chunks.firstRow);
+    }
+
+    /**
+     * Orders dropped so far to stay within the maximum or by retainSince().
+     */
+    long evicted() {
+        merge();
+        return chunks.firstRow;
+    }
+
+    /**
+     * Revenue in cents per tea id for orders in [from, to).
+     */
+    long[] revenueByTea(long fromMillis, long toMillis) {
+        long[] revenue = new long[teaNames.size()];
+        View view = view(fromMillis, toMillis);
+        for (long row = view.first; row < view.last; row++) {
+            Chunk chunk = view.chunk(row);
+            int r = view.offset(row);
+            int tea = chunk.teas[r];
+            if (tea >= revenue.length) {
+                revenue = Arrays.copyOf(revenue, teaNames.size());
+            }
+            revenue[tea] += chunk.cents[r];
+        }
+        return revenue;
+    }
+
+    /**
+     * Orders per sweet level id for orders in [from, to).
+     */
+    long[] sweetnessDistribution(long fromMillis, long toMillis) {
+        long[] counts = new long[sweetLevelNames.size()];
+        View view = view(fromMillis, toMillis);
+        for (long row = view.first; row < view.last; row++) {
+            int sweetness = view.chunk(row).sweetLevels[view.offset(row)];
+            if (sweetness >= counts.length) {
+                counts = Arrays.copyOf(counts, sweetLevelNames.size());
+            }
+            counts[sweetness]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Fraction of orders in [from, to) that include each material id at least once.
+     */
+    double[] attachRate(long fromMillis, long toMillis) {
+        long[] withMaterial = new long[materialNames.size()];
+        long[] lastRowSeen = new long[withMaterial.length];
+        Arrays.fill(lastRowSeen, -1);
+        View view = view(fromMillis, toMillis);
+        for (long row = view.first; row < view.last; row++) {
+            Chunk chunk = view.chunk(row);
+            int r = view.offset(row);
+            int[] materials = chunk.materials;
+            for (int i = chunk.materialStarts[r]; i < chunk.materialStarts[r + 1]; i++) {
+                int material = materials[i];
+                if (material >= withMaterial.length) {
+                    withMaterial = Arrays.copyOf(withMaterial, materialNames.size());
+                    int oldLength = lastRowSeen.length;
+                    lastRowSeen = Arrays.copyOf(lastRowSeen, withMaterial.length);
+                    Arrays.fill(lastRowSeen, oldLength, lastRowSeen.length, -1L);
+                }
+                // Count an order once even if it has the same material twice
+                if (lastRowSeen[material] != row) {
+                    lastRowSeen[material] = row;
+                    withMaterial[material]++;
+                }
+            }
+        }
+        long orders = view.last - view.first;
+        double[] rates = new double[withMaterial.length];
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = orders == 0 ? 0 : (double) withMaterial[i] / orders;
+        }
+        return rates;
+    }
+
+    /**
+     * The most ordered tea + materials combinations in [from, to), most frequent first.
+     * Materials are compared as a multiset, so their order in the order text does not matter.
+     * Combinations are told apart by a 64-bit hash of tea and sorted material ids.
+     */
+    List<Combo> topCombos(long fromMillis, long toMillis, int n) {
+        ComboCounter counter = new ComboCounter();
+        int[] sorted = new int[8];
+        View view = view(fromMillis, toMillis);
+        for (long row = view.first; row < view.last; row++) {
+            Chunk chunk = view.chunk(row);
+            int r = view.offset(row);
+            int start = chunk.materialStarts[r];
+            int count = chunk.materialStarts[r + 1] - start;
+            if (sorted.length < count) {
+                sorted = new int[count * 2];
+            }
+            System.arraycopy(chunk.materials, start, sorted, 0, count);
+            Arrays.sort(sorted, 0, count);
+
+            long hash = chunk.teas[r] * 0x9E3779B97F4A7C15L;
+            for (int i = 0; i < count; i++) {
+                hash = (hash ^ sorted[i]) * 0xBF58476D1CE4E5B9L;
+            }
+            hash ^= count;
+            counter.add(hash ^ (hash >>> 31), row, chunk.cents[r]);
+        }
+        return counter.top(n, this, view);
+    }
+
+    String teaName(int id) {
+        return teaNames.name(id);
+    }
+
+    String materialName(int id) {
+        return materialNames.name(id);
+    }
+
+    String sweetLevelName(int id) {
+        return sweetLevelNames.name(id);
+    }
+
+    // Named versions of the id-indexed queries, for printing
+    Map<String, Long> revenueByTeaName(long fromMillis, long toMillis) {
+        long[] revenue = revenueByTea(fromMillis, toMillis);
+        Map<String, Long> named = new HashMap<>();
+        for (int id = 0; id < revenue.length; id++) {
+            if (revenue[id] != 0) {
+                named.put(teaNames.name(id), revenue[id]);
+            }
+        }
+        return named;
+    }
+
+    static final class Combo {
+        final String tea;
+        final List<String> materials;
+        final long orders;
+        final long revenueCents;
+
+        Combo(String tea, List<String> materials, long orders, long revenueCents) {
+            this.tea = tea;
+            this.materials = Collections.unmodifiableList(materials);
+            this.orders = orders;
+            this.revenueCents = revenueCents;
+        }
+
+        @Override
+        public String toString() {
+            return tea + (materials.isEmpty() ? "" : " + " + String.join(" + ", materials))
+                    + ": " + orders + " orders, $" + String.format("%.2f", MenuSnapshot.toDollars(revenueCents));
+        }
+    }
+
+    // ===================== INTERNALS =====================
+
+    // Rows [first, last) of a time window, resolved against one Chunks instance
+    private static final class View {
+        final Chunk[] chunks;
+        final long firstRow;
+        final long first;
+        final long last;
+
+        View(Chunks chunks, long first, long last) {
+            this.chunks = chunks.chunks;
+            this.firstRow = chunks.firstRow;
+            this.first = first;
+            this.last = last;
+        }
+
+        Chunk chunk(long row) {
+            return chunks[(int) ((row - firstRow) / CHUNK_SIZE)];
+        }
+
+        int offset(long row) {
+            return (int) ((row - firstRow) % CHUNK_SIZE);
+        }
+
+        long timestamp(long row) {
+            return chunk(row).timestamps[offset(row)];
+        }
+    }
+
+    private View view(long fromMillis, long toMillis) {
+        merge();
+        long count = rowCount;
+        Chunks current = chunks;
+        // Chunks may have been dropped since the count was read
+        View all = new View(current, current.firstRow, Math.max(count, current.firstRow));
+        return new View(current, lowerBound(all, fromMillis), lowerBound(all, toMillis));
+    }
+
+    // First row with timestamp >= t
+    private static long lowerBound(View view, long t) {
+        long low = view.first;
+        long high = view.last;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (view.timestamp(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Stable id per name. Written under the store lock by merge(); readers only call name()
+     * for ids they found in published rows.
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private volatile String[] names = new String[16];
+        private volatile int size;
+
+        private MenuSnapshot.Catalog lastCatalog;
+        private int[] lastMapping;
+
+        int[] mappingFor(MenuSnapshot.Catalog catalog) {
+            if (catalog != lastCatalog) {
+                int[] mapping = new int[catalog.size()];
+                for (int id = 0; id < mapping.length; id++) {
+                    mapping[id] = idOf(catalog.name(id));
+                }
+                lastCatalog = catalog;
+                lastMapping = mapping;
+            }
+            return lastMapping;
+        }
+
+        private int idOf(String name) {
+            Integer id = ids.get(name);
+            if (id == null) {
+                id = size;
+                if (id == names.length) {
+                    names = Arrays.copyOf(names, id * 2);
+                }
+                names[id] = name;
+                ids.put(name, id);
+                size = id + 1;
+            }
+            return id;
+        }
+
+        String name(int id) {
+            return names[id];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Open-addressing table from combination hash to order count and revenue,
+     * remembering one row per combination to recover its names.
+     */
+    private static final class ComboCounter {
+        private long[] keys = new long[1024];
+        private long[] counts = new long[1024];
+        private long[] revenue = new long[1024];
+        private long[] sampleRows = new long[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        void add(long key, long row, long cents) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = key;
+                sampleRows[slot] = row;
+                size++;
+            }
+            counts[slot]++;
+            revenue[slot] += cents;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            long[] oldRevenue = revenue;
+            long[] oldRows = sampleRows;
+            boolean[] oldUsed = used;
+            int capacity = oldKeys.length * 2;
+            keys = new long[capacity];
+            counts = new long[capacity];
+            revenue = new long[capacity];
+            sampleRows = new long[capacity];
+            used = new boolean[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = (int) oldKeys[i] & mask;
+                    while (used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                    revenue[slot] = oldRevenue[i];
+                    sampleRows[slot] = oldRows[i];
+                }
+            }
+        }
+
+        List<Combo> top(int n, SalesStore store, View view) {
+            // Partial selection of the n largest counts
+            List<Integer> best = new ArrayList<>(n + 1);
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (!used[slot]) {
+                    continue;
+                }
+                int position = best.size();
+                while (position > 0 && counts[best.get(position - 1)] < counts[slot]) {
+                    position--;
+                }
+                if (position < n) {
+                    best.add(position, slot);
+                    if (best.size() > n) {
+                        best.remove(n);
+                    }
+                }
+            }
+
+            List<Combo> combos = new ArrayList<>(best.size());
+            for (int slot : best) {
+                long row = sampleRows[slot];
+                Chunk chunk = view.chunk(row);
+                int r = view.offset(row);
+                List<String> materials = new ArrayList<>();
+                for (int i = chunk.materialStarts[r]; i < chunk.materialStarts[r + 1]; i++) {
+                    materials.add(store.materialName(chunk.materials[i]));
+                }
+                Collections.sort(materials);
+                combos.add(new Combo(store.teaName(chunk.teas[r]), materials, counts[slot], revenue[slot]));
+            }
+            return combos;
+        }
+    }
+}
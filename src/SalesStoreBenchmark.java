@@ -0,0 +1,191 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Ingest rate and query latency of SalesStore for a day of orders (10 million by
+ * default, spread evenly over 24 hours), with the garbage collections that happen
+ * while ingesting. Checks the revenue and sweetness totals against sums kept on the side.
+ * Then records from 1 to 8 threads at once, and checks that a full store drops
+ * its oldest orders and counts them.
+ *
+ * Run: java -Xmx2g SalesStoreBenchmark [orders]
+ */
+public class SalesStoreBenchmark {
+
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    static final long HOUR_MILLIS = 60L * 60 * 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Random random = new Random(42);
+
+        Map<String, Double> teas = new HashMap<>();
+        Map<String, Double> materials = new HashMap<>();
+        Map<String, Double> sweetLevels = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            teas.put("tea " + i, 3.0 + i * 0.05);
+        }
+        for (int i = 0; i < 15; i++) {
+            materials.put("material " + i, 0.25 + i * 0.05);
+        }
+        for (String level : new String[]{"0%", "30%", "50%", "100%"}) {
+            sweetLevels.put(level, level.equals("0%") ? -0.5 : 0.0);
+        }
+        MenuSnapshot menu = MenuSnapshot.compile(teas, materials, sweetLevels);
+
+        // A pool of priced orders to record over and over
+        PriceQuote[] quotes = new PriceQuote[4096];
+        List<String> levels = menu.sweetLevels().names();
+        for (int i = 0; i < quotes.length; i++) {
+            StringBuilder order = new StringBuilder("tea " + Math.min(19, (int) Math.abs(random.nextGaussian() * 6)));
+            int toppings = random.nextInt(4);
+            for (int j = 0; j < toppings; j++) {
+                order.append(", material ").append(random.nextInt(15));
+            }
+            order.append(", ").append(levels.get(random.nextInt(levels.size())));
+            quotes[i] = OrderPricer.price(order, menu);
+            check(quotes[i].isValid(), "generated order is invalid: " + order);
+        }
+
+        System.out.println("=== SALES STORE BENCHMARK ===\n");
+        SalesStore store = new SalesStore(orders + SalesStore.CHUNK_SIZE);
+        long expectedRevenue = 0;
+        long[] expectedSweetness = new long[levels.size()];
+        long step = Math.max(1, DAY_MILLIS / orders);
+
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++) {
+            PriceQuote quote = quotes[i & (quotes.length - 1)];
+            store.record(quote, menu, i * step);
+            expectedRevenue += quote.totalCents();
+            expectedSweetness[quote.itemId(quote.itemCount() - 1)]++;
+        }
+        double ingestSeconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("Ingest: %,d orders in %.2f s (%,.0f orders/s), %d GCs taking %d ms",
+                orders, ingestSeconds, orders / ingestSeconds, gcCount() - gcCount, gcMillis() - gcMillis));
+
+        long actualRevenue = 0;
+        for (long cents : store.revenueByTea(0, Long.MAX_VALUE)) {
+            actualRevenue += cents;
+        }
+        check(actualRevenue == expectedRevenue, "revenue " + actualRevenue + " != " + expectedRevenue);
+        long[] sweetness = store.sweetnessDistribution(0, Long.MAX_VALUE);
+        for (int id = 0; id < levels.size(); id++) {
+            // Store ids follow first use, so compare by name
+            int storeId = -1;
+            for (int s = 0; s < sweetness.length; s++) {
+                if (store.sweetLevelName(s).equals(menu.sweetLevels().name(id))) {
+                    storeId = s;
+                }
+            }
+            check(storeId >= 0 && sweetness[storeId] == expectedSweetness[id], "sweetness count differs for "
+                    + menu.sweetLevels().name(id));
+        }
+
+        long end = (orders - 1) * step + 1;
+        long[][] windows = {{0, end}, {end - HOUR_MILLIS, end}, {end - 5 * 60 * 1000, end}};
+        String[] windowNames = {"whole day", "last hour", "last 5 min"};
+        for (int w = 0; w < windows.length; w++) {
+            long from = windows[w][0];
+            long to = windows[w][1];
+            for (int i = 0; i < 3; i++) { // warm-up
+                store.revenueByTea(from, to);
+                store.attachRate(from, to);
+                store.sweetnessDistribution(from, to);
+                store.topCombos(from, to, 5);
+            }
+            System.out.println(String.format("%n%s: revenue by tea %.1f ms, attach rate %.1f ms, "
+                            + "sweetness %.1f ms, top combos %.1f ms", windowNames[w],
+                    time(() -> store.revenueByTea(from, to)), time(() -> store.attachRate(from, to)),
+                    time(() -> store.sweetnessDistribution(from, to)), time(() -> store.topCombos(from, to, 5))));
+        }
+
+        System.out.println("\nTop combos of the day:");
+        for (SalesStore.Combo combo : store.topCombos(0, end, 5)) {
+            System.out.println("  " + combo);
+        }
+        check(store.evicted() == 0, "orders evicted below the maximum");
+
+        System.out.println();
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            concurrentIngest(threads, Math.min(orders, 2_000_000), quotes, menu);
+        }
+        checkEviction(quotes[0], menu);
+    }
+
+    // Every thread records its share of the orders into one store; all of them must be held
+    private static void concurrentIngest(int threads, int orders, PriceQuote[] quotes, MenuSnapshot menu)
+            throws InterruptedException {
+        SalesStore store = new SalesStore(orders + SalesStore.CHUNK_SIZE);
+        int perThread = orders / threads;
+        Thread[] recorders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int offset = t;
+            recorders[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    store.record(quotes[(i + offset) & (quotes.length - 1)], menu);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread recorder : recorders) {
+            recorder.start();
+        }
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        check(store.size() == (long) perThread * threads, "concurrent ingest lost orders: " + store.size());
+        System.out.println(String.format("Concurrent ingest, %d thread%s: %,.0f orders/s", threads,
+                threads == 1 ? " " : "s", perThread * threads / seconds));
+    }
+
+    // A store for one chunk keeps only the newest chunk and counts the rest as evicted
+    private static void checkEviction(PriceQuote quote, MenuSnapshot menu) {
+        SalesStore store = new SalesStore(SalesStore.CHUNK_SIZE);
+        for (int i = 0; i < 3 * SalesStore.CHUNK_SIZE; i++) {
+            store.record(quote, menu, i);
+        }
+        check(store.size() == SalesStore.CHUNK_SIZE && store.evicted() == 2L * SalesStore.CHUNK_SIZE,
+                "eviction: " + store.size() + " held, " + store.evicted() + " evicted");
+        long stillQueried = 0;
+        for (long count : store.sweetnessDistribution(0, 2L * SalesStore.CHUNK_SIZE)) {
+            stillQueried += count;
+        }
+        check(stillQueried == 0, "evicted orders still queried: " + stillQueried);
+    }
+
+    private static double time(Runnable query) {
+        long start = System.nanoTime();
+        query.run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
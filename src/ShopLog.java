@@ -0,0 +1,560 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous writer for receipts, menu audit lines and errors.
+ *
+ * Producers put events into a bounded lock-free ring (multi-producer, single
+ * consumer; one CAS per event) and return; they never wait on console or file
+ * I/O or on a PrintStream lock. A background thread takes events off the ring in
+ * batches of up to BATCH_SIZE, hands them to every sink and flushes the sinks
+ * once per batch, so a burst of receipts costs one write per sink. The writer
+ * wakes every IDLE_PARK_NANOS, or early once the ring is a quarter full.
+ *
+ * When the ring is full the Overflow policy decides: BLOCK waits for room (no
+ * event is lost), DROP discards the new event, SAMPLE keeps one overflowing event
+ * in sampleEvery (waiting for room for that one) and discards the rest. Discarded
+ * events are counted and reported by a "Log overflow" audit line once the writer
+ * catches up.
+ *
+ * close() (also run by a shutdown hook) writes every event published before it
+ * was called, flushes and closes the sinks. Events of one producer reach the
+ * sinks in the order they were published.
+ */
+final class ShopLog implements AutoCloseable {
+
+    enum Kind {
+        RECEIPT,
+        AUDIT,
+        ERROR,
+        // Anything else printed for the user, such as the menu
+        DISPLAY
+    }
+
+    enum Overflow {
+        BLOCK,
+        DROP,
+        SAMPLE
+    }
+
+    static final int DEFAULT_CAPACITY = 8192;
+    static final int DEFAULT_SAMPLE_EVERY = 16;
+    static final int BATCH_SIZE = 256;
+    static final long DEFAULT_FILE_BYTES = 16L << 20;
+    static final int DEFAULT_FILES_KEPT = 5;
+
+    // Longest an event waits in a quiet ring before it is written
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * One published event; text is printed as is and ends with a line break
+     * (see println) unless the producer wrote a partial line on purpose.
+     */
+    static final class Event {
+        final Kind kind;
+        final long timeMillis;
+        final String text;
+
+        Event(Kind kind, long timeMillis, String text) {
+            this.kind = kind;
+            this.timeMillis = timeMillis;
+            this.text = text;
+        }
+    }
+
+    /**
+     * Destination of events. Only the writer thread calls a sink: write() may
+     * buffer, flush() is called once per batch.
+     */
+    interface Sink extends Closeable {
+        void write(Event event) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    // Ring: slot i holds the event of position p when sequences[i] == p + 1,
+    // and is free for position p when sequences[i] == p
+    private final Event[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final int wakeAt;
+    private final AtomicLong tail = new AtomicLong();
+    private long head; // consumer only, guarded by the consumer lock
+
+    private final List<Sink> sinks;
+    private final Overflow overflow;
+    private final int sampleEvery;
+    private final Object consumer = new Object();
+    private final Thread writer;
+    private volatile boolean writerParked;
+    private volatile boolean closed;
+    private boolean sinksClosed; // guarded by the consumer lock
+    private volatile long writtenUpTo;
+
+    private final AtomicLong overflowed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong droppedSinceReport = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    ShopLog(List<Sink> sinks, int capacity, Overflow overflow, int sampleEvery) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("sampleEvery must be at least 1: " + sampleEvery);
+        }
+        this.slots = new Event[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+        this.wakeAt = capacity / 4;
+        this.sinks = new ArrayList<>(sinks);
+        this.overflow = overflow;
+        this.sampleEvery = sampleEvery;
+        this.writer = new Thread(this::writeLoop, "shop-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * The shop's log as configured by system properties: console output unless
+     * {@code teashop.log.console=false}, plus a rolling file when
+     * {@code teashop.log.file} names one ({@code teashop.log.file.bytes} per file,
+     * {@code teashop.log.file.keep} files). {@code teashop.log.overflow} is block,
+     * drop or sample ({@code teashop.log.sample} sets the rate) and
+     * {@code teashop.log.capacity} the ring size. Closed by a shutdown hook.
+     */
+    static ShopLog fromProperties() {
+        List<Sink> sinks = new ArrayList<>();
+        if (Boolean.parseBoolean(System.getProperty("teashop.log.console", "true"))) {
+            sinks.add(new ConsoleSink());
+        }
+        String file = System.getProperty("teashop.log.file");
+        if (file != null) {
+            try {
+                sinks.add(new RollingFileSink(Paths.get(file),
+                        Long.getLong("teashop.log.file.bytes", DEFAULT_FILE_BYTES),
+                        Integer.getInteger("teashop.log.file.keep", DEFAULT_FILES_KEPT)));
+            } catch (IOException e) {
+                System.err.println("Cannot open shop log " + file + ": " + e.getMessage());
+            }
+        }
+        Overflow overflow = Overflow.valueOf(
+                System.getProperty("teashop.log.overflow", "block").toUpperCase(Locale.ROOT));
+        ShopLog log = new ShopLog(sinks, Integer.getInteger("teashop.log.capacity", DEFAULT_CAPACITY),
+                overflow, Integer.getInteger("teashop.log.sample", DEFAULT_SAMPLE_EVERY));
+        Runtime.getRuntime().addShutdownHook(new Thread(log::close, "shop-log-shutdown"));
+        return log;
+    }
+
+    // ===================== PRODUCERS =====================
+
+    void println(Kind kind, String line) {
+        print(kind, line + "\n");
+    }
+
+    /**
+     * Publishes text without adding a line break. Returns false if the event was
+     * dropped by the overflow policy or published after close().
+     */
+    boolean print(Kind kind, String text) {
+        if (closed) {
+            countDropped();
+            return false;
+        }
+        Event event = new Event(kind, System.currentTimeMillis(), text);
+        long position = offer(event);
+        if (position < 0) {
+            if (overflow == Overflow.DROP
+                    || overflow == Overflow.SAMPLE && overflowed.incrementAndGet() % sampleEvery != 0) {
+                countDropped();
+                return false;
+            }
+            while ((position = offer(event)) < 0) {
+                // Once closed the writer may be gone; make room ourselves
+                if (closed && drainNow() == 0) {
+                    countDropped();
+                    return false;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, FULL_PARK_NANOS);
+            }
+        }
+        // The writer picks events up on its idle tick; it is only woken early
+        // when the ring starts to fill, so a producer rarely pays for an unpark
+        if (writerParked && position - writtenUpTo >= wakeAt) {
+            LockSupport.unpark(writer);
+        }
+        if (closed) {
+            // close() may have finished its last drain before this event was in the ring
+            drainNow();
+            if (stranded(position)) {
+                countDropped();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // True if the sinks closed before the event at this position was written;
+    // nothing drains the ring after that, so the event is lost
+    private boolean stranded(long position) {
+        synchronized (consumer) {
+            return sinksClosed && writtenUpTo <= position;
+        }
+    }
+
+    // Returns the position the event was published at, or -1 if the ring is full
+    private long offer(Event event) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = event;
+                    sequences.set(index, position + 1);
+                    return position;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // The slot still holds the event from one lap ago: full
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    private void countDropped() {
+        dropped.incrementAndGet();
+        droppedSinceReport.incrementAndGet();
+    }
+
+    /**
+     * Waits until every event published before the call has been written and the
+     * sinks flushed (for example before a caller swaps System.out back).
+     */
+    void flush() {
+        long target = tail.get();
+        while (writtenUpTo < target) {
+            if (closed) {
+                drainNow();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    // ===================== WRITER =====================
+
+    private void writeLoop() {
+        while (true) {
+            if (drainNow() > 0) {
+                continue;
+            }
+            if (closed) {
+                return;
+            }
+            writerParked = true;
+            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            writerParked = false;
+        }
+    }
+
+    // Writes up to BATCH_SIZE published events to every sink and flushes them;
+    // returns the number written
+    private int drainNow() {
+        synchronized (consumer) {
+            if (sinksClosed) {
+                return 0;
+            }
+            int count = 0;
+            while (count < BATCH_SIZE) {
+                int index = (int) head & mask;
+                if (sequences.get(index) != head + 1) {
+                    break;
+                }
+                Event event = slots[index];
+                slots[index] = null;
+                sequences.set(index, head + slots.length);
+                head++;
+                count++;
+                writeToSinks(event);
+            }
+            long lost = droppedSinceReport.getAndSet(0);
+            if (lost > 0) {
+                writeToSinks(new Event(Kind.AUDIT, System.currentTimeMillis(),
+                        "Log overflow: " + lost + " events dropped\n"));
+            }
+            if (count > 0 || lost > 0) {
+                for (Sink sink : sinks) {
+                    try {
+                        sink.flush();
+                    } catch (IOException e) {
+                        System.err.println("Shop log flush failed: " + e.getMessage());
+                    }
+                }
+                batches.incrementAndGet();
+            }
+            writtenUpTo = head;
+            return count;
+        }
+    }
+
+    private void writeToSinks(Event event) {
+        for (Sink sink : sinks) {
+            try {
+                sink.write(event);
+            } catch (IOException e) {
+                System.err.println("Shop log write failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // ===================== LIFECYCLE =====================
+
+    /**
+     * Writes everything published so far and closes the sinks. Later events are
+     * counted as dropped.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        LockSupport.unpark(writer);
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        // Producers that claimed a slot before close() may still be filling it
+        while (writtenUpTo < tail.get()) {
+            if (drainNow() == 0) {
+                Thread.onSpinWait();
+            }
+        }
+        synchronized (consumer) {
+            for (Sink sink : sinks) {
+                try {
+                    sink.close();
+                } catch (IOException e) {
+                    System.err.println("Shop log close failed: " + e.getMessage());
+                }
+            }
+            sinksClosed = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ===================== STATISTICS =====================
+
+    long published() {
+        return tail.get();
+    }
+
+    long written() {
+        return writtenUpTo;
+    }
+
+    long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Sink flushes so far; published() / batches() is the average batch size.
+     */
+    long batches() {
+        return batches.get();
+    }
+
+    // ===================== SINKS =====================
+
+    /**
+     * Writes event text as is to whatever System.out is at the time of the write,
+     * through a channel over it, so System.setOut still redirects the shop's output.
+     */
+    static final class ConsoleSink implements Sink {
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private PrintStream stream;
+        private WritableByteChannel channel;
+
+        @Override
+        public void write(Event event) throws IOException {
+            put(this.buffer, event.text.getBytes(StandardCharsets.UTF_8), this::flush);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            if (stream != System.out) {
+                stream = System.out;
+                channel = Channels.newChannel(stream);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            stream.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // System.out stays open
+            flush();
+        }
+    }
+
+    /**
+     * Appends events to a file, every line prefixed with the event time and kind.
+     * When the next flush would take the file past maxBytes it is renamed to
+     * file.1 (file.1 to file.2 and so on, dropping the oldest past keep files)
+     * and a new file started.
+     */
+    static final class RollingFileSink implements Sink {
+        private final Path file;
+        private final long maxBytes;
+        private final int keep;
+        private final ByteBuffer buffer = ByteBuffer.allocate(256 * 1024);
+        private final StringBuilder line = new StringBuilder(256);
+        private FileChannel channel;
+        private long size;
+        private int rolls;
+        // Events of the same millisecond share one formatted time
+        private long prefixMillis = Long.MIN_VALUE;
+        private String time;
+
+        RollingFileSink(Path file, long maxBytes, int keep) throws IOException {
+            if (maxBytes <= 0 || keep < 1) {
+                throw new IllegalArgumentException("maxBytes and keep must be positive");
+            }
+            this.file = file.toAbsolutePath();
+            this.maxBytes = maxBytes;
+            this.keep = keep;
+            Files.createDirectories(this.file.getParent());
+            open();
+        }
+
+        private void open() throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            size = channel.size();
+        }
+
+        @Override
+        public void write(Event event) throws IOException {
+            if (event.timeMillis != prefixMillis) {
+                prefixMillis = event.timeMillis;
+                time = Instant.ofEpochMilli(event.timeMillis).toString();
+            }
+            String text = event.text;
+            line.setLength(0);
+            int start = 0;
+            while (start < text.length()) {
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = text.length();
+                }
+                if (end > start) {
+                    line.append(time).append(' ').append(event.kind).append(' ').append(text, start, end).append('\n');
+                }
+                start = end + 1;
+            }
+            put(buffer, line.toString().getBytes(StandardCharsets.UTF_8), this::flush);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (buffer.position() == 0) {
+                return;
+            }
+            if (size > 0 && size + buffer.position() > maxBytes) {
+                roll();
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                size += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void roll() throws IOException {
+            channel.close();
+            Files.deleteIfExists(rolled(keep));
+            for (int i = keep - 1; i >= 1; i--) {
+                if (Files.exists(rolled(i))) {
+                    Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+            rolls++;
+            open();
+        }
+
+        Path rolled(int generation) {
+            return file.resolveSibling(file.getFileName() + "." + generation);
+        }
+
+        int rolls() {
+            return rolls;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+
+    private interface Flusher {
+        void flush() throws IOException;
+    }
+
+    // Buffers bytes, flushing first when they do not fit; larger texts are written through in pieces
+    private static void put(ByteBuffer buffer, byte[] bytes, Flusher flusher) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                flusher.flush();
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+}
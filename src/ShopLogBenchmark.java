@@ -0,0 +1,258 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Order-thread cost of writing receipts: synchronous print to an autoflushing
+ * PrintStream over a file (what System.out redirected to a file does) against
+ * publishing to ShopLog with a rolling file sink, at 1 to 8 producer threads.
+ * Receipts come in bursts of BURST per thread with a short pause between
+ * bursts, as orders do at a busy counter; a burst fits in the ring, so the
+ * ShopLog producers should not wait on the writer. Reports the mean and the
+ * 99th / 99.9th percentile time per receipt seen by the producer.
+ *
+ * Checks first that BLOCK loses nothing and keeps every producer's events in
+ * order across rolled files, that close() writes everything published before
+ * it, that events racing close() are either written or counted as dropped,
+ * and that DROP and SAMPLE account for every event against a slow sink.
+ *
+ * Run: java ShopLogBenchmark [receipts per thread]
+ */
+public class ShopLogBenchmark {
+
+    static final String RECEIPT = "\n--- Order: green tea, pearl, coconut, 0% ---\nTea: Green Tea - $3.50\n"
+            + "+ Pearl - $0.75\n+ Coconut - $0.50\nSweet Level: 0%\nDiscount: -$0.50\n-------------------------\n";
+
+    static final int BURST = 500;
+    static final long PAUSE_MILLIS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int receipts = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path directory = Files.createTempDirectory("shop-log-benchmark");
+        try {
+            checkBlockKeepsEverything(directory.resolve("check"));
+            checkOverflowCounts(ShopLog.Overflow.DROP);
+            checkOverflowCounts(ShopLog.Overflow.SAMPLE);
+            checkCloseRaceCounts();
+
+            // Warm-up, not reported
+            run(2, receipts, directory.resolve("warm-up"), false);
+
+            System.out.println("=== SHOP LOG BENCHMARK (" + String.format("%,d", receipts)
+                    + " receipts per thread) ===\n");
+            for (int threads : new int[]{1, 2, 4, 8}) {
+                run(threads, receipts, directory.resolve("run-" + threads), true);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void run(int threads, int receipts, Path directory, boolean report) throws Exception {
+        Files.createDirectories(directory);
+        long[] syncNanos;
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(
+                Files.newOutputStream(directory.resolve("sync.log")), 8192), true)) {
+            syncNanos = produce(threads, receipts, () -> out.print(RECEIPT));
+        }
+        ShopLog.RollingFileSink sink = new ShopLog.RollingFileSink(directory.resolve("async.log"), 64L << 20, 2);
+        ShopLog log = new ShopLog(Collections.singletonList(sink), ShopLog.DEFAULT_CAPACITY,
+                ShopLog.Overflow.BLOCK, ShopLog.DEFAULT_SAMPLE_EVERY);
+        long[] asyncNanos = produce(threads, receipts, () -> log.print(ShopLog.Kind.RECEIPT, RECEIPT));
+        log.close();
+        check(log.written() == (long) threads * receipts && log.dropped() == 0, "receipts lost");
+        if (!report) {
+            return;
+        }
+        System.out.println(String.format("%d thread%s  sync println %s", threads, threads == 1 ? " " : "s",
+                summary(syncNanos)));
+        System.out.println(String.format("           ShopLog      %s  (%.0f receipts per flush)",
+                summary(asyncNanos), (double) log.written() / log.batches()));
+    }
+
+    // Times every call on every thread; returns the sorted per-call nanos
+    private static long[] produce(int threads, int receipts, Runnable write) throws InterruptedException {
+        long[][] nanos = new long[threads][receipts];
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long[] times = nanos[t];
+            Thread producer = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    for (int i = 0; i < receipts; i++) {
+                        if (i % BURST == 0) {
+                            Thread.sleep(PAUSE_MILLIS);
+                        }
+                        long start = System.nanoTime();
+                        write.run();
+                        times[i] = System.nanoTime() - start;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        ready.await();
+        go.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long[] all = new long[threads * receipts];
+        for (int t = 0; t < threads; t++) {
+            System.arraycopy(nanos[t], 0, all, t * receipts, receipts);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    private static String summary(long[] sorted) {
+        long total = 0;
+        for (long nanos : sorted) {
+            total += nanos;
+        }
+        return String.format("mean %,7.0f ns  p99 %,9d ns  p99.9 %,10d ns", (double) total / sorted.length,
+                sorted[(int) (sorted.length * 0.99)], sorted[(int) (sorted.length * 0.999)]);
+    }
+
+    // Small ring and small files: producers wait for room, files roll, and every line must come back in order
+    private static void checkBlockKeepsEverything(Path directory) throws Exception {
+        int threads = 4;
+        int events = 20_000;
+        ShopLog.RollingFileSink sink = new ShopLog.RollingFileSink(directory.resolve("check.log"), 256 * 1024, 100);
+        ShopLog log = new ShopLog(Collections.singletonList(sink), 64, ShopLog.Overflow.BLOCK, 1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < events; i++) {
+                    log.println(ShopLog.Kind.AUDIT, "producer " + id + " event " + i);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        log.close();
+        check(sink.rolls() > 0, "file never rolled");
+
+        int[] next = new int[threads];
+        for (int generation = sink.rolls(); generation >= 0; generation--) {
+            Path file = generation == 0 ? directory.resolve("check.log") : sink.rolled(generation);
+            for (String line : Files.readAllLines(file)) {
+                String[] words = line.split(" ");
+                check(words[1].equals("AUDIT"), "bad line: " + line);
+                int producer = Integer.parseInt(words[3]);
+                check(Integer.parseInt(words[5]) == next[producer]++, "out of order: " + line);
+            }
+        }
+        for (int count : next) {
+            check(count == events, "events lost: " + count + " of " + events);
+        }
+        check(!log.print(ShopLog.Kind.AUDIT, "late\n") && log.dropped() == 1, "event after close not dropped");
+    }
+
+    // A sink slower than the producer: dropped + written must add up to published
+    private static void checkOverflowCounts(ShopLog.Overflow overflow) throws IOException {
+        int[] written = new int[1];
+        ShopLog.Sink slow = new ShopLog.Sink() {
+            @Override
+            public void write(ShopLog.Event event) {
+                if (!event.text.startsWith("Log overflow")) {
+                    written[0]++;
+                }
+                long until = System.nanoTime() + 2_000;
+                while (System.nanoTime() < until) {
+                    Thread.onSpinWait();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        ShopLog log = new ShopLog(Collections.singletonList(slow), 16, overflow, 4);
+        int events = 20_000;
+        int accepted = 0;
+        for (int i = 0; i < events; i++) {
+            if (log.print(ShopLog.Kind.RECEIPT, RECEIPT)) {
+                accepted++;
+            }
+        }
+        log.close();
+        check(log.dropped() > 0, overflow + " never dropped");
+        check(written[0] == accepted && accepted + log.dropped() == events,
+                overflow + ": " + written[0] + " written + " + log.dropped() + " dropped != " + events);
+    }
+
+    // Producers still printing while close() runs: every event is written or dropped, never left in the ring
+    private static void checkCloseRaceCounts() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            ShopLog.Sink discard = new ShopLog.Sink() {
+                @Override
+                public void write(ShopLog.Event event) {
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            ShopLog log = new ShopLog(Collections.singletonList(discard), 64, ShopLog.Overflow.BLOCK, 1);
+            int threads = 4;
+            int events = 2_000;
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < events; i++) {
+                        log.print(ShopLog.Kind.AUDIT, "event\n");
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            Thread.sleep(1);
+            log.close();
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            check(log.written() + log.dropped() == (long) threads * events,
+                    "close race: " + log.written() + " written + " + log.dropped() + " dropped != "
+                            + threads * events);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Latency of SuggestionIndex lookups on large generated menus, with typo'd names
+ * (one or two edits away) and unrelated names. Also checks that for every typo
+ * the first suggestion is at least as close as the name it was made from.
+ *
+ * Run: java SuggestionBenchmark [queries]
+ */
+public class SuggestionBenchmark {
+
+    static final String[] WORDS = {
+            "black", "green", "oolong", "jasmine", "earl", "grey", "honey", "milk", "matcha", "taro",
+            "mango", "peach", "lychee", "rose", "lemon", "ginger", "brown", "sugar", "pearl", "jelly",
+            "coconut", "oat", "almond", "passion", "fruit", "winter", "melon", "plum", "yuzu", "hojicha"
+    };
+
+    public static void main(String[] args) {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        Random random = new Random(42);
+
+        System.out.println("=== SUGGESTION INDEX BENCHMARK ===\n");
+        for (int size : new int[]{1_000, 10_000, 50_000}) {
+            List<String> names = generateNames(size, random);
+            long start = System.nanoTime();
+            SuggestionIndex index = new SuggestionIndex(names);
+            double buildMillis = (System.nanoTime() - start) / 1e6;
+
+            String[] originals = new String[1024];
+            String[] typos = new String[1024];
+            String[] unrelated = new String[1024];
+            for (int i = 0; i < typos.length; i++) {
+                originals[i] = names.get(random.nextInt(names.size()));
+                typos[i] = typo(originals[i], random, 1 + random.nextInt(2));
+                unrelated[i] = "zq" + Integer.toString(random.nextInt(1 << 20), 36) + " xv";
+            }
+
+            verify(index, originals, typos);
+            measure(index, typos, queries / 10); // warm-up
+            measure(index, unrelated, queries / 10);
+            PricingMetrics.HistogramSnapshot typoLatency = measure(index, typos, queries);
+            PricingMetrics.HistogramSnapshot unrelatedLatency = measure(index, unrelated, queries);
+
+            System.out.println(String.format("%,7d items (built in %.0f ms)", size, buildMillis));
+            System.out.println(String.format("  typos:     p50 %6.1f us   p99 %7.1f us   max %7.1f us",
+                    typoLatency.percentile(0.50) / 1e3, typoLatency.percentile(0.99) / 1e3, typoLatency.max() / 1e3));
+            System.out.println(String.format("  unrelated: p50 %6.1f us   p99 %7.1f us   max %7.1f us",
+                    unrelatedLatency.percentile(0.50) / 1e3, unrelatedLatency.percentile(0.99) / 1e3,
+                    unrelatedLatency.max() / 1e3));
+        }
+    }
+
+    private static PricingMetrics.HistogramSnapshot measure(SuggestionIndex index, String[] inputs, int queries) {
+        PricingMetrics.LatencyHistogram histogram = new PricingMetrics.LatencyHistogram();
+        int found = 0;
+        for (int i = 0; i < queries; i++) {
+            long start = System.nanoTime();
+            found += index.suggest(inputs[i % inputs.length]).size();
+            histogram.record(System.nanoTime() - start);
+        }
+        if (found < 0) {
+            System.out.println(found);
+        }
+        return histogram.snapshot();
+    }
+
+    private static void verify(SuggestionIndex index, String[] originals, String[] typos) {
+        for (int i = 0; i < typos.length; i++) {
+            String input = typos[i];
+            int[] a = new int[input.length() + 1];
+            int[] b = new int[input.length() + 1];
+            List<String> suggestions = index.suggest(input);
+            if (suggestions.isEmpty() || SuggestionIndex.distance(input, suggestions.get(0), a, b)
+                    > SuggestionIndex.distance(input, originals[i], a, b)) {
+                throw new IllegalStateException("Bad suggestions for '" + input + "' (from '" + originals[i] + "'): "
+                        + suggestions);
+            }
+        }
+    }
+
+    private static List<String> generateNames(int size, Random random) {
+        Set<String> names = new HashSet<>();
+        while (names.size() < size) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+            if (random.nextBoolean()) {
+                name += " " + WORDS[random.nextInt(WORDS.length)];
+            }
+            names.add(name + " " + random.nextInt(1000));
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static String typo(String name, Random random, int edits) {
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i < edits; i++) {
+            int at = random.nextInt(sb.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    sb.deleteCharAt(at);
+                    break;
+                case 1:
+                    sb.insert(at, (char) ('a' + random.nextInt(26)));
+                    break;
+                default:
+                    sb.setCharAt(at, (char) ('a' + random.nextInt(26)));
+                    break;
+            }
+        }
+        return sb.toString();
+    }
+}
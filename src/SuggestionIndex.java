@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * "Did you mean" index for one menu: an inverted index from character trigrams
+ * to the names containing them.
+ *
+ * Names are padded and split on spaces ("fake pearl" becomes "$fake$pearl$") before
+ * taking trigrams, so typos, missing words and extra words all keep most trigrams
+ * in common with the intended name. A query counts shared trigrams through the
+ * posting lists, keeps the best candidates by trigram similarity, and ranks those
+ * by edit distance. Only posting lists of the query's own trigrams are touched, so
+ * the cost depends on how common those trigrams are rather than on the menu size.
+ *
+ * The shops update the index in their synchronized add and remove methods. Posting
+ * lists are copy-on-write int arrays and names live in an array indexed by id, so
+ * queries run lock-free against concurrent edits. The id of a removed name is
+ * given to the next added one, so the arrays stay as large as the most names ever
+ * indexed at once rather than growing with every edit; a query racing such an edit
+ * may skip or misrank that one name, but only ever returns names that are indexed.
+ */
+final class SuggestionIndex {
+
+    static final int DEFAULT_LIMIT = 3;
+
+    // Candidates kept by trigram similarity before ranking by edit distance
+    private static final int CANDIDATES = 32;
+    private static final double MIN_SIMILARITY = 0.3;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final ConcurrentHashMap<String, int[]> postings = new ConcurrentHashMap<>();
+
+    // Indexed by name id; removed names are set to null until their id is reused
+    private volatile String[] names = new String[16];
+    private volatile int[] gramCounts = new int[16];
+
+    // Writer side, guarded by this
+    private final Map<String, Integer> ids = new HashMap<>();
+    private int nextId;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    SuggestionIndex() {
+    }
+
+    SuggestionIndex(Iterable<String> names) {
+        addAll(names);
+    }
+
+    /**
+     * Bulk add (initial build, menu imports): posting lists are collected first and
+     * each one is copied once, instead of once per added name.
+     */
+    synchronized void addAll(Iterable<String> names) {
+        Map<String, int[]> building = new HashMap<>();
+        Map<String, Integer> lengths = new HashMap<>();
+        for (String name : names) {
+            List<String> grams = trigrams(name);
+            int id = register(name, grams);
+            if (id < 0) {
+                continue;
+            }
+            for (String gram : grams) {
+                int[] posting = building.get(gram);
+                if (posting == null) {
+                    int[] existing = postings.getOrDefault(gram, EMPTY);
+                    posting = Arrays.copyOf(existing, existing.length + 4);
+                    building.put(gram, posting);
+                    lengths.put(gram, existing.length);
+                }
+                int length = lengths.merge(gram, 1, Integer::sum);
+                if (length > posting.length) {
+                    posting = Arrays.copyOf(posting, posting.length * 2);
+                    building.put(gram, posting);
+                }
+                posting[length - 1] = id;
+            }
+        }
+        building.forEach((gram, posting) -> postings.put(gram, Arrays.copyOf(posting, lengths.get(gram))));
+    }
+
+    synchronized void add(String name) {
+        List<String> grams = trigrams(name);
+        int id = register(name, grams);
+        if (id < 0) {
+            return;
+        }
+        for (String gram : grams) {
+            int[] posting = postings.getOrDefault(gram, EMPTY);
+            int[] updated = Arrays.copyOf(posting, posting.length + 1);
+            updated[posting.length] = id;
+            postings.put(gram, updated);
+        }
+    }
+
+    // Assigns a free or the next id to a new name; returns -1 if the name is already indexed
+    private int register(String name, List<String> grams) {
+        if (ids.containsKey(name)) {
+            return -1;
+        }
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        if (id == names.length) {
+            gramCounts = Arrays.copyOf(gramCounts, id * 2);
+            names = Arrays.copyOf(names, id * 2);
+        }
+        gramCounts[id] = grams.size();
+        names[id] = name;
+        ids.put(name, id);
+        return id;
+    }
+
+    synchronized void remove(String name) {
+        Integer id = ids.remove(name);
+        if (id == null) {
+            return;
+        }
+        for (String gram : trigrams(name)) {
+            int[] posting = postings.get(gram);
+            if (posting.length == 1) {
+                postings.remove(gram);
+                continue;
+            }
+            int[] updated = new int[posting.length - 1];
+            int next = 0;
+            for (int other : posting) {
+                if (other != id) {
+                    updated[next++] = other;
+                }
+            }
+            postings.put(gram, updated);
+        }
+        names[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+
+    synchronized int size() {
+        return ids.size();
+    }
+
+    List<String> suggest(CharSequence input) {
+        return suggest(input, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Up to {@code limit} menu names similar to the input, closest first. A name
+     * qualifies if it shares at least 30% of its trigrams with the input, or is one
+     * edit away (one per four characters of input, for longer inputs).
+     */
+    List<String> suggest(CharSequence input, int limit) {
+        String query = input.toString();
+        List<String> queryGrams = trigrams(query);
+        String[] names = this.names;
+        int[] gramCounts = this.gramCounts;
+        Scratch s = scratch.get();
+        s.ensureCapacity(names.length, query.length());
+
+        // Count shared trigrams per name
+        int touched = 0;
+        for (String gram : queryGrams) {
+            int[] posting = postings.get(gram);
+            if (posting == null) {
+                continue;
+            }
+            for (int id : posting) {
+                if (id >= names.length) {
+                    continue; // added after this query read the names array
+                }
+                if (s.counts[id]++ == 0) {
+                    s.touched[touched++] = id;
+                }
+            }
+        }
+
+        // Keep the most similar candidates (Jaccard similarity of the trigram sets)
+        int kept = 0;
+        for (int i = 0; i < touched; i++) {
+            int id = s.touched[i];
+            int shared = s.counts[id];
+            s.counts[id] = 0;
+            if (shared > gramCounts[id]) {
+                continue; // the id was reused by a concurrent edit
+            }
+            double similarity = (double) shared / (queryGrams.size() + gramCounts[id] - shared);
+            int position = kept < CANDIDATES ? kept++ : CANDIDATES;
+            while (position > 0 && s.similarities[position - 1] < similarity) {
+                if (position < CANDIDATES) {
+                    s.candidates[position] = s.candidates[position - 1];
+                    s.similarities[position] = s.similarities[position - 1];
+                }
+                position--;
+            }
+            if (position < CANDIDATES) {
+                s.candidates[position] = id;
+                s.similarities[position] = similarity;
+            }
+        }
+
+        // Rank the candidates by edit distance, then similarity, then name
+        int maxEdits = Math.max(1, query.length() / 4);
+        List<Suggestion> ranked = new ArrayList<>();
+        for (int i = 0; i < kept; i++) {
+            String name = names[s.candidates[i]];
+            if (name == null) {
+                continue; // removed
+            }
+            int distance = distance(query, name, s.previousRow, s.currentRow);
+            if (s.similarities[i] >= MIN_SIMILARITY || distance <= maxEdits) {
+                ranked.add(new Suggestion(name, distance, s.similarities[i]));
+            }
+        }
+        Collections.sort(ranked);
+        List<String> result = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            result.add(ranked.get(i).name);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // "green tea" -> $gr, gre, ree, een, en$, n$t, $te, tea, ea$ (each distinct trigram once)
+    static List<String> trigrams(String name) {
+        String padded = "$" + name.replace(' ', '$') + "$";
+        List<String> grams = new ArrayList<>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            String gram = padded.substring(i, i + 3);
+            if (!grams.contains(gram)) {
+                grams.add(gram);
+            }
+        }
+        if (grams.isEmpty()) {
+            grams.add(padded);
+        }
+        return grams;
+    }
+
+    /**
+     * Levenshtein distance using two caller-supplied rows of at least a.length() + 1.
+     */
+    static int distance(String a, String b, int[] previousRow, int[] currentRow) {
+        int n = a.length();
+        for (int i = 0; i <= n; i++) {
+            previousRow[i] = i;
+        }
+        for (int j = 1; j <= b.length(); j++) {
+            char c = b.charAt(j - 1);
+            currentRow[0] = j;
+            for (int i = 1; i <= n; i++) {
+                int cost = a.charAt(i - 1) == c ? 0 : 1;
+                currentRow[i] = Math.min(Math.min(currentRow[i - 1] + 1, previousRow[i] + 1), previousRow[i - 1] + cost);
+            }
+            int[] swap = previousRow;
+            previousRow = currentRow;
+            currentRow = swap;
+        }
+        return previousRow[n];
+    }
+
+    private static final class Suggestion implements Comparable<Suggestion> {
+        final String name;
+        final int distance;
+        final double similarity;
+
+        Suggestion(String name, int distance, double similarity) {
+            this.name = name;
+            this.distance = distance;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public int compareTo(Suggestion other) {
+            if (distance != other.distance) {
+                return Integer.compare(distance, other.distance);
+            }
+            if (similarity != other.similarity) {
+                return Double.compare(other.similarity, similarity);
+            }
+            return name.compareTo(other.name);
+        }
+    }
+
+    // Per-thread query buffers; counts is all zeros between queries
+    private static final class Scratch {
+        int[] counts = new int[0];
+        int[] touched = new int[0];
+        final int[] candidates = new int[CANDIDATES];
+        final double[] similarities = new double[CANDIDATES];
+        int[] previousRow = new int[0];
+        int[] currentRow = new int[0];
+
+        void ensureCapacity(int ids, int queryLength) {
+            if (counts.length < ids) {
+                counts = new int[ids];
+                touched = new int[ids];
+            }
+            if (previousRow.length <= queryLength) {
+                previousRow = new int[queryLength + 1];
+                currentRow = new int[queryLength + 1];
+            }
+        }
+    }
+}
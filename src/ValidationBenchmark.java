@@ -0,0 +1,100 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Throughput of MikeTeaShop2's two validation styles: throwIfInvalid, as used by
+ * calculatePrice (one TeaShopException with a stack trace per bad order), versus
+ * reading the quote's error code, on valid orders, invalid orders and a mix.
+ * Both paths price with OrderPricer against the same menu and look up the same
+ * "Did you mean" suggestions, so only the way the error is reported differs.
+ *
+ * Run: java ValidationBenchmark [iterations]
+ */
+public class ValidationBenchmark {
+
+    static final String[] VALID = {
+            "black tea, 0%",
+            "green tea, pearl, coconut, 0%",
+            "oolong tea, coconut, 50%",
+            "GREEN TEA,PEARL,50%"
+    };
+
+    static final String[] INVALID = {
+            "green tea",
+            "nonexistent tea,50%",
+            "green tea, fake pearl,50%",
+            "black tea,pearl,150%"
+    };
+
+    static final String[] MIXED = {
+            "black tea, 0%",
+            "nonexistent tea,50%",
+            "green tea, pearl, coconut, 0%",
+            "green tea, fake pearl,50%",
+            "oolong tea, coconut, 50%",
+            "GREEN TEA,PEARL,50%",
+            "black tea,pearl,150%",
+            "green tea, pearl, 30%"
+    };
+
+    static volatile double sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        System.out.println("=== VALIDATION BENCHMARK ===\n");
+        for (String[] orders : new String[][]{VALID, INVALID, MIXED}) {
+            runExceptions(orders, iterations / 4);
+            runResultCodes(orders, iterations / 4);
+        }
+
+        report("valid", VALID, iterations);
+        report("invalid", INVALID, iterations);
+        report("mixed", MIXED, iterations);
+    }
+
+    private static void report(String name, String[] orders, int iterations) {
+        long start = System.nanoTime();
+        runExceptions(orders, iterations);
+        double exceptions = iterations * 1e9 / (System.nanoTime() - start);
+
+        start = System.nanoTime();
+        runResultCodes(orders, iterations);
+        double resultCodes = iterations * 1e9 / (System.nanoTime() - start);
+
+        System.out.println(String.format("%-8s exceptions %,12.0f orders/s   result codes %,12.0f orders/s   (%.1fx)",
+                name, exceptions, resultCodes, resultCodes / exceptions));
+    }
+
+    private static void runExceptions(String[] orders, int iterations) {
+        double total = 0;
+        for (int i = 0; i < iterations; i++) {
+            try {
+                PriceQuote quote = OrderPricer.price(orders[i % orders.length], MikeTeaShop2.menu);
+                MikeTeaShop2.throwIfInvalid(quote);
+                total += quote.total();
+            } catch (TeaShopException e) {
+                total -= e.getMessage().length() + suggestions(e).size();
+            }
+        }
+        sink = total;
+    }
+
+    private static List<String> suggestions(TeaShopException e) {
+        return e instanceof InvalidItemException ? ((InvalidItemException) e).getSuggestions() : Collections.emptyList();
+    }
+
+    private static void runResultCodes(String[] orders, int iterations) {
+        double total = 0;
+        PriceQuote quote = new PriceQuote();
+        for (int i = 0; i < iterations; i++) {
+            OrderPricer.price(orders[i % orders.length], MikeTeaShop2.menu, quote);
+            if (quote.isValid()) {
+                total += quote.total();
+            } else {
+                total -= quote.errorMessage().length() + MikeTeaShop2.suggestionsFor(quote).size();
+            }
+        }
+        sink = total;
+    }
+}